@@ -0,0 +1,93 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.benchmark;
+
+import java.util.Arrays;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Creates the Json messages used by the benchmarks.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+final class BenchmarkBodies {
+
+    private static final int ELEMENT_SIZE = 16;
+
+    private BenchmarkBodies() {
+    }
+
+    /**
+     * Create a Json message with a body of the given type and about the given size in bytes.
+     *
+     * @param bodyType text, map, stream or binary
+     * @param size size of the body in bytes
+     * @return Json message with the body
+     */
+    static JsonObject create(String bodyType, int size) {
+        JsonObject json = new JsonObject();
+        int elements = Math.max(1, size / ELEMENT_SIZE);
+
+        switch (bodyType) {
+        case "text":
+            json.putString("body", text(size));
+            break;
+        case "map":
+            JsonObject map = new JsonObject();
+            for (int i = 0; i < elements; i++) {
+                map.putString("field-" + i, text(ELEMENT_SIZE));
+            }
+            json.putObject("body", map);
+            break;
+        case "stream":
+            JsonArray array = new JsonArray();
+            for (int i = 0; i < elements; i++) {
+                array.addString(text(ELEMENT_SIZE));
+            }
+            json.putArray("body", array);
+            break;
+        case "binary":
+            json.putBinary("body", bytes(size));
+            json.putString("body-type", "binary");
+            break;
+        default:
+            throw new IllegalArgumentException("unknown body type " + bodyType);
+        }
+
+        return json;
+    }
+
+    static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        return bytes;
+    }
+
+    private static String text(int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+
+        return new String(chars);
+    }
+
+}
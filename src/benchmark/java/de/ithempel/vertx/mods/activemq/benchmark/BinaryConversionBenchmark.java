@@ -0,0 +1,109 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+import de.ithempel.vertx.mods.activemq.MessageConverter;
+
+/**
+ * Benchmark of binary content send as Base64 field of a JsonObject compared to the content
+ * send as a Buffer to the binary address of the module.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryConversionBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    private int size;
+
+    private Connection connection;
+    private MessageConverter converter;
+    private JsonObject json;
+    private Buffer buffer;
+    private ActiveMQBytesMessage message;
+
+    @Setup
+    public void setup() throws JMSException {
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+                "vm://binary-benchmark?broker.persistent=false&broker.useJmx=false");
+        connection = connectionFactory.createConnection();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        converter = new MessageConverter(session);
+        json = BenchmarkBodies.create("binary", size);
+        buffer = new Buffer(BenchmarkBodies.bytes(size));
+        message = (ActiveMQBytesMessage) converter.convertToBytesMessage(buffer, 0);
+        message.reset();
+    }
+
+    @TearDown
+    public void tearDown() throws JMSException {
+        connection.close();
+    }
+
+    @Benchmark
+    public Message base64ToMessage() throws JMSException {
+        return converter.convertToJmsMessage(json);
+    }
+
+    @Benchmark
+    public BytesMessage bufferToMessage() throws JMSException {
+        return converter.convertToBytesMessage(buffer, 0);
+    }
+
+    @Benchmark
+    public String messageToBase64() throws JMSException {
+        return converter.convertToJsonObject(message).encode();
+    }
+
+    @Benchmark
+    public Buffer messageToBuffer() throws JMSException {
+        return converter.convertToBuffer(message);
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.SubscriptionOptions;
+
+/**
+ * Benchmark of the {@link ActiveMqClient} against a broker embedded in the benchmark JVM.
+ *
+ * The client connects with TCP to the broker like in production. The send benchmark spreads
+ * the messages over the given number of destinations. With more destinations than the size of
+ * the producer cache every send has to create a new producer. The round trip benchmark measures
+ * the time from sending a message until the subscriber received it.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+    private static final String SEND_DESTINATION = "BENCHMARK.SEND.";
+    private static final String ROUND_TRIP_DESTINATION = "BENCHMARK.ROUNDTRIP";
+
+    @Param({ "1", "128" })
+    private int destinations;
+
+    private BrokerService broker;
+    private ActiveMqClient client;
+    private String[] sendDestinations;
+    private int nextDestination;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    private JsonObject message;
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+
+        JsonObject config = new JsonObject();
+        config.putString("host", "localhost");
+        config.putNumber("port", connector.getConnectUri().getPort());
+        Logger logger = LoggerFactory.getLogger(ClientBenchmark.class);
+        client = new ActiveMqClient(logger, new ClientConfig(config));
+        if (!client.connect()) {
+            throw new IllegalStateException("could not connect to the embedded broker");
+        }
+
+        Handler<Object> discard = new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+            }
+        };
+        SubscriptionOptions options = new SubscriptionOptions(new JsonObject());
+        sendDestinations = new String[destinations];
+        for (int i = 0; i < destinations; i++) {
+            sendDestinations[i] = SEND_DESTINATION + i;
+            client.subscribe(sendDestinations[i], options, discard);
+        }
+
+        client.subscribe(ROUND_TRIP_DESTINATION, options, new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                received.add(body);
+            }
+        });
+
+        message = new JsonObject();
+        message.putString("body", "benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.disconnect();
+        broker.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void send() throws JMSException {
+        String destination = sendDestinations[nextDestination];
+        nextDestination = (nextDestination + 1) % destinations;
+
+        client.send(destination, message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object roundTrip() throws JMSException, InterruptedException {
+        client.send(ROUND_TRIP_DESTINATION, message);
+
+        return received.take();
+    }
+
+}
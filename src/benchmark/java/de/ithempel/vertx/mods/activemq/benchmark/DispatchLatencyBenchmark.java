@@ -0,0 +1,142 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.SubscriptionOptions;
+
+/**
+ * End to end latency of the dispatch path from the broker to a handler on the event bus.
+ *
+ * Each operation sends a message to a queue of a broker embedded in the benchmark JVM and
+ * waits until a handler registered on the event bus of an embedded Vert.x instance received
+ * it. The subscription hands the messages to the event bus like the module does. The sample
+ * time mode reports the p50, p99 and p999 of the round trip for the message listener of
+ * ActiveMQ and for the receive loop of the low-latency mode, each with and without
+ * always-session-async.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DispatchLatencyBenchmark {
+
+    private static final String DESTINATION = "BENCHMARK.LATENCY";
+    private static final String ADDRESS = "benchmark.latency";
+
+    @Param({ "false", "true" })
+    private boolean lowLatency;
+
+    @Param({ "true", "false" })
+    private boolean alwaysSessionAsync;
+
+    private BrokerService broker;
+    private Vertx vertx;
+    private ActiveMqClient client;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    private JsonObject message;
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+
+        vertx = VertxFactory.newVertx();
+        final EventBus eventBus = vertx.eventBus();
+        eventBus.registerHandler(ADDRESS, new Handler<Message<Object>>() {
+            @Override
+            public void handle(Message<Object> delivered) {
+                received.add(delivered.body());
+            }
+        });
+
+        JsonObject config = new JsonObject();
+        config.putString("host", "localhost");
+        config.putNumber("port", connector.getConnectUri().getPort());
+        config.putObject("tuning", new JsonObject().putBoolean("always-session-async", alwaysSessionAsync));
+        Logger logger = LoggerFactory.getLogger(DispatchLatencyBenchmark.class);
+        client = new ActiveMqClient(logger, new ClientConfig(config));
+        if (!client.connect()) {
+            throw new IllegalStateException("could not connect to the embedded broker");
+        }
+
+        SubscriptionOptions options = new SubscriptionOptions(new JsonObject().putBoolean("low-latency", lowLatency));
+        client.subscribe(DESTINATION, options, new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                eventBus.send(ADDRESS, body);
+            }
+        });
+
+        message = new JsonObject();
+        message.putString("body", "benchmark");
+        message.putBoolean("persistent", false);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.disconnect();
+        vertx.stop();
+        broker.stop();
+    }
+
+    @Benchmark
+    public Object roundTrip() throws JMSException, InterruptedException {
+        client.send(DESTINATION, message);
+
+        return received.take();
+    }
+
+}
@@ -17,9 +17,14 @@
  */
 package de.ithempel.vertx.mods.activemq;
 
+import java.util.concurrent.Callable;
+
 import org.vertx.java.busmods.BusModBase;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
@@ -27,47 +32,107 @@ import org.vertx.java.core.json.JsonObject;
  *
  * The module listens on the event bus for commands to send message to the broker
  * or to subscribe to messages from the broker. The message from / to the module
- * are formated as Json objects. A message to the module must containt the following
- * fields in the Json structure.
+ * are formated as Json objects. A message to the module must containt the field command
+ * with one of the following commands.
  *
  * |===
- * | field              | description
+ * | command            | description
  * |
- * | command            | What command should be executed: send or subscribe.
- * | destination        | Contains the name of the queue to which the message should be send.
- * | subscriber-address | Address on the event bus to which messages from subscribed queue should be send.
- * | body               | The content that should be send to the queue.
+ * | send               | Send the body to the destination.
+ * | send-batch         | Send the messages of an array in one transaction.
+ * | request            | Send the body to the destination and reply with the correlated reply.
+ * | subscribe          | Send the messages of the destination to the subscriber-address.
+ * | unsubscribe        | Close the subscription of the subscriber-address to the destination.
+ * | list-subscriptions | Reply with the active subscriptions.
+ * | stats              | Reply with the metrics of the module.
+ * | config             | Reply with the URL of the broker and the effective tuning.
  * |===
  *
  * Depending on the format of the body field the following JMS messages are send.
  *
  * |===
- * | body       | JMS MessageType
+ * | body                             | JMS MessageType
  * |
- * | String     | TextMessage
- * | JsonObject | MapMessage
+ * | String                           | TextMessage
+ * | JsonObject                       | MapMessage
+ * | JsonArray                        | StreamMessage
+ * | Base64 with body-type binary     | BytesMessage
+ * | any with body-type object        | ObjectMessage
  * |===
  *
+ * Binary content can be send without Base64 encoding as a Buffer to the address of the module
+ * with the suffix .binary.
+ *
  * The parameters to connect to the broker can be set when distributing the module.
  * If no parameters are given the verticle connects to a local installed instance
  * of ActiveMQ on the standard wire protocol port 61616 with no authentication.
+ * See {@link ClientConfig} and {@link ConnectionTuning} for the parameters and the README for
+ * the fields of every command.
+ *
+ * The blocking calls to the broker run on a {@link JmsExecutor}, so the event loop is never
+ * blocked. All instances of the module in one JVM with the same configuration share the
+ * connections, the executor and the subscriptions (see {@link SharedClient}).
  *
  * @author https://github.com/ithempel[Sebastian Hempel]
  */
 public class ActiveMqBusMod extends BusModBase implements Handler<Message<JsonObject>> {
 
+    private SharedClient sharedClient;
+    private ClientConfig clientConfig;
     private ActiveMqClient amqClient;
+    private JmsExecutor executor;
+    private SendCoalescer coalescer;
+    private SendScheduler scheduler;
+    private SubscriptionRegistry subscriptions;
+    private long metricsTimerId = -1;
+    private long requestTimeout;
+
+    private long handledCommands;
+    private long handleTimeTotal;
+    private long handleTimeMax;
 
     @Override
     public void start() {
         super.start();
 
-        String host = getOptionalStringConfig("host", "localhost");
-        int port = getOptionalIntConfig("port", 61616);
-        amqClient = new ActiveMqClient(logger, host, port);
-        if (amqClient.connect()) {
+        requestTimeout = getOptionalLongConfig("request-timeout", 30000);
+        sharedClient = SharedClient.acquire(this, vertx, logger, config);
+        if (sharedClient != null) {
+            clientConfig = sharedClient.getConfig();
+            amqClient = sharedClient.getClient();
+            executor = sharedClient.getExecutor();
+            subscriptions = sharedClient.getSubscriptions();
+
+            JsonObject coalescing = getOptionalObjectConfig("coalescing", new JsonObject());
+            if (coalescing.getBoolean("enabled", false)) {
+                coalescer = new SendCoalescer(vertx, amqClient, executor, logger,
+                        coalescing.getInteger("max-batch-size", 100), coalescing.getLong("linger", 5));
+            }
+
+            JsonObject scheduling = getOptionalObjectConfig("scheduling", new JsonObject());
+            if (scheduling.getBoolean("enabled", false)) {
+                scheduler = new SendScheduler(vertx, amqClient, executor, scheduling);
+            }
+
+            JsonObject metricsConfig = getOptionalObjectConfig("metrics", new JsonObject());
+            final String metricsAddress = metricsConfig.getString("address");
+            if (metricsAddress != null && sharedClient.isOwner(this)) {
+                metricsTimerId = vertx.setPeriodic(metricsConfig.getLong("interval", 10000), new Handler<Long>() {
+                    @Override
+                    public void handle(Long timerId) {
+                        eb.publish(metricsAddress, getStatistics());
+                    }
+                });
+            }
+
             String address = getOptionalStringConfig("address", "vertx.mod-activemq-io");
             eb.registerHandler(address, this);
+            eb.registerHandler(address + ".binary", new Handler<Message<Buffer>>() {
+                @Override
+                public void handle(Message<Buffer> message) {
+                    sendBinary(message);
+                }
+            });
 
             String debugMessage = String.format("Listening on EventBus on address %s", address);
             logger.debug(debugMessage);
@@ -76,36 +141,448 @@ public class ActiveMqBusMod extends BusModBase implements Handler<Message<JsonOb
 
     @Override
     public void stop() {
-        amqClient.disconnect();
+        if (metricsTimerId != -1) {
+            vertx.cancelTimer(metricsTimerId);
+        }
+        if (coalescer != null) {
+            coalescer.flushAll();
+        }
+        if (sharedClient != null) {
+            sharedClient.release();
+        }
     }
 
     @Override
     public void handle(Message<JsonObject> message) {
+        long start = System.nanoTime();
+
         String command = getMandatoryString(ActiveMqFieldName.COMMAND.toString(), message);
+        if (command == null) {
+            return;
+        }
 
         switch (command) {
         case "send":
-            String destination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
-
-            amqClient.send(destination, message.body());
+            send(message);
+            break;
+        case "send-batch":
+            sendBatch(message);
+            break;
+        case "request":
+            request(message);
             break;
         case "subscribe":
-            String subscribeDestination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
-            final String subscriberAddress =
-                    getMandatoryString(ActiveMqFieldName.SUBSCRIBER_ADDRESS.toString(), message);
-
-            amqClient.subscribe(subscribeDestination, new Handler<JsonObject>() {
-                @Override
-                public void handle(JsonObject messageReceived) {
-                    eb.send(subscriberAddress, messageReceived);
-                }
-            });
+            subscribe(message);
+            break;
+        case "unsubscribe":
+            unsubscribe(message);
+            break;
+        case "list-subscriptions":
+            sendOK(message, new JsonObject().putArray("subscriptions", subscriptions.list()));
+            break;
+        case "stats":
+            sendOK(message, getStatistics());
+            break;
+        case "config":
+            sendOK(message, getConfiguration());
             break;
         default:
             String infoMessage = String.format("Cannot handle command '%s'", command);
             logger.info(infoMessage);
             break;
         }
+
+        long handleTime = System.nanoTime() - start;
+        handledCommands++;
+        handleTimeTotal += handleTime;
+        handleTimeMax = Math.max(handleTimeMax, handleTime);
+    }
+
+    private JsonObject getConfiguration() {
+        JsonObject configuration = new JsonObject();
+        configuration.putString("broker-url", clientConfig.getBrokerUrl());
+        configuration.putObject("tuning", clientConfig.getTuning().toJson());
+
+        return configuration;
+    }
+
+    /**
+     * Send a message, coalesced into a batch or queued in the {@link SendScheduler} if enabled.
+     *
+     * The reply contains the message-id, the time the broker took to accept the message
+     * (send-micros) and the time since the command was received (latency-micros). Sends during an
+     * interruption of the connection are buffered and answered with buffered set to true.
+     */
+    private void send(final Message<JsonObject> message) {
+        final String destination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
+        if (destination == null) {
+            return;
+        }
+
+        if (coalescer != null) {
+            coalescer.send(destination, message);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        Handler<AsyncResult<JsonObject>> resultHandler = new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                if (result.succeeded()) {
+                    sendOK(message, result.result().putNumber("latency-micros", (System.nanoTime() - start) / 1000));
+                }
+                else {
+                    String errorMessage = String.format("Error sending message to ActiveMQ broker on queue %s: %s",
+                            destination, result.cause().getMessage());
+                    sendError(message, errorMessage);
+                }
+            }
+        };
+
+        if (scheduler != null) {
+            scheduler.send(destination, message.body(), resultHandler);
+            return;
+        }
+
+        executor.executeAsync(destination, new JmsExecutor.AsyncTask<JsonObject>() {
+            @Override
+            public void start(Handler<AsyncResult<JsonObject>> completionHandler) {
+                amqClient.send(destination, message.body(), completionHandler);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Send a request with the reply queue of the client and reply with the correlated reply or
+     * an error after the timeout (see {@link RequestCorrelator}).
+     */
+    private void request(final Message<JsonObject> message) {
+        final String destination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
+        if (destination == null) {
+            return;
+        }
+
+        final long timeout = message.body().getLong(ActiveMqFieldName.TIMEOUT.toString(), requestTimeout);
+        final long start = System.nanoTime();
+        executor.executeAsync(destination, new JmsExecutor.AsyncTask<JsonObject>() {
+            @Override
+            public void start(Handler<AsyncResult<JsonObject>> completionHandler) {
+                amqClient.request(destination, message.body(), timeout, completionHandler);
+            }
+        }, new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                if (result.succeeded()) {
+                    JsonObject reply = new JsonObject();
+                    reply.putObject("reply", result.result());
+                    reply.putNumber("latency-micros", (System.nanoTime() - start) / 1000);
+                    sendOK(message, reply);
+                }
+                else {
+                    String errorMessage = String.format("Error in request to ActiveMQ broker on queue %s: %s",
+                            destination, result.cause().getMessage());
+                    sendError(message, errorMessage);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send the content of a Buffer as a BytesMessage.
+     *
+     * The Buffer starts with the length of the name of the destination as unsigned short,
+     * followed by the UTF-8 encoded name and the content of the message.
+     */
+    private void sendBinary(final Message<Buffer> message) {
+        final Buffer buffer = message.body();
+        int length = buffer.length() >= 2 ? buffer.getShort(0) & 0xffff : -1;
+        if (length < 1 || buffer.length() < 2 + length) {
+            message.reply(new JsonObject().putString("status", "error")
+                    .putString("message", "binary message does not start with a destination"));
+            return;
+        }
+
+        final String destination = buffer.getString(2, 2 + length, "UTF-8");
+        final int offset = 2 + length;
+
+        final long start = System.nanoTime();
+        Handler<AsyncResult<JsonObject>> resultHandler = new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                JsonObject reply;
+                if (result.succeeded()) {
+                    reply = result.result().putString("status", "ok")
+                            .putNumber("latency-micros", (System.nanoTime() - start) / 1000);
+                }
+                else {
+                    reply = new JsonObject();
+                    String errorMessage = String.format("Error sending message to ActiveMQ broker on queue %s: %s",
+                            destination, result.cause().getMessage());
+                    logger.error(errorMessage);
+                    reply.putString("status", "error").putString("message", errorMessage);
+                }
+                message.reply(reply);
+            }
+        };
+
+        if (scheduler != null) {
+            scheduler.send(destination, buffer, offset, resultHandler);
+            return;
+        }
+
+        executor.executeAsync(destination, new JmsExecutor.AsyncTask<JsonObject>() {
+            @Override
+            public void start(Handler<AsyncResult<JsonObject>> completionHandler) {
+                amqClient.send(destination, buffer, offset, completionHandler);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Send the messages of the batch in one transaction and reply with the status ok, partial
+     * or error, the number of messages send and the failed entries.
+     */
+    private void sendBatch(final Message<JsonObject> message) {
+        final String defaultDestination = message.body().getString(ActiveMqFieldName.DESTINATION.toString());
+        final JsonArray messages = message.body().getArray(ActiveMqFieldName.MESSAGES.toString());
+        if (messages == null) {
+            sendError(message, ActiveMqFieldName.MESSAGES.toString() + " must be specified");
+            return;
+        }
+
+        executor.execute(null, new Callable<JsonObject>() {
+            @Override
+            public JsonObject call() throws Exception {
+                return amqClient.sendBatch(defaultDestination, messages);
+            }
+        }, new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                if (result.failed()) {
+                    sendError(message, "Error sending batch: " + result.cause().getMessage());
+                    return;
+                }
+
+                JsonObject batchResult = result.result();
+                int failedCount = batchResult.getArray("failed").size();
+                if (failedCount == 0) {
+                    sendOK(message, batchResult);
+                }
+                else if (failedCount < messages.size()) {
+                    sendStatus("partial", message, batchResult);
+                }
+                else {
+                    batchResult.putString("message", "no message of the batch could be send");
+                    sendStatus("error", message, batchResult);
+                }
+            }
+        });
+    }
+
+    /**
+     * Subscribe the subscriber address to the destination.
+     *
+     * A subscriber address is subscribed to a destination only once, a repeated command is
+     * answered with existing set to true. The {@link SubscriptionOptions} select credits,
+     * concurrency, selector, durable and group subscriptions, batches and the low latency mode.
+     * Received messages that can't be converted are redelivered and dead-lettered as configured
+     * in the {@link RedeliverySettings}.
+     */
+    private void subscribe(final Message<JsonObject> message) {
+        final String destination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
+        final String subscriberAddress =
+                getMandatoryString(ActiveMqFieldName.SUBSCRIBER_ADDRESS.toString(), message);
+        if (destination == null || subscriberAddress == null) {
+            return;
+        }
+
+        final SubscriptionOptions options;
+        try {
+            options = new SubscriptionOptions(message.body());
+        }
+        catch (IllegalArgumentException e) {
+            sendError(message, e.getMessage());
+            return;
+        }
+
+        if (!subscriptions.reserve(destination, subscriberAddress)) {
+            sendOK(message, new JsonObject().putBoolean("existing", true));
+            return;
+        }
+
+        final long creditTimeout = options.getCreditTimeout();
+        final FlowControl flowControl = options.getFlowControl();
+        final Handler<Object> subscriberHandler;
+        if (flowControl == null) {
+            subscriberHandler = new Handler<Object>() {
+                @Override
+                public void handle(Object messageReceived) {
+                    eb.send(subscriberAddress, messageReceived);
+                }
+            };
+        }
+        else {
+            subscriberHandler = new Handler<Object>() {
+                @Override
+                public void handle(Object messageReceived) {
+                    eb.sendWithTimeout(subscriberAddress, messageReceived, creditTimeout,
+                            new Handler<AsyncResult<Message<Object>>>() {
+                                @Override
+                                public void handle(AsyncResult<Message<Object>> reply) {
+                                    flowControl.release();
+                                }
+                            });
+                }
+            };
+        }
+
+        final Handler<BatchReceiver.Batch> batchHandler =
+                options.isBatch() ? createBatchHandler(subscriberAddress, options.getConfirmTimeout()) : null;
+
+        executor.execute(destination, new Callable<Subscription>() {
+            @Override
+            public Subscription call() throws Exception {
+                if (batchHandler != null) {
+                    return amqClient.subscribeBatches(destination, options, batchHandler);
+                }
+                return amqClient.subscribe(destination, options, subscriberHandler);
+            }
+        }, new Handler<AsyncResult<Subscription>>() {
+            @Override
+            public void handle(AsyncResult<Subscription> result) {
+                if (result.succeeded()) {
+                    if (subscriptions.activate(destination, subscriberAddress, result.result())) {
+                        sendOK(message);
+                    }
+                    else {
+                        close(destination, result.result());
+                        sendError(message, "subscription was cancelled by unsubscribe");
+                    }
+                }
+                else {
+                    subscriptions.remove(destination, subscriberAddress);
+                    String errorMessage = String.format("Error subscribing to queue %s: %s",
+                            destination, result.cause().getMessage());
+                    sendError(message, errorMessage);
+                }
+            }
+        });
+    }
+
+    private Handler<BatchReceiver.Batch> createBatchHandler(final String subscriberAddress, final long confirmTimeout) {
+        return new Handler<BatchReceiver.Batch>() {
+            @Override
+            public void handle(final BatchReceiver.Batch batch) {
+                eb.sendWithTimeout(subscriberAddress, batch.getMessages(), confirmTimeout,
+                        new Handler<AsyncResult<Message<Object>>>() {
+                            @Override
+                            public void handle(AsyncResult<Message<Object>> reply) {
+                                batch.confirm(reply.succeeded() && !isRejected(reply.result().body()));
+                            }
+                        });
+            }
+        };
+    }
+
+    private static boolean isRejected(Object reply) {
+        return reply instanceof JsonObject && "error".equals(((JsonObject) reply).getString("status"));
+    }
+
+    /**
+     * Close the consumers of a subscription, with remove-durable the durable subscription on
+     * the broker as well.
+     */
+    private void unsubscribe(final Message<JsonObject> message) {
+        String destination = getMandatoryString(ActiveMqFieldName.DESTINATION.toString(), message);
+        String subscriberAddress = getMandatoryString(ActiveMqFieldName.SUBSCRIBER_ADDRESS.toString(), message);
+        if (destination == null || subscriberAddress == null) {
+            return;
+        }
+
+        if (!subscriptions.contains(destination, subscriberAddress)) {
+            String errorMessage = String.format("%s is not subscribed to queue %s", subscriberAddress, destination);
+            sendError(message, errorMessage);
+            return;
+        }
+
+        final Subscription subscription = subscriptions.remove(destination, subscriberAddress);
+        if (subscription == null) {
+            sendOK(message);
+            return;
+        }
+
+        final boolean removeDurable = message.body().getBoolean(ActiveMqFieldName.REMOVE_DURABLE.toString(), false)
+                && subscription.getDurableName() != null;
+        executor.execute(destination, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                subscription.close();
+                if (removeDurable) {
+                    amqClient.removeDurableSubscription(subscription.getDurableName());
+                }
+                return null;
+            }
+        }, new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                if (result.succeeded()) {
+                    sendOK(message);
+                }
+                else {
+                    String errorMessage = String.format("Error closing subscription to queue %s: %s",
+                            subscription.getDestination(), result.cause().getMessage());
+                    sendError(message, errorMessage);
+                }
+            }
+        });
+    }
+
+    private void close(String destination, final Subscription subscription) {
+        executor.execute(destination, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                subscription.close();
+                return null;
+            }
+        }, new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                if (result.failed()) {
+                    logger.error("Error closing subscription", result.cause());
+                }
+            }
+        });
+    }
+
+    private JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putObject("producer-cache", amqClient.getProducerCacheStatistics());
+        statistics.putObject("executor", executor.getStatistics());
+        statistics.putNumber("instances", sharedClient.getReferences());
+        if (coalescer != null) {
+            statistics.putObject("coalescer", coalescer.getStatistics());
+        }
+        if (scheduler != null) {
+            statistics.putObject("scheduler", scheduler.getStatistics());
+        }
+
+        JsonObject flowControlStatistics = subscriptions.getFlowControlStatistics();
+        if (flowControlStatistics.size() > 0) {
+            statistics.putObject("flow-control", flowControlStatistics);
+        }
+
+        JsonObject eventLoop = new JsonObject();
+        eventLoop.putNumber("handled-commands", handledCommands);
+        eventLoop.putNumber("blocked-micros-total", handleTimeTotal / 1000);
+        eventLoop.putNumber("blocked-micros-max", handleTimeMax / 1000);
+        eventLoop.putNumber("blocked-micros-average", handledCommands == 0 ? 0 : handleTimeTotal / handledCommands / 1000);
+        statistics.putObject("event-loop", eventLoop);
+        statistics.putObject("metrics", amqClient.getMetrics());
+        statistics.putObject("replay-buffer", amqClient.getReplayStatistics());
+        statistics.putObject("in-flight-sends", amqClient.getInFlightStatistics());
+        statistics.putObject("requests", amqClient.getRequestStatistics());
+
+        return statistics;
     }
 
 }
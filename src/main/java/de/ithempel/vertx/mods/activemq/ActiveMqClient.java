@@ -17,18 +17,34 @@
  */
 package de.ithempel.vertx.mods.activemq;
 
-import javax.jms.Connection;
-import javax.jms.ConnectionFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
-import javax.jms.Queue;
 import javax.jms.Session;
+import javax.jms.Topic;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+import org.apache.activemq.transport.TransportListener;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 
@@ -36,46 +52,79 @@ import org.vertx.java.core.logging.Logger;
  * Client for the module to communicate with the ActiveMQ broker.
  *
  * The class encapsulates all communication with the ActiveMQ library. Objects of this class connect
- * to or disconnect from the broker. There is a method to send a message to the broker. Another method
- * is used to subcribe to a queue.
+ * to or disconnect from the broker. There is a method to send a message to the broker and one to send
+ * a batch of messages in a single transaction. Another method is used to subcribe to a queue.
  *
  * @author https://github.com/ithempel[Sebastian Hempel]
  */
 public class ActiveMqClient {
 
-    private final String host;
-    private final int port;
-    private Connection connection;
-    private Session session;
+    private final ClientConfig config;
+    private final ConverterRegistry converterRegistry;
+    private final BridgeMetrics metrics = new BridgeMetrics();
+    private final ReplayBuffer replayBuffer;
+    private final FlowControl sendWindow;
+    private final AtomicInteger interruptedConnections = new AtomicInteger();
+    private SessionPool sessionPool;
+    private ExecutorService replayExecutor;
+    private ScheduledExecutorService timer;
+    private final RequestCorrelator requestCorrelator;
 
     private final Logger logger;
-    private MessageConverter converter;
 
-    public ActiveMqClient(Logger logger, String host, int port) {
+    public ActiveMqClient(Logger logger, ClientConfig config) {
         this.logger = logger;
 
-        this.host = host;
-        this.port = port;
+        this.config = config;
+        converterRegistry = new ConverterRegistry(config.getConverters());
+        replayBuffer = config.isOutbox()
+                ? new ReplayBuffer(new Outbox(config.getOutbox(), logger))
+                : new ReplayBuffer(config.getReplayBufferSize());
+        sendWindow = new FlowControl(config.getMaxInFlightSends());
+        requestCorrelator = new RequestCorrelator(converterRegistry, config.getLargeMessageCodec(), logger);
     }
 
     /**
      * Connect to the ActiveMQ message broker.
      *
-     * The method uses the host address and the port of the constructor. The Session will be opened
-     * in the AUTO_ACKNOWLEDGE mode.
+     * The method uses the broker address of the configuration and opens the pool of connections
+     * and sessions. All sessions will be opened in the AUTO_ACKNOWLEDGE mode.
+     *
+     * With failover the client listens for interruptions of the transport. While the transport
+     * is interrupted, messages to send are put into the replay buffer. When the transport is
+     * resumed, the buffered messages are send on a separate thread. The consumers are restored
+     * by the failover transport.
+     *
+     * With an outbox, the messages stored in the outbox by a previous run are replayed once the
+     * connection is opened.
      */
     public boolean connect() {
         boolean success = true;
 
-        String url = String.format("tcp://%s:%d", host, port);
-        ConnectionFactory connectionFactory = new ActiveMQConnectionFactory(url);
+        String url = config.getBrokerUrl();
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(url);
+        config.getTuning().apply(connectionFactory);
 
         try {
-            connection = connectionFactory.createConnection();
-            connection.start();
-
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            converter = new MessageConverter(session, logger);
+            sessionPool = new SessionPool(config, converterRegistry, logger);
+            sessionPool.open(connectionFactory);
+            if (config.isFailover() || config.isOutbox()) {
+                replayExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "vertx-activemq-replay");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            if (config.isFailover()) {
+                sessionPool.addTransportListener(new ReconnectListener());
+            }
+            if (config.isOutbox()) {
+                replayBuffer.open();
+                startReplay();
+            }
 
             String debugMessage = String.format("Successfully connect to ActiveMQ broker on %s", url);
             logger.debug(debugMessage);
@@ -86,6 +135,12 @@ public class ActiveMqClient {
             String errorMessage = String.format("Cannot connect to ActiveMQ Broker on %s", url);
             logger.error(errorMessage, e);
         }
+        catch (IOException e) {
+            success = false;
+            sessionPool.close();
+
+            logger.error("Cannot open the outbox of the replay buffer", e);
+        }
 
         return success ;
     }
@@ -93,16 +148,30 @@ public class ActiveMqClient {
     /**
      * Disconnect an opened connection to the broker.
      *
-     * If there is no open connection this method will do nothing.
+     * If there is no open connection this method will do nothing. All cached producers, sessions
+     * and connections of the pool will be closed.
      */
     public void disconnect() {
-        try {
-            connection.close();
+        sendWindow.close();
+        requestCorrelator.close();
+        if (replayExecutor != null) {
+            replayExecutor.shutdownNow();
+            try {
+                replayExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        catch (JMSException e) {
-            String errorMessage = String.format("Error closing connection to ActiveMQ Broker");
-            logger.error(errorMessage, e);
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
         }
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+        replayBuffer.close();
     }
 
     /**
@@ -110,60 +179,985 @@ public class ActiveMqClient {
      * message broker. Depending on the format of the message the Json structure will be converted
      * to a corresponding JMS Message type.
      *
+     * The message is send with the pooled session assigned to the destination. The producer for
+     * the destination is taken from the producer cache of that session. So only the first message
+     * to a destination pays for the creation of the producer.
+     *
+     * The method may be called from different threads. Each pooled session is only used by one
+     * thread at a time.
+     *
+     * While the transport to the broker is interrupted, the message is put into the replay
+     * buffer and send after the reconnect.
+     *
      * @param destination name of the destination / queue to send the message to
      * @param message message to send as a Json structure
+     * @return true if the message was send, false if it was buffered for the replay
+     * @throws JMSException if the message could not be converted or send and not be buffered
      */
-    public void send(String destination, JsonObject message) {
-        Message jmsMessage = converter.convertToJmsMessage(message);
+    public boolean send(String destination, JsonObject message) throws JMSException {
+        if (replayBuffer.isBuffering()) {
+            buffer(destination, message, 0);
+            return false;
+        }
 
         try {
-            Queue queue = session.createQueue(destination);
-            MessageProducer producer = session.createProducer(queue);
+            sendNow(destination, message);
+            return true;
+        }
+        catch (JMSException e) {
+            if (!replayBuffer.isInterrupted()) {
+                throw e;
+            }
+
+            buffer(destination, message, 0);
+            return false;
+        }
+    }
 
-            producer.send(jmsMessage);
+    private void sendNow(String destination, JsonObject message) throws JMSException {
+        DestinationMetrics destinationMetrics = metrics.forDestination(destination);
+        long start = System.nanoTime();
+        PooledSession pooledSession = sessionPool.getSendSession(destination);
 
-            String debugMessage = String.format("Successfully send message of type %s on queue %s",
-                    jmsMessage.getClass().getName(), destination);
-            logger.debug(debugMessage);
-        } catch (JMSException e) {
-            String errorMessage = String.format("Error sending message to ActiveMQ broker on queue %s",
-                    destination);
-            logger.error(errorMessage, e);
+        synchronized (pooledSession) {
+            long conversionStart = System.nanoTime();
+            List<Message> jmsMessages;
+            try {
+                jmsMessages = pooledSession.getConverter().convertToJmsMessages(destination, message);
+                destinationMetrics.recordSendConversion(System.nanoTime() - conversionStart);
+
+                MessageProducer producer = pooledSession.getProducerCache().getProducer(destination);
+                send(producer, jmsMessages, message, null);
+            }
+            catch (JMSException e) {
+                destinationMetrics.recordSendError();
+                throw e;
+            }
+
+            if (logger.isDebugEnabled()) {
+                String debugMessage = String.format("Successfully send %d message(s) of type %s on queue %s",
+                        jmsMessages.size(), jmsMessages.get(0).getClass().getName(), destination);
+                logger.debug(debugMessage);
+            }
+        }
+
+        destinationMetrics.recordSend(System.nanoTime() - start);
+    }
+
+    /**
+     * Send the message and report the result to the completion handler once the broker has
+     * accepted the message.
+     *
+     * With async-send the message is send with a completion callback of ActiveMQ. The calling
+     * thread does not wait for the acknowledgement of the broker, so it can send the next
+     * message at once. The completion handler is called by a thread of ActiveMQ when the broker
+     * has acknowledged the message. The number of messages waiting for the acknowledgement is
+     * limited by max-in-flight-sends. Without async-send the message is send synchronously and
+     * the completion handler is called by the calling thread.
+     *
+     * The result contains the ID of the JMS message and the time in microseconds until the
+     * broker accepted the message. A message put into the replay buffer has no ID and the field
+     * buffered set to true.
+     *
+     * @param destination name of the destination / queue to send the message to
+     * @param message message to send as a Json structure
+     * @param completionHandler handler called with the result of the send
+     */
+    public void send(String destination, JsonObject message, Handler<AsyncResult<JsonObject>> completionHandler) {
+        sendWithReceipt(destination, message, 0, completionHandler);
+    }
+
+    /**
+     * Send the content of the Buffer starting at the given offset as a BytesMessage and report the
+     * result to the completion handler once the broker has accepted the message.
+     *
+     * @param destination name of the destination / queue to send the message to
+     * @param content buffer with the content of the message
+     * @param offset position of the first byte of the content in the buffer
+     * @param completionHandler handler called with the result of the send
+     * @see #send(String, JsonObject, Handler)
+     */
+    public void send(String destination, Buffer content, int offset,
+            Handler<AsyncResult<JsonObject>> completionHandler) {
+        sendWithReceipt(destination, content, offset, completionHandler);
+    }
+
+    /**
+     * Send the message as a request and report the correlated reply to the reply handler.
+     *
+     * The request is send with the temporary reply queue of the client as JMSReplyTo and a new
+     * JMSCorrelationID. The receiver has to send its reply to the reply queue with the same
+     * correlation ID. The reply handler is called by a thread of ActiveMQ with the reply as a
+     * Json structure, or with a failure if the request could not be send or no reply arrived
+     * within the timeout.
+     *
+     * @param destination name of the destination / queue to send the request to
+     * @param message request to send as a Json structure
+     * @param timeout milliseconds to wait for the reply
+     * @param replyHandler handler called with the reply
+     * @see RequestCorrelator
+     */
+    public void request(String destination, JsonObject message, long timeout,
+            Handler<AsyncResult<JsonObject>> replyHandler) {
+        try {
+            openRequestCorrelator();
+        }
+        catch (JMSException e) {
+            replyHandler.handle(new DefaultFutureResult<JsonObject>(e));
+            return;
+        }
+
+        final String correlationId = requestCorrelator.register(timeout, replyHandler);
+        JsonObject request = message.copy();
+        request.putString(ActiveMqFieldName.REPLY_TO.toString(), requestCorrelator.getReplyTo());
+        request.putString(ActiveMqFieldName.CORRELATION_ID.toString(), correlationId);
+
+        sendWithReceipt(destination, request, 0, new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                if (result.failed()) {
+                    requestCorrelator.fail(correlationId, result.cause());
+                }
+            }
+        });
+    }
+
+    private synchronized void openRequestCorrelator() throws JMSException {
+        if (requestCorrelator.getReplyTo() != null) {
+            return;
+        }
+
+        Session session = sessionPool.createConsumerSession(false);
+        try {
+            requestCorrelator.open(session);
+        }
+        catch (JMSException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of requests waiting for their replies and the counters of the requests.
+     *
+     * @return Json structure with the statistics of the request correlator
+     */
+    public JsonObject getRequestStatistics() {
+        return requestCorrelator.getStatistics();
+    }
+
+    private void sendWithReceipt(final String destination, final Object payload, final int offset,
+            final Handler<AsyncResult<JsonObject>> completionHandler) {
+        if (replayBuffer.isBuffering()) {
+            try {
+                buffer(destination, payload, offset);
+                completionHandler.handle(new DefaultFutureResult<>(new JsonObject().putBoolean("buffered", true)));
+            }
+            catch (JMSException e) {
+                completionHandler.handle(new DefaultFutureResult<JsonObject>(e));
+            }
+            return;
+        }
+
+        final DestinationMetrics destinationMetrics = metrics.forDestination(destination);
+        final long start = System.nanoTime();
+        final boolean async = config.getTuning().isAsyncSend(destination, config.isAsyncSend());
+        if (async && !sendWindow.acquire()) {
+            completionHandler.handle(new DefaultFutureResult<JsonObject>(
+                    new JMSException("The client is disconnected from the broker")));
+            return;
+        }
+
+        PooledSession pooledSession = sessionPool.getSendSession(destination);
+        final List<Message> jmsMessages;
+        synchronized (pooledSession) {
+            try {
+                long conversionStart = System.nanoTime();
+                jmsMessages = createMessages(pooledSession, destination, payload, offset);
+                destinationMetrics.recordSendConversion(System.nanoTime() - conversionStart);
+            }
+            catch (JMSException e) {
+                if (async) {
+                    sendWindow.release();
+                }
+                destinationMetrics.recordSendError();
+                completionHandler.handle(new DefaultFutureResult<JsonObject>(e));
+                return;
+            }
+
+            try {
+                MessageProducer producer = pooledSession.getProducerCache().getProducer(destination);
+                if (!async) {
+                    send(producer, jmsMessages, payload, null);
+                }
+                else {
+                    send(producer, jmsMessages, payload, new AsyncCallback() {
+                        @Override
+                        public void onSuccess() {
+                            sendWindow.release();
+                            destinationMetrics.recordSend(System.nanoTime() - start);
+                            completionHandler.handle(new DefaultFutureResult<>(receipt(jmsMessages, start)));
+                        }
+
+                        @Override
+                        public void onException(JMSException e) {
+                            sendWindow.release();
+                            sendFailed(destination, payload, offset, e, completionHandler);
+                        }
+                    });
+                    return;
+                }
+            }
+            catch (JMSException e) {
+                if (async) {
+                    sendWindow.release();
+                }
+                sendFailed(destination, payload, offset, e, completionHandler);
+                return;
+            }
+        }
+
+        destinationMetrics.recordSend(System.nanoTime() - start);
+        completionHandler.handle(new DefaultFutureResult<>(receipt(jmsMessages, start)));
+    }
+
+    private void sendFailed(String destination, Object payload, int offset, JMSException e,
+            Handler<AsyncResult<JsonObject>> completionHandler) {
+        metrics.forDestination(destination).recordSendError();
+
+        JMSException failure = e;
+        if (replayBuffer.isInterrupted()) {
+            try {
+                buffer(destination, payload, offset);
+                completionHandler.handle(new DefaultFutureResult<>(new JsonObject().putBoolean("buffered", true)));
+                return;
+            }
+            catch (JMSException bufferException) {
+                failure = bufferException;
+            }
+        }
+
+        completionHandler.handle(new DefaultFutureResult<JsonObject>(failure));
+    }
+
+    /**
+     * Send the JMS Messages converted from one payload with the producer.
+     *
+     * The delivery mode, priority and time to live are taken from the fields of a Json message.
+     * If a field is missing, the default of the producer is used. With a callback only the last
+     * message is send asynchronously, the chunks before it are send one after the other.
+     *
+     * @param producer producer to send the messages with
+     * @param jmsMessages converted messages, more than one for a chunked body
+     * @param payload Json message or Buffer the JMS Messages were converted from
+     * @param callback callback to send the last message asynchronously, null to wait for the broker
+     * @throws JMSException if a message could not be send
+     */
+    private void send(MessageProducer producer, List<Message> jmsMessages, Object payload, AsyncCallback callback)
+            throws JMSException {
+        int deliveryMode = producer.getDeliveryMode();
+        int priority = producer.getPriority();
+        long timeToLive = producer.getTimeToLive();
+        if (payload instanceof JsonObject) {
+            JsonObject message = (JsonObject) payload;
+            deliveryMode = HeaderConverter.getDeliveryMode(message, deliveryMode);
+            priority = HeaderConverter.getPriority(message, priority);
+            timeToLive = HeaderConverter.getTimeToLive(message, timeToLive);
+        }
+
+        int last = jmsMessages.size() - 1;
+        for (int index = 0; index < last; index++) {
+            producer.send(jmsMessages.get(index), deliveryMode, priority, timeToLive);
         }
+        if (callback == null) {
+            producer.send(jmsMessages.get(last), deliveryMode, priority, timeToLive);
+        }
+        else {
+            ((ActiveMQMessageProducer) producer).send(jmsMessages.get(last), deliveryMode, priority, timeToLive,
+                    callback);
+        }
+    }
+
+    private JsonObject receipt(List<Message> jmsMessages, long start) {
+        JsonObject receipt = new JsonObject();
+        receipt.putBoolean("buffered", false);
+        try {
+            receipt.putString("message-id", jmsMessages.get(jmsMessages.size() - 1).getJMSMessageID());
+        }
+        catch (JMSException e) {
+            logger.error("Cannot read the ID of the send message", e);
+        }
+        receipt.putNumber("send-micros", (System.nanoTime() - start) / 1000);
+
+        return receipt;
+    }
+
+    private List<Message> createMessages(PooledSession pooledSession, String destination, Object payload,
+            int offset) throws JMSException {
+        if (payload instanceof Buffer) {
+            return pooledSession.getConverter().convertToBytesMessages((Buffer) payload, offset);
+        }
+
+        return pooledSession.getConverter().convertToJmsMessages(destination, (JsonObject) payload);
+    }
+
+    /**
+     * Send the content of the Buffer starting at the given offset as a BytesMessage to the queue
+     * destination of the message broker.
+     *
+     * The content is handed to ActiveMQ without copying it.
+     *
+     * @param destination name of the destination / queue to send the message to
+     * @param content buffer with the content of the message
+     * @param offset position of the first byte of the content in the buffer
+     * @return true if the message was send, false if it was buffered for the replay
+     * @throws JMSException if the message could not be send and not be buffered
+     */
+    public boolean send(String destination, Buffer content, int offset) throws JMSException {
+        if (replayBuffer.isBuffering()) {
+            buffer(destination, content, offset);
+            return false;
+        }
+
+        try {
+            sendNow(destination, content, offset);
+            return true;
+        }
+        catch (JMSException e) {
+            if (!replayBuffer.isInterrupted()) {
+                throw e;
+            }
+
+            buffer(destination, content, offset);
+            return false;
+        }
+    }
+
+    private void sendNow(String destination, Buffer content, int offset) throws JMSException {
+        DestinationMetrics destinationMetrics = metrics.forDestination(destination);
+        long start = System.nanoTime();
+        PooledSession pooledSession = sessionPool.getSendSession(destination);
+
+        synchronized (pooledSession) {
+            try {
+                long conversionStart = System.nanoTime();
+                List<Message> bytesMessages = pooledSession.getConverter().convertToBytesMessages(content, offset);
+                destinationMetrics.recordSendConversion(System.nanoTime() - conversionStart);
+
+                MessageProducer producer = pooledSession.getProducerCache().getProducer(destination);
+                send(producer, bytesMessages, content, null);
+            }
+            catch (JMSException e) {
+                destinationMetrics.recordSendError();
+                throw e;
+            }
+        }
+
+        destinationMetrics.recordSend(System.nanoTime() - start);
+    }
+
+    /**
+     * Send a batch of messages within one transaction.
+     *
+     * Every entry of the array is a Json structure with the field body and an optional field
+     * destination. Entries without a destination are send to the given default destination.
+     * All messages are send with a transacted session of the pool and committed at once.
+     *
+     * Entries that could not be converted or send are skipped and reported in the field failed
+     * of the result. Each failure contains the index of the entry and an error message. If the
+     * commit fails, the transaction is rolled back and all entries are reported as failed.
+     *
+     * While the transport to the broker is interrupted, or if the commit failed because of an
+     * interruption, the messages are put into the replay buffer and counted as buffered.
+     *
+     * The field receipts of the result contains the receipt of every send or buffered entry with
+     * its index, like the receipt of a single send.
+     *
+     * @param defaultDestination destination / queue for entries without destination, may be null
+     * @param messages array of messages to send
+     * @return Json structure with the number of messages send and buffered, the receipts and the
+     *          failed entries
+     */
+    public JsonObject sendBatch(String defaultDestination, JsonArray messages) {
+        if (replayBuffer.isBuffering()) {
+            return bufferBatch(defaultDestination, messages);
+        }
+
+        JsonArray failed = new JsonArray();
+        JsonArray receipts = new JsonArray();
+        int sent = 0;
+
+        PooledSession pooledSession = sessionPool.getTransactedSession();
+        synchronized (pooledSession) {
+            for (int index = 0; index < messages.size(); index++) {
+                Object entry = messages.get(index);
+                if (!(entry instanceof JsonObject)) {
+                    failed.addObject(batchFailure(index, null, "entry is not a Json object"));
+                    continue;
+                }
+
+                JsonObject message = (JsonObject) entry;
+                String destination = message.getString(ActiveMqFieldName.DESTINATION.toString(), defaultDestination);
+                if (destination == null) {
+                    failed.addObject(batchFailure(index, null, "no destination given"));
+                    continue;
+                }
+
+                DestinationMetrics destinationMetrics = metrics.forDestination(destination);
+                long start = System.nanoTime();
+                List<Message> jmsMessages;
+                try {
+                    jmsMessages = pooledSession.getConverter().convertToJmsMessages(destination, message);
+                }
+                catch (JMSException e) {
+                    destinationMetrics.recordSendError();
+                    failed.addObject(batchFailure(index, destination, e.getMessage()));
+                    continue;
+                }
+                destinationMetrics.recordSendConversion(System.nanoTime() - start);
+
+                try {
+                    send(pooledSession.getProducerCache().getProducer(destination), jmsMessages, message, null);
+                    destinationMetrics.recordSend(System.nanoTime() - start);
+                    receipts.addObject(receipt(jmsMessages, start).putNumber("index", index));
+                    sent++;
+                }
+                catch (JMSException e) {
+                    destinationMetrics.recordSendError();
+                    failed.addObject(batchFailure(index, destination, e.getMessage()));
+                }
+            }
+
+            try {
+                pooledSession.getSession().commit();
+
+                if (logger.isDebugEnabled()) {
+                    String debugMessage = String.format("Successfully committed batch of %d messages", sent);
+                    logger.debug(debugMessage);
+                }
+            }
+            catch (JMSException e) {
+                metrics.recordCommitError();
+                logger.error("Error committing batch of messages to ActiveMQ broker", e);
+                rollback(pooledSession);
+
+                if (replayBuffer.isInterrupted()) {
+                    return bufferBatch(defaultDestination, messages);
+                }
+
+                sent = 0;
+                receipts = new JsonArray();
+                failed = new JsonArray();
+                for (int index = 0; index < messages.size(); index++) {
+                    failed.addObject(batchFailure(index, null, "commit failed: " + e.getMessage()));
+                }
+            }
+        }
+
+        JsonObject result = new JsonObject();
+        result.putNumber("sent", sent);
+        result.putNumber("buffered", 0);
+        result.putArray("receipts", receipts);
+        result.putArray("failed", failed);
+
+        return result;
+    }
+
+    /**
+     * Return the state and the counters of the replay buffer.
+     *
+     * @return Json structure with the statistics of the replay buffer
+     */
+    public JsonObject getReplayStatistics() {
+        return replayBuffer.getStatistics();
+    }
+
+    /**
+     * Return the number of asynchronous sends waiting for the acknowledgement of the broker.
+     *
+     * @return Json structure with the number of sends in flight and the maximum
+     */
+    public JsonObject getInFlightStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("in-flight", sendWindow.getLimit() - sendWindow.getAvailable());
+        statistics.putNumber("max-in-flight", sendWindow.getLimit());
+
+        return statistics;
+    }
+
+    /**
+     * Return the counters of the producer caches.
+     *
+     * @return Json structure with the statistics of the producer caches of all pooled sessions
+     */
+    public JsonObject getProducerCacheStatistics() {
+        return sessionPool.getProducerCacheStatistics();
+    }
+
+    /**
+     * Return the counters and latency histograms of the destinations.
+     *
+     * @return Json structure with the metrics of the client
+     */
+    public JsonObject getMetrics() {
+        return metrics.getStatistics();
+    }
+
+    private JsonObject bufferBatch(String defaultDestination, JsonArray messages) {
+        JsonArray failed = new JsonArray();
+        JsonArray receipts = new JsonArray();
+        int buffered = 0;
+
+        for (int index = 0; index < messages.size(); index++) {
+            Object entry = messages.get(index);
+            if (!(entry instanceof JsonObject)) {
+                failed.addObject(batchFailure(index, null, "entry is not a Json object"));
+                continue;
+            }
+
+            String destination = ((JsonObject) entry).getString(ActiveMqFieldName.DESTINATION.toString(),
+                    defaultDestination);
+            if (destination == null) {
+                failed.addObject(batchFailure(index, null, "no destination given"));
+            }
+            else {
+                try {
+                    if (replayBuffer.add(destination, entry, 0)) {
+                        receipts.addObject(new JsonObject().putBoolean("buffered", true).putNumber("index", index));
+                        buffered++;
+                    }
+                    else {
+                        failed.addObject(batchFailure(index, destination, "replay buffer is full"));
+                    }
+                }
+                catch (IOException e) {
+                    failed.addObject(batchFailure(index, destination, "outbox not writable: " + e.getMessage()));
+                }
+            }
+        }
+        startReplay();
+
+        JsonObject result = new JsonObject();
+        result.putNumber("sent", 0);
+        result.putNumber("buffered", buffered);
+        result.putArray("receipts", receipts);
+        result.putArray("failed", failed);
+
+        return result;
+    }
+
+    private void buffer(String destination, Object payload, int offset) throws JMSException {
+        try {
+            if (!replayBuffer.add(destination, payload, offset)) {
+                throw new JMSException("The connection to the broker is interrupted and the replay buffer is full");
+            }
+        }
+        catch (IOException e) {
+            JMSException exception = new JMSException("The message could not be written to the outbox");
+            exception.setLinkedException(e);
+            throw exception;
+        }
+        startReplay();
+    }
+
+    private void startReplay() {
+        if (replayExecutor != null && replayBuffer.startReplay()) {
+            replayExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    replay();
+                }
+            });
+        }
+    }
+
+    /**
+     * Send the buffered messages in batches of one transaction each.
+     *
+     * If a batch fails while the transport is interrupted again, it is put back into the buffer
+     * and send again after the next reconnect. Other failures cause the messages of the batch to
+     * be send one by one, dropping only the messages that fail. So a message may be send twice,
+     * but is never lost because of an interruption during the replay.
+     */
+    private void replay() {
+        long replayed = 0;
+        List<ReplayBuffer.Entry> batch;
+        while (!(batch = replayBuffer.nextBatch(config.getReplayBatchSize())).isEmpty()) {
+            try {
+                sendTransacted(batch);
+                replayBuffer.replayed(batch, 0);
+                replayed += batch.size();
+                continue;
+            }
+            catch (JMSException e) {
+                if (replayBuffer.isInterrupted()) {
+                    replayBuffer.retry(batch);
+                    continue;
+                }
+                logger.error("Error replaying batch of buffered messages, sending them one by one", e);
+            }
+
+            int failed = 0;
+            for (ReplayBuffer.Entry entry : batch) {
+                try {
+                    if (entry.getPayload() instanceof Buffer) {
+                        sendNow(entry.getDestination(), (Buffer) entry.getPayload(), entry.getOffset());
+                    }
+                    else {
+                        sendNow(entry.getDestination(), (JsonObject) entry.getPayload());
+                    }
+                }
+                catch (JMSException e) {
+                    if (replayBuffer.isInterrupted()) {
+                        break;
+                    }
+                    failed++;
+
+                    String errorMessage = String.format("Error replaying buffered message to queue %s",
+                            entry.getDestination());
+                    logger.error(errorMessage, e);
+                }
+            }
+
+            if (replayBuffer.isInterrupted()) {
+                replayBuffer.retry(batch);
+            }
+            else {
+                replayBuffer.replayed(batch, failed);
+                replayed += batch.size() - failed;
+            }
+        }
+
+        String infoMessage = String.format("Replayed %d buffered messages to ActiveMQ broker", replayed);
+        logger.info(infoMessage);
+    }
+
+    private void sendTransacted(List<ReplayBuffer.Entry> batch) throws JMSException {
+        PooledSession pooledSession = sessionPool.getTransactedSession();
+        synchronized (pooledSession) {
+            try {
+                for (ReplayBuffer.Entry entry : batch) {
+                    DestinationMetrics destinationMetrics = metrics.forDestination(entry.getDestination());
+                    long start = System.nanoTime();
+                    List<Message> jmsMessages = createMessages(pooledSession, entry.getDestination(),
+                            entry.getPayload(), entry.getOffset());
+
+                    send(pooledSession.getProducerCache().getProducer(entry.getDestination()), jmsMessages,
+                            entry.getPayload(), null);
+                    destinationMetrics.recordSend(System.nanoTime() - start);
+                }
+
+                pooledSession.getSession().commit();
+            }
+            catch (JMSException e) {
+                rollback(pooledSession);
+                throw e;
+            }
+        }
+    }
+
+    private void rollback(PooledSession pooledSession) {
+        try {
+            pooledSession.getSession().rollback();
+        }
+        catch (JMSException e) {
+            logger.error("Error rolling back transaction", e);
+        }
+    }
+
+    private JsonObject batchFailure(int index, String destination, String error) {
+        JsonObject failure = new JsonObject();
+        failure.putNumber("index", index);
+        if (destination != null) {
+            failure.putString(ActiveMqFieldName.DESTINATION.toString(), destination);
+        }
+        failure.putString("error", error);
+
+        return failure;
     }
 
     /**
      * Subscribe a Handler to receive messages for the given destination / queue.
      *
-     * The method will subscribe the given handler to receive messages from the given queue.
+     * The method will subscribe the given handler to receive messages from the given queue. The
+     * subscription opens the number of consumers given by the concurrency of the options. Each
+     * consumer gets its own session from the pool, so the messages of the queue are dispatched
+     * by several threads of ActiveMQ in parallel. The broker distributes the messages round
+     * robin to the consumers.
+     *
+     * If the options contain a flow control, the prefetch size of the consumers is limited to
+     * their share of the credits and every message takes a credit before it is handed to the
+     * handler. The subscriber has to return the credit when it is done with the message.
+     *
+     * Destinations with the prefix topic:// are topics. Every consumer of a topic receives all
+     * messages, so subscriptions to topics have a single consumer. A durable subscription to a
+     * topic is created on the connection with the configured client ID. The selector of the
+     * options is passed to the broker, so messages not matching it are never delivered.
+     *
+     * With a consumer group in the options the consumers receive from the queue of the group
+     * for the virtual topic (see {@link DestinationName#toConsumerQueue(String)}). Subscriptions
+     * of the same group, e.g. on other nodes of a cluster, share the messages of the topic.
+     *
+     * The handler is called with a JsonObject for every message. In raw mode the content of
+     * BytesMessages is handed to the handler as a Buffer instead.
+     *
+     * In low-latency mode every consumer has a {@link PollingReceiver} calling the handler from
+     * its own thread, and the received messages are not logged.
+     *
+     * Messages that can't be converted are handed to the {@link PoisonMessageHandler} of the
+     * subscription. It lets ActiveMQ redeliver them with the backoff of the redelivery settings of
+     * the destination, moves them to the dead-letter destination on their last delivery and
+     * pauses the consumers when its circuit breaker opens.
      *
      * @param destination destination / queue to receive messages from
-     * @param subscriberHandler handler to call for the received messages
+     * @param options options of the subscription
+     * @param subscriberHandler handler to call for the received messages, called by several
+     *          threads at the same time with a concurrency above 1
+     * @return subscription to close the consumers with
+     * @throws JMSException if the consumers could not be created
+     */
+    public Subscription subscribe(String destination, SubscriptionOptions options,
+            Handler<Object> subscriberHandler) throws JMSException {
+        return subscribe(destination, options, subscriberHandler, null);
+    }
+
+    /**
+     * Subscribe a Handler to receive the messages of the given destination / queue in batches.
+     *
+     * The consumers of the subscription are created like in
+     * {@link #subscribe(String, SubscriptionOptions, Handler)}, but on transacted sessions. Each
+     * consumer has a {@link BatchReceiver} that hands up to batch-size messages to the handler
+     * at once and commits them with a single commit when the batch is confirmed.
+     *
+     * @param destination destination / queue to receive messages from
+     * @param options options of the subscription with the batch settings
+     * @param batchHandler handler to call for the received batches, called by several threads
+     *          at the same time with a concurrency above 1
+     * @return subscription to close the consumers with
+     * @throws JMSException if the consumers could not be created
+     */
+    public Subscription subscribeBatches(String destination, SubscriptionOptions options,
+            Handler<BatchReceiver.Batch> batchHandler) throws JMSException {
+        return subscribe(destination, options, null, batchHandler);
+    }
+
+    private Subscription subscribe(String destination, SubscriptionOptions options,
+            Handler<Object> subscriberHandler, Handler<BatchReceiver.Batch> batchHandler) throws JMSException {
+        FlowControl flowControl = options.getFlowControl();
+        String consumerDestination = options.getGroup() != null
+                ? DestinationName.parse(destination).toConsumerQueue(options.getGroup()) : destination;
+        String tunedDestination = config.getTuning().withConsumerOptions(consumerDestination, flowControl == null);
+        DestinationName destinationName = DestinationName.parse(flowControl != null
+                ? flowControl.withPrefetch(tunedDestination, options.getConcurrency()) : tunedDestination);
+        String durableName = options.getDurableName();
+        if (destinationName.isTopic() && options.getConcurrency() > 1) {
+            throw new JMSException("subscriptions to topics can't have a concurrency above 1");
+        }
+        if (durableName != null && !destinationName.isTopic()) {
+            throw new JMSException("durable subscriptions are only possible for topics");
+        }
+
+        boolean batches = batchHandler != null;
+        RedeliverySettings redelivery = config.getTuning().getRedelivery(consumerDestination);
+        PoisonMessageHandler poisonMessages = new PoisonMessageHandler(destination, redelivery, sessionPool,
+                redelivery.isCircuitBreaker() ? getTimer() : null, logger);
+        List<Session> sessions = new ArrayList<>();
+        List<PollingReceiver> receivers = new ArrayList<>();
+        try {
+            for (int i = 0; i < options.getConcurrency(); i++) {
+                Session session = durableName != null
+                        ? sessionPool.createDurableSession(batches) : sessionPool.createConsumerSession(batches);
+                sessions.add(session);
+
+                MessageConsumer consumer;
+                if (durableName != null) {
+                    consumer = session.createDurableSubscriber((Topic) destinationName.create(session),
+                            durableName, options.getSelector(), false);
+                }
+                else {
+                    consumer = session.createConsumer(destinationName.create(session), options.getSelector());
+                }
+                poisonMessages.addConsumer(consumer);
+                if (batches) {
+                    BatchReceiver receiver = new BatchReceiver(destination, session, consumer,
+                            new MessageConverter(session, converterRegistry, config.getLargeMessageCodec()),
+                            options, metrics.forDestination(destination), poisonMessages, batchHandler, logger);
+                    receivers.add(receiver);
+                    receiver.start();
+                }
+                else if (options.isLowLatency()) {
+                    PollingReceiver receiver = new PollingReceiver(destination, consumer,
+                            createListener(destination, session, options, poisonMessages, subscriberHandler), logger);
+                    receivers.add(receiver);
+                    receiver.start();
+                }
+                else {
+                    consumer.setMessageListener(createListener(destination, session, options, poisonMessages,
+                            subscriberHandler));
+                }
+            }
+        }
+        catch (JMSException e) {
+            new Subscription(destination, durableName, sessions, receivers, null, poisonMessages, logger).close();
+            throw e;
+        }
+
+        String infoMessage = String.format("Successfully subscribed to queue %s with %d consumers",
+                destination, sessions.size());
+        logger.info(infoMessage);
+
+        return new Subscription(destination, durableName, sessions, receivers, flowControl, poisonMessages, logger);
+    }
+
+    /**
+     * Remove a durable subscription from the broker.
+     *
+     * The consumer of the subscription must be closed before.
+     *
+     * @param durableName name of the durable subscription
+     * @throws JMSException if the subscription could not be removed
      */
-    public void subscribe(String destination, final Handler<JsonObject> subscriberHandler) {
+    public void removeDurableSubscription(String durableName) throws JMSException {
+        Session session = sessionPool.createDurableSession(false);
         try {
-            Queue queue = session.createQueue(destination);
-            MessageConsumer consumer = session.createConsumer(queue);
+            session.unsubscribe(durableName);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    private static boolean isEncodedText(Message message) throws JMSException {
+        return LargeMessageCodec.isEncoded(message)
+                && TextBodyConverter.NAME.equals(LargeMessageCodec.getBodyType(message));
+    }
 
-            consumer.setMessageListener(new MessageListener() {
+    private synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
                 @Override
-                public void onMessage(Message message) {
-                    JsonObject json = converter.convertToJsonObject(message);
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "vertx-activemq-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return timer;
+    }
+
+    private MessageListener createListener(final String destination, Session session,
+            SubscriptionOptions options, final PoisonMessageHandler poisonMessages,
+            final Handler<Object> subscriberHandler) {
+        final MessageConverter converter = new MessageConverter(session, converterRegistry,
+                config.getLargeMessageCodec());
+        final DestinationMetrics destinationMetrics = metrics.forDestination(destination);
+        final boolean raw = options.isRaw();
+        final List<String> fields = options.getFields();
+        final boolean headers = options.isHeaders();
+        final boolean streamChunks = options.isStreamChunks();
+        final FlowControl flowControl = options.getFlowControl();
+        final boolean lowLatency = options.isLowLatency();
+
+        return new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                if (flowControl != null && !flowControl.acquire()) {
+                    // the message must not be acknowledged, so the broker redelivers it, ActiveMQ
+                    // counts this as a redelivery of the message
+                    String errorMessage = String.format("Subscription to queue %s was closed while waiting for a credit",
+                            destination);
+                    throw new IllegalStateException(errorMessage);
+                }
+
+                long conversionStart = System.nanoTime();
+                Object body;
+                try {
+                    if (streamChunks && LargeMessageCodec.isChunk(message)) {
+                        body = converter.convertChunkToJsonObject((BytesMessage) message, headers);
+                    }
+                    else if (raw && message instanceof BytesMessage && !isEncodedText(message)) {
+                        body = converter.convertToBuffer((BytesMessage) message);
+                    }
+                    else {
+                        body = converter.convertToJsonObject(destination, message, fields, headers);
+                    }
+                }
+                catch (JMSException e) {
+                    destinationMetrics.recordReceiveError();
+                    if (flowControl != null) {
+                        flowControl.release();
+                    }
+                    if (poisonMessages.failed(message, e, !lowLatency)) {
+                        // ActiveMQ redelivers the message after the delay of its redelivery policy
+                        String errorMessage = String.format("Message from queue %s could not be converted",
+                                destination);
+                        throw new IllegalStateException(errorMessage, e);
+                    }
+                    return;
+                }
+                if (body == null) {
+                    // chunk of a body that is not complete yet
+                    if (flowControl != null) {
+                        flowControl.release();
+                    }
+                    return;
+                }
+                poisonMessages.succeeded();
+                long dispatchStart = System.nanoTime();
+                destinationMetrics.recordReceive(dispatchStart - conversionStart);
+
+                if (!lowLatency && logger.isDebugEnabled()) {
                     String debugMessage = String.format(
                             "Received and converted message of type %s from ActiveMQ broker",
                             message.getClass().getName());
                     logger.debug(debugMessage);
-
-                    subscriberHandler.handle(json);
                 }
-            });
 
-            String infoMessage = String.format("Successfully subscribed to queue %s", destination);
-            logger.info(infoMessage);
-        } catch (JMSException e) {
-            String errorMessage = String.format("Error subscribing to queue %s", destination);
-            logger.error(errorMessage, e);
+                subscriberHandler.handle(body);
+                destinationMetrics.recordDispatch(System.nanoTime() - dispatchStart);
+            }
+        };
+    }
+
+    /**
+     * Buffers messages while a connection of the pool is interrupted and starts the replay when
+     * all connections are resumed.
+     */
+    private class ReconnectListener implements TransportListener {
+
+        @Override
+        public void onCommand(Object command) {
+        }
+
+        @Override
+        public void onException(IOException error) {
+            logger.error("Connection to ActiveMQ broker failed", error);
+        }
+
+        @Override
+        public void transportInterupted() {
+            if (interruptedConnections.getAndIncrement() == 0) {
+                replayBuffer.interrupt();
+                logger.error("Connection to ActiveMQ broker interrupted, buffering messages until reconnect");
+            }
         }
+
+        @Override
+        public void transportResumed() {
+            int interrupted = interruptedConnections.get();
+            while (interrupted > 0 && !interruptedConnections.compareAndSet(interrupted, interrupted - 1)) {
+                interrupted = interruptedConnections.get();
+            }
+
+            if (interrupted == 1) {
+                logger.info("Connection to ActiveMQ broker resumed");
+                replayBuffer.resume();
+                startReplay();
+            }
+        }
+
     }
 
 }
@@ -30,7 +30,13 @@ public enum ActiveMqFieldName {
      * For now the following commands are specified:
      *
      * send:: Send a message to the message broker.
+     * send-batch:: Send several messages to the message broker in one transaction.
+     * request:: Send a message and reply with the response correlated to it.
      * subscribe:: Subscribe for message from the message broker.
+     * unsubscribe:: Close the subscription of a subscriber address to a destination.
+     * list-subscriptions:: Reply with the active subscriptions.
+     * stats:: Reply with the statistics of the module.
+     * config:: Reply with the URL of the broker and the effective tuning settings.
      */
     COMMAND("command"),
     /**
@@ -46,7 +52,149 @@ public enum ActiveMqFieldName {
     /**
      * The body of the message that should be send to the message broker.
      */
-    BODY("body");
+    BODY("body"),
+    /**
+     * Name of the converter for the body. With binary the body contains Base64 encoded binary
+     * content, that is send as a BytesMessage. See {@link ConverterRegistry} for all converters.
+     */
+    BODY_TYPE("body-type"),
+    /**
+     * Array of messages that should be send to the message broker in one batch. Each message
+     * contains a body and optionally its own destination.
+     */
+    MESSAGES("messages"),
+    /**
+     * Maximum number of messages of a subscription in flight to the subscriber. Every message
+     * must be replied to by the subscriber to return its credit.
+     */
+    CREDITS("credits"),
+    /**
+     * Time in milliseconds after which a message not replied to by the subscriber returns its
+     * credit.
+     */
+    CREDIT_TIMEOUT("credit-timeout"),
+    /**
+     * Deliver the content of received BytesMessages as raw Buffer instead of a Json structure.
+     */
+    RAW("raw"),
+    /**
+     * Number of consumers of a subscription receiving messages of the destination in parallel.
+     */
+    CONCURRENCY("concurrency"),
+    /**
+     * JMS message selector of a subscription. The selector is evaluated by the broker, so only
+     * matching messages are delivered to the module.
+     */
+    SELECTOR("selector"),
+    /**
+     * Create a durable subscription to a topic that keeps the messages while the module is
+     * not subscribed.
+     */
+    DURABLE("durable"),
+    /**
+     * Name of a durable subscription. Defaults to the subscriber address.
+     */
+    SUBSCRIPTION_NAME("subscription-name"),
+    /**
+     * Remove the durable subscription on unsubscribe instead of only closing its consumer.
+     */
+    REMOVE_DURABLE("remove-durable"),
+    /**
+     * Destination the receiver of a message should send its reply to. Received messages contain
+     * the name of the destination, a send command can set it.
+     */
+    REPLY_TO("reply-to"),
+    /**
+     * Correlation ID of a message, e.g. the ID of the request a message replies to.
+     */
+    CORRELATION_ID("correlation-id"),
+    /**
+     * Time in milliseconds a request waits for its reply.
+     */
+    TIMEOUT("timeout"),
+    /**
+     * ID of a received message assigned by the broker.
+     */
+    MESSAGE_ID("message-id"),
+    /**
+     * Type of the message set by the sender (JMSType).
+     */
+    TYPE("jms-type"),
+    /**
+     * Time in milliseconds since the epoch when the message was send.
+     */
+    TIMESTAMP("timestamp"),
+    /**
+     * Priority of the message between 0 and 9.
+     */
+    PRIORITY("priority"),
+    /**
+     * Time in milliseconds since the epoch when a received message expires.
+     */
+    EXPIRATION("expiration"),
+    /**
+     * Time in milliseconds a send message lives until it expires, 0 for unlimited.
+     */
+    TIME_TO_LIVE("time-to-live"),
+    /**
+     * Send the message persistent or non persistent.
+     */
+    PERSISTENT("persistent"),
+    /**
+     * The received message has been delivered before.
+     */
+    REDELIVERED("redelivered"),
+    /**
+     * Json object with the properties of the message.
+     */
+    PROPERTIES("properties"),
+    /**
+     * Names of the entries of received MapMessages to put into the body. Other entries are not
+     * converted.
+     */
+    FIELDS("fields"),
+    /**
+     * Put the headers and properties of received messages into the Json message.
+     */
+    HEADERS("headers"),
+    /**
+     * Hand the chunks of large bodies to the subscriber one by one instead of reassembling them.
+     */
+    STREAM_CHUNKS("stream-chunks"),
+    /**
+     * Consumer group of a subscription to a virtual topic. The subscriptions of one group share
+     * the messages of the topic, each message is received by only one of them.
+     */
+    GROUP("group"),
+    /**
+     * Maximum number of received messages handed to the subscriber as one JsonArray.
+     */
+    BATCH_SIZE("batch-size"),
+    /**
+     * Time in milliseconds a batch waits for further messages after its first message.
+     */
+    BATCH_TIMEOUT("batch-timeout"),
+    /**
+     * Time in milliseconds after which a batch not confirmed by the subscriber is rolled back.
+     */
+    CONFIRM_TIMEOUT("confirm-timeout"),
+    /**
+     * Receive the messages of a subscription with a receive loop on a dedicated thread per
+     * consumer instead of a message listener.
+     */
+    LOW_LATENCY("low-latency"),
+    /**
+     * ID of the chunked body a chunk belongs to.
+     */
+    CHUNK_ID("chunk-id"),
+    /**
+     * Position of the chunk in the chunked body, starting with 0.
+     */
+    CHUNK_INDEX("chunk-index"),
+    /**
+     * Number of chunks of the chunked body.
+     */
+    CHUNK_COUNT("chunk-count");
 
     private String fieldName;
 
@@ -0,0 +1,270 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TransactionRolledBackException;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Receives the messages of a consumer in batches on a transacted session.
+ *
+ * Like a {@link PollingReceiver} the receiver runs on a thread of its own. It waits for the first message of a batch and
+ * drains further messages until the batch contains batch-size messages or batch-timeout
+ * milliseconds have passed since the first message. The converted messages are handed to the
+ * handler as one {@link Batch}. The receiver waits for the confirmation of the batch and
+ * commits the session once for all messages of the batch. A batch that is rejected or not
+ * confirmed within confirm-timeout milliseconds is rolled back, so the broker redelivers its
+ * messages.
+ *
+ * Messages that can't be converted are handed to the {@link PoisonMessageHandler}, which moves
+ * them to the dead-letter destination. Like chunks of incomplete bodies they are not part of
+ * the handed over batch, but they are committed with it. Rejected batches are redelivered with
+ * the backoff of the redelivery settings and count as failures for the circuit breaker.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class BatchReceiver extends PollingReceiver {
+
+    private final Session session;
+    private final MessageConverter converter;
+    private final DestinationMetrics destinationMetrics;
+    private final PoisonMessageHandler poisonMessages;
+    private final Handler<Batch> batchHandler;
+
+    private final int batchSize;
+    private final long batchTimeout;
+    private final long confirmTimeout;
+    private final List<String> fields;
+    private final boolean headers;
+    private final boolean streamChunks;
+
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rolledBack = new AtomicLong();
+
+    private volatile Batch pending;
+
+    /**
+     * Create a new receiver for the given consumer.
+     *
+     * @param destination name of the destination / queue
+     * @param session transacted session of the consumer
+     * @param consumer consumer without message listener
+     * @param converter converter to convert the received messages with
+     * @param options options of the subscription with the batch settings
+     * @param destinationMetrics metrics of the destination
+     * @param poisonMessages handler for the messages that can't be converted
+     * @param batchHandler handler to call with the received batches
+     * @param logger logger to report errors
+     */
+    public BatchReceiver(String destination, Session session, MessageConsumer consumer, MessageConverter converter,
+            SubscriptionOptions options, DestinationMetrics destinationMetrics, PoisonMessageHandler poisonMessages,
+            Handler<Batch> batchHandler, Logger logger) {
+        super(destination, consumer, null, logger, "vertx-activemq-batch-" + destination);
+        this.session = session;
+        this.converter = converter;
+        this.destinationMetrics = destinationMetrics;
+        this.poisonMessages = poisonMessages;
+        this.batchHandler = batchHandler;
+
+        batchSize = options.getBatchSize();
+        batchTimeout = options.getBatchTimeout();
+        confirmTimeout = options.getConfirmTimeout();
+        fields = options.getFields();
+        headers = options.isHeaders();
+        streamChunks = options.isStreamChunks();
+    }
+
+    /**
+     * Return the counters of the receiver.
+     *
+     * @return Json structure with the number of committed and rolled back batches
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("committed", committed.get());
+        statistics.putNumber("rolled-back", rolledBack.get());
+
+        return statistics;
+    }
+
+    /**
+     * Receive the next batch, hand it to the handler and commit or roll it back.
+     *
+     * A batch already confirmed when the receiver is closed is still committed. A batch
+     * waiting for its confirmation is rejected and rolled back when the session is closed.
+     */
+    @Override
+    protected void receive() throws JMSException {
+        Message message = consumer.receive(IDLE_RECEIVE_TIMEOUT);
+        if (message == null) {
+            return;
+        }
+
+        JsonArray messages = new JsonArray();
+        long deadline = System.currentTimeMillis() + batchTimeout;
+        int received = 0;
+        while (message != null) {
+            received++;
+            JsonObject body = convert(message);
+            if (body != null) {
+                messages.addObject(body);
+            }
+            if (received >= batchSize) {
+                break;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+        }
+
+        if (messages.size() == 0) {
+            session.commit();
+            return;
+        }
+
+        long dispatchStart = System.nanoTime();
+        Batch batch = new Batch(messages);
+        pending = batch;
+        if (closed) {
+            // closing the session rolls back the batch
+            return;
+        }
+        batchHandler.handle(batch);
+        destinationMetrics.recordDispatch(System.nanoTime() - dispatchStart);
+
+        boolean confirmed = batch.await(confirmTimeout);
+        pending = null;
+
+        if (confirmed) {
+            session.commit();
+            committed.incrementAndGet();
+            poisonMessages.succeeded();
+        }
+        else if (!closed) {
+            session.rollback();
+            rolledBack.incrementAndGet();
+            poisonMessages.rejected();
+
+            String infoMessage = String.format("Batch of %d messages from queue %s was not confirmed, rolled back",
+                    received, destination);
+            logger.info(infoMessage);
+        }
+    }
+
+    @Override
+    protected void cancel() {
+        Batch batch = pending;
+        if (batch != null) {
+            batch.confirm(false);
+        }
+    }
+
+    @Override
+    protected boolean recover(JMSException error) {
+        if (error instanceof TransactionRolledBackException) {
+            // failover during the commit, the broker redelivers the messages of the batch
+            rolledBack.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    private JsonObject convert(Message message) {
+        long conversionStart = System.nanoTime();
+        JsonObject body;
+        try {
+            if (streamChunks && LargeMessageCodec.isChunk(message)) {
+                body = converter.convertChunkToJsonObject((BytesMessage) message, headers);
+            }
+            else {
+                body = converter.convertToJsonObject(destination, message, fields, headers);
+            }
+        }
+        catch (JMSException e) {
+            destinationMetrics.recordReceiveError();
+            poisonMessages.failed(message, e, false);
+            return null;
+        }
+
+        if (body != null) {
+            destinationMetrics.recordReceive(System.nanoTime() - conversionStart);
+        }
+        return body;
+    }
+
+    /**
+     * Messages of one batch handed to the subscriber.
+     *
+     * The subscriber has to confirm the batch once. The confirmation may be given by any thread.
+     */
+    public static class Batch {
+
+        private final JsonArray messages;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean success;
+
+        Batch(JsonArray messages) {
+            this.messages = messages;
+        }
+
+        public JsonArray getMessages() {
+            return messages;
+        }
+
+        /**
+         * Confirm or reject the batch.
+         *
+         * Only the first call counts.
+         *
+         * @param success true to commit the messages of the batch, false to roll them back
+         */
+        public synchronized void confirm(boolean success) {
+            if (done.getCount() > 0) {
+                this.success = success;
+                done.countDown();
+            }
+        }
+
+        private boolean await(long timeout) {
+            try {
+                return done.await(timeout, TimeUnit.MILLISECONDS) && success;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+    }
+
+}
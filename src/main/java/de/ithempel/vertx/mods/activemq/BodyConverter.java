@@ -0,0 +1,83 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Service provider interface for the conversion of the body of a message.
+ *
+ * A BodyConverter converts the body field of a Json message into a JMS Message of one type and
+ * the body of such a JMS Message back into the body field. The {@link ConverterRegistry} selects
+ * the converter for a destination once and keeps it for the following messages.
+ *
+ * Additional converters can be registered with the {@link ConverterRegistry} or by listing them
+ * in a META-INF/services/de.ithempel.vertx.mods.activemq.BodyConverter file. Implementations
+ * must be thread safe, because one converter is used by all sessions.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public interface BodyConverter {
+
+    /**
+     * Return the name of the converter. The name is used as body-type of a message and in the
+     * configuration of the destinations.
+     *
+     * @return name of the converter
+     */
+    String getName();
+
+    /**
+     * Return the type of the JMS Messages the converter reads.
+     *
+     * @return interface of the JMS Message type
+     */
+    Class<? extends Message> getMessageType();
+
+    /**
+     * Check if the converter can convert the given body of a Json message.
+     *
+     * @param body content of the body field
+     * @return true if the body can be converted
+     */
+    boolean canConvert(Object body);
+
+    /**
+     * Convert the body field of the Json message into a JMS Message.
+     *
+     * @param session session to create the message with
+     * @param source Json message with the body field
+     * @return new JMS Message with the body
+     * @throws JMSException if the body could not be converted
+     */
+    Message toMessage(Session session, JsonObject source) throws JMSException;
+
+    /**
+     * Convert the body of the JMS Message into the body field of the Json message.
+     *
+     * @param source JMS Message of the type of the converter
+     * @param target Json message to put the body field into
+     * @throws JMSException if the body could not be read
+     */
+    void toJson(Message source, JsonObject target) throws JMSException;
+
+}
@@ -0,0 +1,94 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Metrics of the bridge between the event bus and the broker.
+ *
+ * The metrics are kept per destination in {@link DestinationMetrics}. Errors that don't belong
+ * to a single destination, like a failed commit of a batch, are counted here.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class BridgeMetrics {
+
+    private final ConcurrentMap<String, DestinationMetrics> destinations = new ConcurrentHashMap<>();
+    private final AtomicLong commitErrors = new AtomicLong();
+
+    /**
+     * Return the metrics of the given destination.
+     *
+     * @param destination name of the destination / queue
+     * @return metrics of the destination, created with the first call for the destination
+     */
+    public DestinationMetrics forDestination(String destination) {
+        DestinationMetrics metrics = destinations.get(destination);
+        if (metrics == null) {
+            DestinationMetrics created = new DestinationMetrics();
+            metrics = destinations.putIfAbsent(destination, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+
+        return metrics;
+    }
+
+    public void recordCommitError() {
+        commitErrors.incrementAndGet();
+    }
+
+    /**
+     * Return the summed up counters and the metrics of each destination.
+     *
+     * @return Json structure with the metrics of the bridge
+     */
+    public JsonObject getStatistics() {
+        long sends = 0;
+        long sendErrors = 0;
+        long receives = 0;
+        long receiveErrors = 0;
+        JsonObject destinationStatistics = new JsonObject();
+        for (Map.Entry<String, DestinationMetrics> entry : destinations.entrySet()) {
+            DestinationMetrics metrics = entry.getValue();
+            sends += metrics.getSends();
+            sendErrors += metrics.getSendErrors();
+            receives += metrics.getReceives();
+            receiveErrors += metrics.getReceiveErrors();
+            destinationStatistics.putObject(entry.getKey(), metrics.getStatistics());
+        }
+
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("sends", sends);
+        statistics.putNumber("send-errors", sendErrors);
+        statistics.putNumber("receives", receives);
+        statistics.putNumber("receive-errors", receiveErrors);
+        statistics.putNumber("commit-errors", commitErrors.get());
+        statistics.putObject("destinations", destinationStatistics);
+
+        return statistics;
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Arrays;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts a binary body into a BytesMessage and back.
+ *
+ * A JsonObject holds binary content Base64 encoded. So a binary body can only be recognized by
+ * the body-type binary. The content is handed to / from ActiveMQ without copying it, if the
+ * session creates ActiveMQ messages and the message is not compressed.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class BytesBodyConverter implements BodyConverter {
+
+    public static final String NAME = "binary";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageType() {
+        return BytesMessage.class;
+    }
+
+    @Override
+    public boolean canConvert(Object body) {
+        // binary content is stored as Base64 String and needs the body-type to be recognized
+        return false;
+    }
+
+    @Override
+    public Message toMessage(Session session, JsonObject source) throws JMSException {
+        byte[] bytes = source.getBinary(ActiveMqFieldName.BODY.toString());
+
+        return createBytesMessage(session, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void toJson(Message source, JsonObject target) throws JMSException {
+        ByteSequence content = readContent((BytesMessage) source);
+        byte[] bytes = content.data;
+        if (content.offset != 0 || content.length != content.data.length) {
+            bytes = Arrays.copyOfRange(content.data, content.offset, content.offset + content.length);
+        }
+
+        target.putBinary(ActiveMqFieldName.BODY.toString(), bytes);
+        target.putString(ActiveMqFieldName.BODY_TYPE.toString(), NAME);
+    }
+
+    /**
+     * Create a BytesMessage with the given part of the array as content.
+     *
+     * @param session session to create the message with
+     * @param bytes array with the content
+     * @param offset position of the first byte of the content
+     * @param length number of bytes of the content
+     * @return BytesMessage with the content
+     * @throws JMSException if the message could not be created
+     */
+    public static BytesMessage createBytesMessage(Session session, byte[] bytes, int offset, int length)
+            throws JMSException {
+        BytesMessage bytesMessage = session.createBytesMessage();
+        setContent(bytesMessage, bytes, offset, length);
+
+        return bytesMessage;
+    }
+
+    /**
+     * Set the given part of the array as content of a new BytesMessage.
+     *
+     * Properties should be set before the content. Setting a property of an ActiveMQ message
+     * copies its content.
+     *
+     * @param bytesMessage new message without content
+     * @param bytes array with the content
+     * @param offset position of the first byte of the content
+     * @param length number of bytes of the content
+     * @throws JMSException if the content could not be set
+     */
+    public static void setContent(BytesMessage bytesMessage, byte[] bytes, int offset, int length)
+            throws JMSException {
+        if (bytesMessage instanceof ActiveMQBytesMessage) {
+            ActiveMQBytesMessage activeMqMessage = (ActiveMQBytesMessage) bytesMessage;
+            // setting a property opened a stream for writing, that would replace the content on send
+            activeMqMessage.storeContent();
+            // the content is marshalled as it is, so ActiveMQ can use the array without a copy
+            activeMqMessage.setContent(new ByteSequence(bytes, offset, length));
+        }
+        else {
+            bytesMessage.writeBytes(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Return the content of the BytesMessage.
+     *
+     * @param bytesMessage message to read
+     * @return content of the message, shared with the message if possible
+     * @throws JMSException if the content could not be read
+     */
+    public static ByteSequence readContent(BytesMessage bytesMessage) throws JMSException {
+        if (bytesMessage instanceof ActiveMQBytesMessage && !((ActiveMQBytesMessage) bytesMessage).isCompressed()) {
+            ByteSequence content = ((ActiveMQBytesMessage) bytesMessage).getContent();
+
+            return content != null ? content : new ByteSequence(new byte[0]);
+        }
+
+        byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(bytes);
+
+        return new ByteSequence(bytes);
+    }
+
+}
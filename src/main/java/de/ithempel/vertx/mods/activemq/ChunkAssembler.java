@@ -0,0 +1,177 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Reassembles the chunks of bodies split by the {@link LargeMessageCodec}.
+ *
+ * The chunks of a body arrive in order at the same consumer, because they form a message group.
+ * The assembler collects the decompressed chunks of every incomplete body and returns the body
+ * when its last chunk arrived. The bytes of all incomplete bodies are limited by the
+ * max-reassembled-size of the codec. A body exceeding the limit, with missing chunks or without
+ * chunks for longer than the chunk-timeout is discarded. The following chunks of a discarded body
+ * are dropped silently.
+ *
+ * An assembler belongs to one consumer and must only be used by its dispatch thread.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ChunkAssembler {
+
+    private final LargeMessageCodec codec;
+    private final Map<String, PartialBody> partialBodies = new LinkedHashMap<>();
+
+    private long pendingBytes;
+    private long discarded;
+
+    public ChunkAssembler(LargeMessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Add a received chunk.
+     *
+     * @param chunk chunk created by the {@link LargeMessageCodec}
+     * @return complete body if this was the last chunk, null if chunks are missing or the body
+     *          was discarded before
+     * @throws JMSException if the chunk could not be read or the body had to be discarded
+     */
+    public ByteSequence add(BytesMessage chunk) throws JMSException {
+        long now = System.currentTimeMillis();
+        discardExpired(now);
+
+        String chunkId = chunk.getStringProperty(LargeMessageCodec.CHUNK_ID_PROPERTY);
+        int index = chunk.getIntProperty(LargeMessageCodec.CHUNK_INDEX_PROPERTY);
+        int count = chunk.getIntProperty(LargeMessageCodec.CHUNK_COUNT_PROPERTY);
+
+        PartialBody partialBody = partialBodies.get(chunkId);
+        if (partialBody == null) {
+            partialBody = new PartialBody(count);
+            partialBodies.put(chunkId, partialBody);
+        }
+        partialBody.lastChunk = now;
+
+        if (partialBody.discarded) {
+            if (index == count - 1) {
+                partialBodies.remove(chunkId);
+            }
+            return null;
+        }
+        if (index != partialBody.chunks.size() || count != partialBody.count) {
+            discard(chunkId, partialBody, index == count - 1);
+            throw new JMSException(String.format("chunk %d of %d of body %s received out of order",
+                    index + 1, count, chunkId));
+        }
+
+        ByteSequence content = codec.decode(chunk);
+        if (pendingBytes + content.length > codec.getMaxReassembledSize()) {
+            discard(chunkId, partialBody, index == count - 1);
+            throw new JMSException(String.format("body %s exceeds the max-reassembled-size of %d bytes",
+                    chunkId, codec.getMaxReassembledSize()));
+        }
+
+        partialBody.chunks.add(content);
+        partialBody.length += content.length;
+        pendingBytes += content.length;
+        if (partialBody.chunks.size() < count) {
+            return null;
+        }
+
+        partialBodies.remove(chunkId);
+        pendingBytes -= partialBody.length;
+
+        byte[] body = new byte[(int) partialBody.length];
+        int position = 0;
+        for (ByteSequence part : partialBody.chunks) {
+            System.arraycopy(part.data, part.offset, body, position, part.length);
+            position += part.length;
+        }
+
+        return new ByteSequence(body);
+    }
+
+    /**
+     * Return the number of bytes of the incomplete bodies.
+     *
+     * @return bytes of the chunks waiting for their reassembly
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Return the number of discarded bodies.
+     *
+     * @return bodies discarded because of missing chunks, the size limit or the timeout
+     */
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    private void discard(String chunkId, PartialBody partialBody, boolean last) {
+        discarded++;
+        pendingBytes -= partialBody.length;
+        partialBody.chunks.clear();
+        partialBody.length = 0;
+        partialBody.discarded = true;
+
+        if (last) {
+            partialBodies.remove(chunkId);
+        }
+    }
+
+    private void discardExpired(long now) {
+        Iterator<PartialBody> iterator = partialBodies.values().iterator();
+        while (iterator.hasNext()) {
+            PartialBody partialBody = iterator.next();
+            if (now - partialBody.lastChunk > codec.getChunkTimeout()) {
+                if (!partialBody.discarded) {
+                    discarded++;
+                    pendingBytes -= partialBody.length;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class PartialBody {
+
+        private final int count;
+        private final List<ByteSequence> chunks = new ArrayList<>();
+        private long length;
+        private long lastChunk;
+        private boolean discarded;
+
+        private PartialBody(int count) {
+            this.count = count;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Failure rate based circuit breaker for the consumers of a subscription.
+ *
+ * The breaker keeps the outcomes of the last window messages. When the window is full and the
+ * share of failures reaches the failure rate, the breaker opens. The owner pauses the consumers
+ * while the breaker is open and switches the breaker to half open after the open time. The
+ * next outcome in the half open state closes the breaker again or opens it for another open
+ * time.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class CircuitBreaker {
+
+    public static final String CLOSED = "closed";
+    public static final String OPEN = "open";
+    public static final String HALF_OPEN = "half-open";
+
+    private final double failureRate;
+    private final long openTime;
+    private final boolean[] failures;
+
+    private String state = CLOSED;
+    private int next;
+    private int recorded;
+    private int failed;
+    private long opened;
+
+    /**
+     * Create a new closed circuit breaker.
+     *
+     * @param failureRate share of failures between 0 and 1 that opens the breaker
+     * @param window number of the last outcomes the failure rate is calculated from
+     * @param openTime milliseconds the breaker stays open
+     */
+    public CircuitBreaker(double failureRate, int window, long openTime) {
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException("The failure rate must be above 0 and at most 1");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must be at least 1");
+        }
+        if (openTime < 1) {
+            throw new IllegalArgumentException("The open time must be at least 1 millisecond");
+        }
+
+        this.failureRate = failureRate;
+        this.openTime = openTime;
+        failures = new boolean[window];
+    }
+
+    /**
+     * Record a message handled successfully.
+     */
+    public synchronized void recordSuccess() {
+        if (HALF_OPEN.equals(state)) {
+            state = CLOSED;
+            reset();
+        }
+        else if (CLOSED.equals(state)) {
+            record(false);
+        }
+    }
+
+    /**
+     * Record a message that failed.
+     *
+     * @return true if the breaker opened with this failure, false if it stays closed or was
+     *          already open
+     */
+    public synchronized boolean recordFailure() {
+        if (HALF_OPEN.equals(state)) {
+            open();
+            return true;
+        }
+        if (OPEN.equals(state)) {
+            return false;
+        }
+
+        record(true);
+        if (recorded == failures.length && failed >= failureRate * failures.length) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Let the next message decide whether the breaker closes or opens again.
+     */
+    public synchronized void halfOpen() {
+        if (OPEN.equals(state)) {
+            state = HALF_OPEN;
+        }
+    }
+
+    public synchronized String getState() {
+        return state;
+    }
+
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Return the state of the breaker as a Json structure.
+     *
+     * @return Json structure with the state, the failures in the window and the number of
+     *          times the breaker opened
+     */
+    public synchronized JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putString("state", state);
+        statistics.putNumber("failures", failed);
+        statistics.putNumber("window", failures.length);
+        statistics.putNumber("opened", opened);
+
+        return statistics;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == failures.length) {
+            if (failures[next]) {
+                failed--;
+            }
+        }
+        else {
+            recorded++;
+        }
+
+        failures[next] = failure;
+        if (failure) {
+            failed++;
+        }
+        next = (next + 1) % failures.length;
+    }
+
+    private void open() {
+        state = OPEN;
+        opened++;
+        reset();
+    }
+
+    private void reset() {
+        next = 0;
+        recorded = 0;
+        failed = 0;
+    }
+
+}
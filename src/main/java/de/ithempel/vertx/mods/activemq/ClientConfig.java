@@ -0,0 +1,270 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Configuration of the {@link ActiveMqClient}.
+ *
+ * The values are read from the configuration Json of the module. Every value has a default,
+ * so an empty configuration connects to a local broker with a single connection and session.
+ *
+ * |===
+ * | field                   | default   | description
+ * |
+ * | host                    | localhost | Network name of the broker.
+ * | port                    | 61616     | Port of the broker.
+ * | brokers                 |           | Array of broker URLs, e.g. tcp://broker1:61616, used with failover instead of host and port.
+ * | failover                |           | Failover / reconnect settings, see below. Enabled by brokers too.
+ * | replay-buffer-size      | 1000      | Maximum number of messages buffered while the connection is interrupted.
+ * | replay-batch-size       | 100       | Number of buffered messages replayed in one transaction.
+ * | outbox                  |           | Settings of the disk backed replay buffer (see {@link Outbox}).
+ * | connections             | 1         | Number of connections to the broker.
+ * | sessions-per-connection | 1         | Number of sessions used for sending on each connection.
+ * | producer-cache-size     | 64        | Maximum number of cached producers per session.
+ * | producer-idle-timeout   | 300000    | Milliseconds after which an unused producer is closed.
+ * | client-id               |           | Client ID of the connections, needed for durable subscriptions.
+ * | async-send              | false     | Send messages without waiting for the acknowledgement of the broker.
+ * | max-in-flight-sends     | 1024      | Maximum number of asynchronous sends not yet acknowledged by the broker.
+ * | producer-window-size    | 0         | Bytes a producer may send before it waits for the broker, 0 for the ActiveMQ default.
+ * | tuning                  |           | Settings of the connection factory and per destination (see {@link ConnectionTuning}).
+ * | converters              | {}        | Names of the body converters for destinations (see {@link ConverterRegistry}).
+ * | large-messages          |           | Compression and chunking of large bodies (see {@link LargeMessageCodec}).
+ * |===
+ *
+ * With failover the connections are made with the failover transport of ActiveMQ. The transport
+ * reconnects with an exponential backoff after the connection was lost and restores the
+ * sessions and consumers. The failover object can contain the following fields.
+ *
+ * |===
+ * | field                          | default | description
+ * |
+ * | enabled                        | false   | Use the failover transport with host and port.
+ * | initial-reconnect-delay        | 100     | Milliseconds to wait before the first reconnect attempt.
+ * | max-reconnect-delay            | 30000   | Maximum milliseconds between two reconnect attempts.
+ * | backoff-multiplier             | 2.0     | Factor to increase the delay after each attempt.
+ * | max-reconnect-attempts         | -1      | Attempts after a lost connection, -1 for no limit.
+ * | startup-max-reconnect-attempts | 3       | Attempts to connect when the module is started.
+ * | send-timeout                   | 1000    | Milliseconds a send waits for the reconnect before it fails.
+ * |===
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ClientConfig {
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int sessionsPerConnection;
+    private final int producerCacheSize;
+    private final long producerIdleTimeout;
+    private final JsonObject converters;
+    private final String clientId;
+    private final JsonArray brokers;
+    private final JsonObject failover;
+    private final int replayBufferSize;
+    private final int replayBatchSize;
+    private final JsonObject outbox;
+    private final double backoffMultiplier;
+    private final boolean asyncSend;
+    private final int maxInFlightSends;
+    private final int producerWindowSize;
+    private final LargeMessageCodec largeMessageCodec;
+    private final ConnectionTuning tuning;
+
+    public ClientConfig(JsonObject config) {
+        host = config.getString("host", "localhost");
+        port = config.getInteger("port", 61616);
+        connections = config.getInteger("connections", 1);
+        sessionsPerConnection = config.getInteger("sessions-per-connection", 1);
+        producerCacheSize = config.getInteger("producer-cache-size", 64);
+        producerIdleTimeout = config.getLong("producer-idle-timeout", 300000);
+        converters = config.getObject("converters", new JsonObject());
+        clientId = config.getString("client-id");
+        brokers = config.getArray("brokers");
+        failover = config.getObject("failover", new JsonObject());
+        replayBufferSize = config.getInteger("replay-buffer-size", 1000);
+        replayBatchSize = config.getInteger("replay-batch-size", 100);
+        outbox = config.getObject("outbox", new JsonObject());
+        asyncSend = config.getBoolean("async-send", false);
+        maxInFlightSends = config.getInteger("max-in-flight-sends", 1024);
+        producerWindowSize = config.getInteger("producer-window-size", 0);
+        largeMessageCodec = new LargeMessageCodec(config.getObject("large-messages", new JsonObject()));
+        tuning = new ConnectionTuning(config.getObject("tuning", new JsonObject()), producerWindowSize);
+        Number multiplier = failover.getNumber("backoff-multiplier");
+        backoffMultiplier = multiplier != null ? multiplier.doubleValue() : 2.0;
+
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1");
+        }
+        if (sessionsPerConnection < 1) {
+            throw new IllegalArgumentException("sessions-per-connection must be at least 1");
+        }
+        if (brokers != null && brokers.size() == 0) {
+            throw new IllegalArgumentException("brokers must contain at least one URL");
+        }
+        if (replayBufferSize < 0) {
+            throw new IllegalArgumentException("replay-buffer-size must not be negative");
+        }
+        if (replayBatchSize < 1) {
+            throw new IllegalArgumentException("replay-batch-size must be at least 1");
+        }
+        if (maxInFlightSends < 1) {
+            throw new IllegalArgumentException("max-in-flight-sends must be at least 1");
+        }
+        if (producerWindowSize < 0) {
+            throw new IllegalArgumentException("producer-window-size must not be negative");
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getSessionsPerConnection() {
+        return sessionsPerConnection;
+    }
+
+    public int getProducerCacheSize() {
+        return producerCacheSize;
+    }
+
+    public long getProducerIdleTimeout() {
+        return producerIdleTimeout;
+    }
+
+    public JsonObject getConverters() {
+        return converters;
+    }
+
+    /**
+     * Return the client ID of the connections.
+     *
+     * @return client ID or null if not configured
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    public boolean isAsyncSend() {
+        return asyncSend;
+    }
+
+    public int getMaxInFlightSends() {
+        return maxInFlightSends;
+    }
+
+    public int getProducerWindowSize() {
+        return producerWindowSize;
+    }
+
+    public LargeMessageCodec getLargeMessageCodec() {
+        return largeMessageCodec;
+    }
+
+    public ConnectionTuning getTuning() {
+        return tuning;
+    }
+
+    public int getReplayBatchSize() {
+        return replayBatchSize;
+    }
+
+    public JsonObject getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Check if the replay buffer is stored in an outbox on disk.
+     *
+     * @return true if the outbox is enabled
+     */
+    public boolean isOutbox() {
+        return outbox.getBoolean("enabled", false);
+    }
+
+    /**
+     * Check if the failover transport is used.
+     *
+     * @return true if brokers are given or failover is enabled
+     */
+    public boolean isFailover() {
+        return brokers != null || failover.getBoolean("enabled", false);
+    }
+
+    /**
+     * Return the URL of the broker build from host and port or the failover URL with all brokers
+     * and the reconnect settings.
+     *
+     * @return URL to connect to the broker
+     */
+    public String getBrokerUrl() {
+        String brokerUrl = withTransportOptions(String.format("tcp://%s:%d", host, port));
+        if (!isFailover()) {
+            return brokerUrl;
+        }
+
+        StringBuilder urls = new StringBuilder();
+        if (brokers != null) {
+            for (Object broker : brokers) {
+                if (urls.length() > 0) {
+                    urls.append(',');
+                }
+                urls.append(withTransportOptions(broker.toString()));
+            }
+        }
+        else {
+            urls.append(brokerUrl);
+        }
+
+        return String.format("failover:(%s)?initialReconnectDelay=%d&maxReconnectDelay=%d"
+                + "&useExponentialBackOff=true&reconnectDelayExponent=%s&maxReconnectAttempts=%d"
+                + "&startupMaxReconnectAttempts=%d&timeout=%d",
+                urls,
+                failover.getLong("initial-reconnect-delay", 100),
+                failover.getLong("max-reconnect-delay", 30000),
+                backoffMultiplier,
+                failover.getInteger("max-reconnect-attempts", -1),
+                failover.getInteger("startup-max-reconnect-attempts", 3),
+                failover.getLong("send-timeout", 1000));
+    }
+
+    private String withTransportOptions(String url) {
+        String transportOptions = tuning.getTransportOptions();
+        if (transportOptions == null) {
+            return url;
+        }
+
+        return url + (url.indexOf('?') < 0 ? '?' : '&') + transportOptions;
+    }
+
+}
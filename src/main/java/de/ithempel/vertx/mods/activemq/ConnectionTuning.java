@@ -0,0 +1,382 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+import org.apache.activemq.RedeliveryPolicy;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Performance settings of the ActiveMQ connection factory and their overrides per destination.
+ *
+ * The settings are read from the tuning field of the configuration. Settings not given keep the
+ * default of ActiveMQ. All settings are validated when the module is started, unknown fields and
+ * values of the wrong type or range are rejected.
+ *
+ * |===
+ * | field                      | default | description
+ * |
+ * | prefetch                   |         | Prefetch size of all consumers or an object with the fields queue, topic, durable-topic and queue-browser.
+ * | optimize-acknowledge       | false   | Acknowledge received messages in batches.
+ * | dispatch-async             | true    | The broker dispatches messages to the consumers on a separate thread.
+ * | always-session-async       | true    | The client hands received messages to the consumers on the thread of their session.
+ * | producer-window-size       | 0       | Bytes a producer may send before it waits for the broker, 0 for no limit.
+ * | use-async-send             | false   | Send persistent messages without waiting for the broker.
+ * | use-compression            | false   | Compress the bodies of all messages with ActiveMQ.
+ * | socket-send-buffer-size    | 65536   | Send buffer of the TCP sockets in bytes.
+ * | socket-receive-buffer-size | 65536   | Receive buffer of the TCP sockets in bytes.
+ * | redelivery                 |         | Redelivery with backoff, dead-letter and circuit breaker (see {@link RedeliverySettings}).
+ * | destinations               | {}      | Overrides per destination, see below.
+ * |===
+ *
+ * ActiveMQ applies most of these settings per connection. Only the settings it supports per
+ * consumer or the module applies per send can be overridden for a destination. The
+ * destinations field contains an object per name of a destination with the following fields.
+ *
+ * |===
+ * | field          | description
+ * |
+ * | prefetch       | Prefetch size of the consumers of the destination.
+ * | dispatch-async | The broker dispatches messages to the consumers of the destination on a separate thread.
+ * | async-send     | Send to the destination without waiting for the acknowledgement, see async-send of {@link ClientConfig}.
+ * | redelivery     | Redelivery settings of the consumers of the destination.
+ * |===
+ *
+ * The prefetch of a subscription with credits is always the share of its credits.
+ *
+ * With use-async-send ActiveMQ doesn't wait for the broker to store persistent messages. Send
+ * failures are then only reported to the exception listener of the connection, so a message
+ * may be lost without an error reply. The async-send setting of the module keeps the errors.
+ *
+ * Without always-session-async the transport thread of a connection puts the received
+ * messages directly into the buffers of the consumers. This saves a hand-off between threads
+ * for low-latency subscriptions, but a slow message listener then blocks all consumers of the
+ * connection.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ConnectionTuning {
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("prefetch", "optimize-acknowledge",
+            "dispatch-async", "always-session-async", "producer-window-size", "use-async-send", "use-compression",
+            "socket-send-buffer-size", "socket-receive-buffer-size", "redelivery", "destinations"));
+    private static final Set<String> PREFETCH_FIELDS = new HashSet<>(Arrays.asList("queue", "topic",
+            "durable-topic", "queue-browser"));
+    private static final Set<String> DESTINATION_FIELDS = new HashSet<>(Arrays.asList("prefetch",
+            "dispatch-async", "async-send", "redelivery"));
+
+    private static final int DEFAULT_SOCKET_BUFFER_SIZE = 64 * 1024;
+
+    private final int queuePrefetch;
+    private final int topicPrefetch;
+    private final int durableTopicPrefetch;
+    private final int queueBrowserPrefetch;
+    private final boolean optimizeAcknowledge;
+    private final boolean dispatchAsync;
+    private final boolean alwaysSessionAsync;
+    private final int producerWindowSize;
+    private final boolean useAsyncSend;
+    private final boolean useCompression;
+    private final int socketSendBufferSize;
+    private final int socketReceiveBufferSize;
+    private final boolean socketOptions;
+    private final RedeliverySettings redelivery;
+    private final Map<String, JsonObject> destinations = new HashMap<>();
+    private final Map<String, RedeliverySettings> destinationRedeliveries = new HashMap<>();
+
+    /**
+     * Read and validate the settings.
+     *
+     * @param config Json structure with the settings described above
+     * @param defaultProducerWindowSize producer window size if the settings don't contain one
+     */
+    public ConnectionTuning(JsonObject config, int defaultProducerWindowSize) {
+        checkFields("tuning", config, FIELDS);
+
+        ActiveMQConnectionFactory defaults = new ActiveMQConnectionFactory();
+        ActiveMQPrefetchPolicy defaultPrefetch = defaults.getPrefetchPolicy();
+
+        Object prefetch = config.getField("prefetch");
+        if (prefetch instanceof JsonObject) {
+            JsonObject prefetchConfig = (JsonObject) prefetch;
+            checkFields("tuning.prefetch", prefetchConfig, PREFETCH_FIELDS);
+            queuePrefetch = getInteger(prefetchConfig, "queue", defaultPrefetch.getQueuePrefetch(), 0);
+            topicPrefetch = getInteger(prefetchConfig, "topic", defaultPrefetch.getTopicPrefetch(), 0);
+            durableTopicPrefetch = getInteger(prefetchConfig, "durable-topic",
+                    defaultPrefetch.getDurableTopicPrefetch(), 0);
+            queueBrowserPrefetch = getInteger(prefetchConfig, "queue-browser",
+                    defaultPrefetch.getQueueBrowserPrefetch(), 0);
+        }
+        else if (prefetch != null) {
+            int all = getInteger(config, "prefetch", 0, 0);
+            queuePrefetch = all;
+            topicPrefetch = all;
+            durableTopicPrefetch = all;
+            queueBrowserPrefetch = all;
+        }
+        else {
+            queuePrefetch = defaultPrefetch.getQueuePrefetch();
+            topicPrefetch = defaultPrefetch.getTopicPrefetch();
+            durableTopicPrefetch = defaultPrefetch.getDurableTopicPrefetch();
+            queueBrowserPrefetch = defaultPrefetch.getQueueBrowserPrefetch();
+        }
+
+        optimizeAcknowledge = getBoolean(config, "optimize-acknowledge", defaults.isOptimizeAcknowledge());
+        dispatchAsync = getBoolean(config, "dispatch-async", defaults.isDispatchAsync());
+        alwaysSessionAsync = getBoolean(config, "always-session-async", defaults.isAlwaysSessionAsync());
+        producerWindowSize = getInteger(config, "producer-window-size", defaultProducerWindowSize, 0);
+        useAsyncSend = getBoolean(config, "use-async-send", defaults.isUseAsyncSend());
+        useCompression = getBoolean(config, "use-compression", defaults.isUseCompression());
+        socketSendBufferSize = getInteger(config, "socket-send-buffer-size", DEFAULT_SOCKET_BUFFER_SIZE, 1);
+        socketReceiveBufferSize = getInteger(config, "socket-receive-buffer-size", DEFAULT_SOCKET_BUFFER_SIZE, 1);
+        socketOptions = config.containsField("socket-send-buffer-size")
+                || config.containsField("socket-receive-buffer-size");
+        redelivery = new RedeliverySettings(getObject(config, "redelivery", "tuning.redelivery"));
+
+        Object destinationsConfig = config.getField("destinations");
+        if (destinationsConfig != null && !(destinationsConfig instanceof JsonObject)) {
+            throw new IllegalArgumentException("tuning.destinations must be an object");
+        }
+        if (destinationsConfig != null) {
+            JsonObject overrides = (JsonObject) destinationsConfig;
+            for (String destination : overrides.getFieldNames()) {
+                Object override = overrides.getField(destination);
+                String path = "tuning.destinations." + destination;
+                if (!(override instanceof JsonObject)) {
+                    throw new IllegalArgumentException(String.format("%s must be an object", path));
+                }
+
+                JsonObject destinationConfig = (JsonObject) override;
+                checkFields(path, destinationConfig, DESTINATION_FIELDS);
+                getInteger(destinationConfig, "prefetch", 0, 0);
+                getBoolean(destinationConfig, "dispatch-async", false);
+                getBoolean(destinationConfig, "async-send", false);
+                if (destinationConfig.containsField("redelivery")) {
+                    String redeliveryPath = path + ".redelivery";
+                    destinationRedeliveries.put(destination, new RedeliverySettings(redeliveryPath,
+                            getObject(destinationConfig, "redelivery", redeliveryPath), redelivery));
+                }
+                destinations.put(destination, destinationConfig.copy());
+            }
+        }
+    }
+
+    /**
+     * Set the settings on the connection factory.
+     *
+     * @param connectionFactory factory to create the connections of the pool with
+     */
+    public void apply(ActiveMQConnectionFactory connectionFactory) {
+        ActiveMQPrefetchPolicy prefetchPolicy = connectionFactory.getPrefetchPolicy();
+        prefetchPolicy.setQueuePrefetch(queuePrefetch);
+        prefetchPolicy.setTopicPrefetch(topicPrefetch);
+        prefetchPolicy.setDurableTopicPrefetch(durableTopicPrefetch);
+        prefetchPolicy.setQueueBrowserPrefetch(queueBrowserPrefetch);
+
+        connectionFactory.setOptimizeAcknowledge(optimizeAcknowledge);
+        connectionFactory.setDispatchAsync(dispatchAsync);
+        connectionFactory.setAlwaysSessionAsync(alwaysSessionAsync);
+        connectionFactory.setProducerWindowSize(producerWindowSize);
+        connectionFactory.setUseAsyncSend(useAsyncSend);
+        connectionFactory.setUseCompression(useCompression);
+
+        connectionFactory.setNonBlockingRedelivery(true);
+        connectionFactory.setRedeliveryPolicy(redelivery.createPolicy(null));
+        if (!destinationRedeliveries.isEmpty()) {
+            List<RedeliveryPolicy> policies = new ArrayList<>();
+            for (Map.Entry<String, RedeliverySettings> entry : destinationRedeliveries.entrySet()) {
+                policies.add(entry.getValue().createPolicy(entry.getKey()));
+            }
+            connectionFactory.getRedeliveryPolicyMap().setRedeliveryPolicyEntries(policies);
+        }
+    }
+
+    /**
+     * Return the options of the TCP transport for the URL of a broker.
+     *
+     * @return options to append to the URL of a broker without leading ? or &, null if the socket
+     *          buffers are not configured
+     */
+    public String getTransportOptions() {
+        if (!socketOptions) {
+            return null;
+        }
+
+        return String.format("socket.sendBufferSize=%d&socket.receiveBufferSize=%d",
+                socketSendBufferSize, socketReceiveBufferSize);
+    }
+
+    /**
+     * Append the consumer options of the overrides to the name of the destination.
+     *
+     * @param destination name of the destination, optionally with destination options
+     * @param prefetch append the prefetch size, false if the prefetch is set by the credits
+     * @return name of the destination with the consumer options
+     */
+    public String withConsumerOptions(String destination, boolean prefetch) {
+        JsonObject override = getOverride(destination);
+        if (override == null) {
+            return destination;
+        }
+
+        StringBuilder tuned = new StringBuilder(destination);
+        char separator = destination.indexOf('?') < 0 ? '?' : '&';
+        if (prefetch && override.containsField("prefetch")) {
+            tuned.append(separator).append("consumer.prefetchSize=").append(override.getInteger("prefetch"));
+            separator = '&';
+        }
+        if (override.containsField("dispatch-async")) {
+            tuned.append(separator).append("consumer.dispatchAsync=").append(override.getBoolean("dispatch-async"));
+        }
+
+        return tuned.toString();
+    }
+
+    /**
+     * Check if the messages to the destination are send asynchronously.
+     *
+     * @param destination name of the destination
+     * @param defaultAsyncSend async-send of the module
+     * @return true if the client doesn't wait for the acknowledgement of the broker
+     */
+    public boolean isAsyncSend(String destination, boolean defaultAsyncSend) {
+        JsonObject override = getOverride(destination);
+
+        return override != null ? override.getBoolean("async-send", defaultAsyncSend) : defaultAsyncSend;
+    }
+
+    /**
+     * Return the redelivery settings of the consumers of the destination.
+     *
+     * @param destination name of the destination, optionally with destination options
+     * @return redelivery settings of the override for the destination or the global settings
+     */
+    public RedeliverySettings getRedelivery(String destination) {
+        if (destinationRedeliveries.isEmpty()) {
+            return redelivery;
+        }
+
+        RedeliverySettings override = destinationRedeliveries.get(stripOptions(destination));
+        return override != null ? override : redelivery;
+    }
+
+    /**
+     * Return the effective settings including the defaults of ActiveMQ.
+     *
+     * @return Json structure with all settings and the overrides per destination
+     */
+    public JsonObject toJson() {
+        JsonObject prefetch = new JsonObject();
+        prefetch.putNumber("queue", queuePrefetch);
+        prefetch.putNumber("topic", topicPrefetch);
+        prefetch.putNumber("durable-topic", durableTopicPrefetch);
+        prefetch.putNumber("queue-browser", queueBrowserPrefetch);
+
+        JsonObject overrides = new JsonObject();
+        for (Map.Entry<String, JsonObject> entry : destinations.entrySet()) {
+            JsonObject override = entry.getValue().copy();
+            RedeliverySettings destinationRedelivery = destinationRedeliveries.get(entry.getKey());
+            if (destinationRedelivery != null) {
+                override.putObject("redelivery", destinationRedelivery.toJson());
+            }
+            overrides.putObject(entry.getKey(), override);
+        }
+
+        JsonObject json = new JsonObject();
+        json.putObject("prefetch", prefetch);
+        json.putBoolean("optimize-acknowledge", optimizeAcknowledge);
+        json.putBoolean("dispatch-async", dispatchAsync);
+        json.putBoolean("always-session-async", alwaysSessionAsync);
+        json.putNumber("producer-window-size", producerWindowSize);
+        json.putBoolean("use-async-send", useAsyncSend);
+        json.putBoolean("use-compression", useCompression);
+        json.putNumber("socket-send-buffer-size", socketSendBufferSize);
+        json.putNumber("socket-receive-buffer-size", socketReceiveBufferSize);
+        json.putObject("redelivery", redelivery.toJson());
+        json.putObject("destinations", overrides);
+
+        return json;
+    }
+
+    private JsonObject getOverride(String destination) {
+        if (destinations.isEmpty()) {
+            return null;
+        }
+
+        return destinations.get(stripOptions(destination));
+    }
+
+    private static String stripOptions(String destination) {
+        int options = destination.indexOf('?');
+        return options < 0 ? destination : destination.substring(0, options);
+    }
+
+    private static JsonObject getObject(JsonObject config, String field, String path) {
+        Object value = config.getField(field);
+        if (value != null && !(value instanceof JsonObject)) {
+            throw new IllegalArgumentException(String.format("%s must be an object", path));
+        }
+
+        return value != null ? (JsonObject) value : new JsonObject();
+    }
+
+    static void checkFields(String path, JsonObject config, Set<String> allowed) {
+        for (String field : config.getFieldNames()) {
+            if (!allowed.contains(field)) {
+                throw new IllegalArgumentException(String.format("unknown setting %s.%s", path, field));
+            }
+        }
+    }
+
+    static int getInteger(JsonObject config, String field, int defaultValue, int minimum) {
+        Object value = config.getField(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException(String.format("%s must be an integer", field));
+        }
+        if ((Integer) value < minimum) {
+            throw new IllegalArgumentException(String.format("%s must be at least %d", field, minimum));
+        }
+
+        return (Integer) value;
+    }
+
+    private static boolean getBoolean(JsonObject config, String field, boolean defaultValue) {
+        Object value = config.getField(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException(String.format("%s must be true or false", field));
+        }
+
+        return (Boolean) value;
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Registry of the {@link BodyConverter}s and the conversion plans of the destinations.
+ *
+ * The registry knows the built-in converters text, map, binary, object and stream, the
+ * converters found with the ServiceLoader and the ones registered by hand. A converter is
+ * selected in the following order.
+ *
+ * . The converter named by the body-type field of the Json message.
+ * . The converter configured for the destination.
+ * . The converter selected for the previous message of the destination, if it can convert the
+ *   body / message.
+ * . The first converter that can convert the body / message. The selection is remembered for
+ *   the destination.
+ *
+ * So the type of the body is only checked once for every message instead of walking through
+ * all known types.
+ *
+ * ObjectMessages are never selected by their type, because reading them deserializes any class
+ * the sender choose. The object converter must be configured for the destination or named by the
+ * body-type field of the message to send.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ConverterRegistry {
+
+    private final Map<String, BodyConverter> convertersByName = new ConcurrentHashMap<>();
+    private final List<BodyConverter> selectableConverters = new CopyOnWriteArrayList<>();
+    private final Map<String, BodyConverter> destinationConverters = new HashMap<>();
+
+    private final ConcurrentMap<String, BodyConverter> outboundPlans = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BodyConverter> inboundPlans = new ConcurrentHashMap<>();
+
+    /**
+     * Create a registry with the built-in converters and no configured destinations.
+     */
+    public ConverterRegistry() {
+        this(new JsonObject());
+    }
+
+    /**
+     * Create a registry with the built-in converters and the converters for the destinations.
+     *
+     * @param destinationConfig Json structure with the names of destinations as field names and
+     *          the names of the converters as values
+     */
+    public ConverterRegistry(JsonObject destinationConfig) {
+        register(new ObjectBodyConverter(), false);
+        register(new BytesBodyConverter(), true);
+        register(new StreamBodyConverter(), true);
+        register(new MapBodyConverter(), true);
+        register(new TextBodyConverter(), true);
+        for (BodyConverter converter : ServiceLoader.load(BodyConverter.class)) {
+            register(converter, true);
+        }
+
+        for (String destination : destinationConfig.getFieldNames()) {
+            String converterName = destinationConfig.getString(destination);
+            BodyConverter converter = convertersByName.get(converterName);
+            if (converter == null) {
+                String errorMessage = String.format("unknown converter %s configured for destination %s",
+                        converterName, destination);
+                throw new IllegalArgumentException(errorMessage);
+            }
+
+            destinationConverters.put(destination, converter);
+        }
+    }
+
+    /**
+     * Register a converter. A converter with the same name is replaced. Converters registered
+     * later are tried first when selecting by the type of the body / message.
+     *
+     * @param converter converter to register
+     * @param selectable true if the converter may be selected by the type of the body / message
+     */
+    public void register(BodyConverter converter, boolean selectable) {
+        BodyConverter replaced = convertersByName.put(converter.getName(), converter);
+        if (replaced != null) {
+            selectableConverters.remove(replaced);
+        }
+        if (selectable) {
+            selectableConverters.add(0, converter);
+        }
+
+        outboundPlans.clear();
+        inboundPlans.clear();
+    }
+
+    /**
+     * Return the converter with the given name.
+     *
+     * @param name name of the converter
+     * @return converter or null if there is no converter with the name
+     */
+    public BodyConverter getConverter(String name) {
+        return convertersByName.get(name);
+    }
+
+    /**
+     * Select the converter for a Json message to send to the given destination.
+     *
+     * @param destination name of the destination, null if unknown
+     * @param source Json message with the body
+     * @return converter for the body
+     * @throws JMSException if there is no converter for the body
+     */
+    public BodyConverter selectForJson(String destination, JsonObject source) throws JMSException {
+        String bodyType = source.getString(ActiveMqFieldName.BODY_TYPE.toString());
+        if (bodyType != null) {
+            BodyConverter converter = convertersByName.get(bodyType);
+            if (converter == null) {
+                throw new JMSException(String.format("unknown body-type %s", bodyType));
+            }
+            return converter;
+        }
+
+        BodyConverter configured = destination != null ? destinationConverters.get(destination) : null;
+        if (configured != null) {
+            return configured;
+        }
+
+        Object body = source.getField(ActiveMqFieldName.BODY.toString());
+        BodyConverter planned = destination != null ? outboundPlans.get(destination) : null;
+        if (planned != null && planned.canConvert(body)) {
+            return planned;
+        }
+
+        for (BodyConverter converter : selectableConverters) {
+            if (converter.canConvert(body)) {
+                if (destination != null) {
+                    outboundPlans.put(destination, converter);
+                }
+                return converter;
+            }
+        }
+
+        String className = body != null ? body.getClass().getName() : "null";
+        String errorMessage = String.format(
+                "unkown body content of type %s could not be converted to a JMS Message", className);
+        throw new JMSException(errorMessage);
+    }
+
+    /**
+     * Select the converter for a JMS Message received from the given destination.
+     *
+     * @param destination name of the destination, null if unknown
+     * @param source received JMS Message
+     * @return converter for the message
+     * @throws JMSException if there is no converter for the message
+     */
+    public BodyConverter selectForMessage(String destination, Message source) throws JMSException {
+        BodyConverter configured = destination != null ? destinationConverters.get(destination) : null;
+        if (configured != null && configured.getMessageType().isInstance(source)) {
+            return configured;
+        }
+
+        BodyConverter planned = destination != null ? inboundPlans.get(destination) : null;
+        if (planned != null && planned.getMessageType().isInstance(source)) {
+            return planned;
+        }
+
+        for (BodyConverter converter : selectableConverters) {
+            if (converter.getMessageType().isInstance(source)) {
+                if (destination != null) {
+                    inboundPlans.put(destination, converter);
+                }
+                return converter;
+            }
+        }
+
+        String errorMessage = String.format(
+                "unkown JMS Message type %s could not be converted to a JsonObject", source.getClass().getName());
+        throw new JMSException(errorMessage);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Counters and latency histograms of one destination.
+ *
+ * |===
+ * | metric             | description
+ * |
+ * | sends              | Messages send to the destination.
+ * | send-errors        | Messages that could not be converted or send.
+ * | receives           | Messages received from the destination.
+ * | receive-errors     | Received messages that could not be handed to the subscriber.
+ * | send-latency       | Time of a send including the wait for the session and the conversion.
+ * | send-conversion    | Time to convert the Json message into a JMS Message.
+ * | receive-conversion | Time to convert the JMS Message into a Json message / Buffer.
+ * | dispatch           | Time to hand the received message to the event bus.
+ * |===
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class DestinationMetrics {
+
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private final AtomicLong receives = new AtomicLong();
+    private final AtomicLong receiveErrors = new AtomicLong();
+
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram sendConversion = new LatencyHistogram();
+    private final LatencyHistogram receiveConversion = new LatencyHistogram();
+    private final LatencyHistogram dispatch = new LatencyHistogram();
+
+    public void recordSend(long latency) {
+        sends.incrementAndGet();
+        sendLatency.record(latency);
+    }
+
+    public void recordSendError() {
+        sendErrors.incrementAndGet();
+    }
+
+    public void recordSendConversion(long time) {
+        sendConversion.record(time);
+    }
+
+    public void recordReceive(long conversionTime) {
+        receives.incrementAndGet();
+        receiveConversion.record(conversionTime);
+    }
+
+    public void recordReceiveError() {
+        receiveErrors.incrementAndGet();
+    }
+
+    public void recordDispatch(long time) {
+        dispatch.record(time);
+    }
+
+    public long getSends() {
+        return sends.get();
+    }
+
+    public long getSendErrors() {
+        return sendErrors.get();
+    }
+
+    public long getReceives() {
+        return receives.get();
+    }
+
+    public long getReceiveErrors() {
+        return receiveErrors.get();
+    }
+
+    /**
+     * Return the counters and histograms of the destination.
+     *
+     * @return Json structure with the metrics of the destination
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("sends", sends.get());
+        statistics.putNumber("send-errors", sendErrors.get());
+        statistics.putNumber("receives", receives.get());
+        statistics.putNumber("receive-errors", receiveErrors.get());
+        statistics.putObject("send-latency", sendLatency.getStatistics());
+        statistics.putObject("send-conversion", sendConversion.getStatistics());
+        statistics.putObject("receive-conversion", receiveConversion.getStatistics());
+        statistics.putObject("dispatch", dispatch.getStatistics());
+
+        return statistics;
+    }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.Topic;
+
+import org.apache.activemq.command.ActiveMQTempQueue;
+
+/**
+ * Name of a destination with an optional type prefix.
+ *
+ * Destinations starting with topic:// are topics, destinations starting with queue:// or
+ * without a prefix are queues. Destination options like ?consumer.prefetchSize=10 are part of
+ * the name and passed on to ActiveMQ.
+ *
+ * Temporary queues start with temp-queue://. They are created by the connection of a requester
+ * and referenced by name by the responders, e.g. as reply-to of a received message.
+ *
+ * Topics starting with VirtualTopic. are virtual topics of ActiveMQ. The broker copies every
+ * message of a virtual topic into the queue Consumer.<group>.VirtualTopic.<name> of each
+ * consumer group. The consumers of one group compete for the messages of their queue, also
+ * across the nodes of a cluster.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public final class DestinationName {
+
+    public static final String QUEUE_PREFIX = "queue://";
+    public static final String TOPIC_PREFIX = "topic://";
+    public static final String TEMP_QUEUE_PREFIX = "temp-queue://";
+    public static final String VIRTUAL_TOPIC_PREFIX = "VirtualTopic.";
+    public static final String CONSUMER_QUEUE_PREFIX = "Consumer.";
+
+    private final String name;
+    private final boolean topic;
+    private final boolean temporary;
+
+    private DestinationName(String name, boolean topic, boolean temporary) {
+        this.name = name;
+        this.topic = topic;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Parse the name of a destination.
+     *
+     * @param destination name of the destination with optional prefix
+     * @return parsed name of the destination
+     */
+    public static DestinationName parse(String destination) {
+        if (destination.startsWith(TOPIC_PREFIX)) {
+            return new DestinationName(destination.substring(TOPIC_PREFIX.length()), true, false);
+        }
+        if (destination.startsWith(QUEUE_PREFIX)) {
+            return new DestinationName(destination.substring(QUEUE_PREFIX.length()), false, false);
+        }
+        if (destination.startsWith(TEMP_QUEUE_PREFIX)) {
+            return new DestinationName(destination.substring(TEMP_QUEUE_PREFIX.length()), false, true);
+        }
+
+        return new DestinationName(destination, false, false);
+    }
+
+    /**
+     * Return the name of a JMS Destination with the prefix of its type.
+     *
+     * Queues are returned without prefix.
+     *
+     * @param destination queue, topic or temporary queue
+     * @return name of the destination as accepted by {@link #parse(String)}
+     * @throws JMSException if the name could not be read
+     */
+    public static String format(Destination destination) throws JMSException {
+        if (destination instanceof TemporaryQueue) {
+            return TEMP_QUEUE_PREFIX + ((TemporaryQueue) destination).getQueueName();
+        }
+        if (destination instanceof Topic) {
+            return TOPIC_PREFIX + ((Topic) destination).getTopicName();
+        }
+
+        return ((Queue) destination).getQueueName();
+    }
+
+    /**
+     * Return the name without prefix.
+     *
+     * @return name of the queue / topic
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isTopic() {
+        return topic;
+    }
+
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Return the queue a consumer group receives the messages of this virtual topic from.
+     *
+     * @param group name of the consumer group
+     * @return name of the consumer queue of the group
+     * @throws JMSException if this destination is not a virtual topic
+     */
+    public String toConsumerQueue(String group) throws JMSException {
+        if (!topic || !name.startsWith(VIRTUAL_TOPIC_PREFIX)) {
+            String errorMessage = String.format("consumer groups need a virtual topic starting with %s%s",
+                    TOPIC_PREFIX, VIRTUAL_TOPIC_PREFIX);
+            throw new JMSException(errorMessage);
+        }
+
+        return QUEUE_PREFIX + CONSUMER_QUEUE_PREFIX + group + "." + name;
+    }
+
+    /**
+     * Create the JMS Destination with the given session.
+     *
+     * @param session session to create the destination with
+     * @return queue, topic or temporary queue
+     * @throws JMSException if the destination could not be created
+     */
+    public Destination create(Session session) throws JMSException {
+        if (temporary) {
+            return new ActiveMQTempQueue(name);
+        }
+
+        return topic ? session.createTopic(name) : session.createQueue(name);
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.concurrent.Semaphore;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Credit based flow control for a subscription.
+ *
+ * A subscription has a fixed number of credits. Each message handed to the subscriber takes
+ * one credit, which is returned when the subscriber replied to the message. If all credits are
+ * taken, the dispatch thread of the consumer waits for a returned credit. Together with a
+ * prefetch size of the same number the broker stops sending messages to the consumer until
+ * the subscriber catches up.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class FlowControl {
+
+    private final int limit;
+    private final Semaphore credits;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new flow control with the given number of credits.
+     *
+     * @param limit maximum number of messages in flight to the subscriber
+     */
+    public FlowControl(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The number of credits must be at least 1");
+        }
+
+        this.limit = limit;
+        credits = new Semaphore(limit);
+    }
+
+    /**
+     * Take a credit and wait until one is available.
+     *
+     * @return true if a credit was taken, false if the flow control was closed or the thread was
+     *          interrupted while waiting
+     */
+    public boolean acquire() {
+        try {
+            credits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return !closed;
+    }
+
+    /**
+     * Return a credit.
+     */
+    public void release() {
+        credits.release();
+    }
+
+    /**
+     * Close the flow control and wake up a waiting dispatch thread.
+     */
+    public void close() {
+        closed = true;
+        credits.release(limit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getAvailable() {
+        return Math.min(limit, credits.availablePermits());
+    }
+
+    /**
+     * Append the prefetch size matching the credits to the name of the destination.
+     *
+     * The credits are shared by all consumers of the subscription. So each consumer prefetches
+     * only its share of the credits. Otherwise messages would wait in the prefetch buffer of a
+     * consumer blocked by the flow control, while other consumers are idle.
+     *
+     * @param destination name of the destination / queue, optionally with destination options
+     * @param consumers number of consumers sharing the credits
+     * @return name of the destination with the consumer.prefetchSize option
+     */
+    public String withPrefetch(String destination, int consumers) {
+        String separator = destination.indexOf('?') < 0 ? "?" : "&";
+        int prefetchSize = Math.max(1, (limit + consumers - 1) / consumers);
+
+        return destination + separator + "consumer.prefetchSize=" + prefetchSize;
+    }
+
+    /**
+     * Return the state of the flow control as a Json structure.
+     *
+     * @return Json structure with the limit and the available credits
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("credits", limit);
+        statistics.putNumber("available", getAvailable());
+
+        return statistics;
+    }
+
+}
@@ -0,0 +1,215 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Enumeration;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts the JMS headers and properties of a message from / to fields of the Json message.
+ *
+ * |===
+ * | field          | JMS                | direction
+ * |
+ * | message-id     | JMSMessageID       | receive
+ * | correlation-id | JMSCorrelationID   | send / receive
+ * | reply-to       | JMSReplyTo         | send / receive
+ * | jms-type       | JMSType            | send / receive
+ * | timestamp      | JMSTimestamp       | receive
+ * | priority       | JMSPriority        | send / receive
+ * | expiration     | JMSExpiration      | receive
+ * | time-to-live   | time to live       | send
+ * | persistent     | JMSDeliveryMode    | send / receive
+ * | redelivered    | JMSRedelivered     | receive
+ * | properties     | message properties | send / receive
+ * |===
+ *
+ * The properties are a Json object with String, number and boolean values. Priority, time to
+ * live and delivery mode are parameters of the send and not part of the message, so they are
+ * read by the client when the message is send.
+ *
+ * Properties starting with vertx_ are used by the module itself, e.g. for chunked messages (see
+ * {@link LargeMessageCodec}), and like the JMSX properties of the broker not put into the Json
+ * message.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public final class HeaderConverter {
+
+    /**
+     * Prefix of the properties set by the module itself.
+     */
+    public static final String INTERNAL_PROPERTY_PREFIX = "vertx_";
+
+    private HeaderConverter() {
+    }
+
+    /**
+     * Set the headers and properties of the Json message on the JMS Message.
+     *
+     * @param session session to create the reply-to destination with
+     * @param source Json message with the header fields
+     * @param target JMS Message to set the headers and properties on
+     * @throws JMSException if a header or property could not be set
+     */
+    public static void toMessage(Session session, JsonObject source, Message target) throws JMSException {
+        String correlationId = source.getString(ActiveMqFieldName.CORRELATION_ID.toString());
+        if (correlationId != null) {
+            target.setJMSCorrelationID(correlationId);
+        }
+        String replyTo = source.getString(ActiveMqFieldName.REPLY_TO.toString());
+        if (replyTo != null) {
+            target.setJMSReplyTo(DestinationName.parse(replyTo).create(session));
+        }
+        String type = source.getString(ActiveMqFieldName.TYPE.toString());
+        if (type != null) {
+            target.setJMSType(type);
+        }
+
+        JsonObject properties = source.getObject(ActiveMqFieldName.PROPERTIES.toString());
+        if (properties != null) {
+            for (String name : properties.getFieldNames()) {
+                Object value = properties.getField(name);
+                if (value instanceof Integer) {
+                    target.setIntProperty(name, (Integer) value);
+                }
+                else if (value instanceof Long) {
+                    target.setLongProperty(name, (Long) value);
+                }
+                else if (value instanceof Number) {
+                    target.setDoubleProperty(name, ((Number) value).doubleValue());
+                }
+                else if (value instanceof Boolean) {
+                    target.setBooleanProperty(name, (Boolean) value);
+                }
+                else if (value instanceof String) {
+                    target.setStringProperty(name, (String) value);
+                }
+                else {
+                    throw new JMSException(String.format("property %s must be a String, number or boolean", name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Put the headers and properties of the JMS Message into the Json message.
+     *
+     * Headers without value are left out.
+     *
+     * @param source received JMS Message
+     * @param target Json message to put the header fields into
+     * @throws JMSException if a header or property could not be read
+     */
+    public static void toJson(Message source, JsonObject target) throws JMSException {
+        putIfSet(target, ActiveMqFieldName.MESSAGE_ID, source.getJMSMessageID());
+        putIfSet(target, ActiveMqFieldName.CORRELATION_ID, source.getJMSCorrelationID());
+        if (source.getJMSReplyTo() != null) {
+            target.putString(ActiveMqFieldName.REPLY_TO.toString(), DestinationName.format(source.getJMSReplyTo()));
+        }
+        putIfSet(target, ActiveMqFieldName.TYPE, source.getJMSType());
+        target.putNumber(ActiveMqFieldName.TIMESTAMP.toString(), source.getJMSTimestamp());
+        target.putNumber(ActiveMqFieldName.PRIORITY.toString(), source.getJMSPriority());
+        if (source.getJMSExpiration() != 0) {
+            target.putNumber(ActiveMqFieldName.EXPIRATION.toString(), source.getJMSExpiration());
+        }
+        target.putBoolean(ActiveMqFieldName.PERSISTENT.toString(), source.getJMSDeliveryMode() == DeliveryMode.PERSISTENT);
+        target.putBoolean(ActiveMqFieldName.REDELIVERED.toString(), source.getJMSRedelivered());
+
+        Enumeration<?> names = source.getPropertyNames();
+        if (names.hasMoreElements()) {
+            JsonObject properties = new JsonObject();
+            while (names.hasMoreElements()) {
+                String name = (String) names.nextElement();
+                if (name.startsWith(INTERNAL_PROPERTY_PREFIX) || name.startsWith("JMSX")) {
+                    continue;
+                }
+                Object value = source.getObjectProperty(name);
+                if (value instanceof Number) {
+                    properties.putNumber(name, (Number) value);
+                }
+                else if (value instanceof Boolean) {
+                    properties.putBoolean(name, (Boolean) value);
+                }
+                else if (value != null) {
+                    properties.putString(name, value.toString());
+                }
+            }
+            if (properties.size() > 0) {
+                target.putObject(ActiveMqFieldName.PROPERTIES.toString(), properties);
+            }
+        }
+    }
+
+    /**
+     * Return the delivery mode to send the Json message with.
+     *
+     * @param source Json message with the optional field persistent
+     * @param defaultMode delivery mode if the field is not set
+     * @return PERSISTENT or NON_PERSISTENT
+     */
+    public static int getDeliveryMode(JsonObject source, int defaultMode) {
+        Boolean persistent = source.getBoolean(ActiveMqFieldName.PERSISTENT.toString());
+        if (persistent == null) {
+            return defaultMode;
+        }
+
+        return persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT;
+    }
+
+    /**
+     * Return the priority to send the Json message with.
+     *
+     * @param source Json message with the optional field priority
+     * @param defaultPriority priority if the field is not set
+     * @return priority between 0 and 9
+     * @throws JMSException if the priority is out of range
+     */
+    public static int getPriority(JsonObject source, int defaultPriority) throws JMSException {
+        int priority = source.getInteger(ActiveMqFieldName.PRIORITY.toString(), defaultPriority);
+        if (priority < 0 || priority > 9) {
+            throw new JMSException("priority must be between 0 and 9");
+        }
+
+        return priority;
+    }
+
+    /**
+     * Return the time to live to send the Json message with.
+     *
+     * @param source Json message with the optional field time-to-live
+     * @param defaultTimeToLive time to live if the field is not set
+     * @return time to live in milliseconds, 0 for unlimited
+     */
+    public static long getTimeToLive(JsonObject source, long defaultTimeToLive) {
+        return source.getLong(ActiveMqFieldName.TIME_TO_LIVE.toString(), defaultTimeToLive);
+    }
+
+    private static void putIfSet(JsonObject target, ActiveMqFieldName field, String value) {
+        if (value != null) {
+            target.putString(field.toString(), value);
+        }
+    }
+
+}
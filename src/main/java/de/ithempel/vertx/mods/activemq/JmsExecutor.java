@@ -0,0 +1,242 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Executor for the blocking JMS calls of the module.
+ *
+ * The executor consists of a number of lanes. Each lane is a single thread with a bounded
+ * queue. Tasks with the same key, e.g. the name of a destination, always run on the same lane.
+ * So the order of messages to one destination is kept while different destinations are handled
+ * in parallel.
+ *
+ * The result of a task is handed back to the Vert.x context that submitted the task. If the queue
+ * of a lane is full, the task is rejected and the result handler is called with the failure at
+ * once. With 0 lanes the tasks are executed directly on the calling thread.
+ *
+ * An {@link AsyncTask} only starts a call on the lane, e.g. an asynchronous send to the broker,
+ * and completes later on another thread. The lane is free for the next task as soon as the call
+ * has been started.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class JmsExecutor {
+
+    private final Vertx vertx;
+    private final Logger logger;
+    private final ThreadPoolExecutor[] lanes;
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * Create a new executor.
+     *
+     * @param vertx Vert.x instance to get the calling context from
+     * @param logger logger to report rejected tasks
+     * @param laneCount number of threads, 0 to run the tasks on the calling thread
+     * @param queueSize maximum number of waiting tasks per lane
+     */
+    public JmsExecutor(Vertx vertx, Logger logger, int laneCount, int queueSize) {
+        if (laneCount < 0) {
+            throw new IllegalArgumentException("The number of threads must not be negative");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("The queue size must be at least 1");
+        }
+
+        this.vertx = vertx;
+        this.logger = logger;
+
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            final String threadName = "vertx-activemq-io-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, threadName);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Execute the task on the lane of the given key.
+     *
+     * @param key key to select the lane, tasks without key are distributed round robin
+     * @param task blocking task to execute
+     * @param resultHandler handler called on the calling context with the result of the task
+     */
+    public <T> void execute(String key, final Callable<T> task, final Handler<AsyncResult<T>> resultHandler) {
+        if (lanes.length == 0) {
+            resultHandler.handle(call(task));
+            return;
+        }
+
+        int laneIndex = key != null ? key.hashCode() : nextLane.getAndIncrement();
+        ThreadPoolExecutor lane = lanes[(laneIndex & Integer.MAX_VALUE) % lanes.length];
+
+        final Context context = vertx.currentContext();
+        try {
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final AsyncResult<T> result = call(task);
+                    context.runOnContext(new Handler<Void>() {
+                        @Override
+                        public void handle(Void event) {
+                            resultHandler.handle(result);
+                        }
+                    });
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            logger.error("Blocking JMS task rejected, the queue of the executor is full");
+
+            resultHandler.handle(new DefaultFutureResult<T>(e));
+        }
+    }
+
+    /**
+     * Start the asynchronous task on the lane of the given key.
+     *
+     * The result handler is called on the calling context when the task completes. If the task
+     * throws an exception while it is started, the result handler is called with this failure.
+     *
+     * @param key key to select the lane, tasks without key are distributed round robin
+     * @param task task starting an asynchronous call
+     * @param resultHandler handler called on the calling context with the result of the task
+     */
+    public <T> void executeAsync(String key, final AsyncTask<T> task, final Handler<AsyncResult<T>> resultHandler) {
+        final Context context = vertx.currentContext();
+        final Handler<AsyncResult<T>> completionHandler = new Handler<AsyncResult<T>>() {
+            @Override
+            public void handle(final AsyncResult<T> result) {
+                context.runOnContext(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        resultHandler.handle(result);
+                    }
+                });
+            }
+        };
+
+        execute(key, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                task.start(completionHandler);
+                return null;
+            }
+        }, new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                if (result.failed()) {
+                    resultHandler.handle(new DefaultFutureResult<T>(result.cause()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop all lanes and wait for the queued tasks to finish.
+     *
+     * @param timeout maximum time in milliseconds to wait for each lane
+     */
+    public void shutdown(long timeout) {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the metrics of the executor.
+     *
+     * @return Json structure with the number of threads, queued and rejected tasks
+     */
+    public JsonObject getStatistics() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            queued += lane.getQueue().size();
+        }
+
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("threads", lanes.length);
+        statistics.putNumber("queued", queued);
+        statistics.putNumber("rejected", rejected.get());
+
+        return statistics;
+    }
+
+    private <T> AsyncResult<T> call(Callable<T> task) {
+        try {
+            return new DefaultFutureResult<>(task.call());
+        }
+        catch (Exception e) {
+            return new DefaultFutureResult<>(e);
+        }
+    }
+
+    /**
+     * Task that starts an asynchronous call and reports its result to a completion handler.
+     *
+     * @param <T> type of the result
+     */
+    public interface AsyncTask<T> {
+
+        /**
+         * Start the call.
+         *
+         * @param completionHandler handler to call once with the result, may be called from any
+         *          thread
+         * @throws Exception if the call could not be started
+         */
+        void start(Handler<AsyncResult<T>> completionHandler) throws Exception;
+
+    }
+
+}
@@ -0,0 +1,361 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.util.ByteSequence;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Compression and chunking of large text and binary bodies.
+ *
+ * Bodies with at least compression-threshold bytes are compressed with the configured codec and
+ * send as BytesMessage. Bodies with more than chunk-size bytes are split into a series of
+ * BytesMessages with at most chunk-size bytes of the body each. Every chunk is compressed on its
+ * own, so it can be decompressed without the other chunks. Text bodies are split at the
+ * boundaries of UTF-8 characters, so every chunk of a text is a valid text too.
+ *
+ * The chunks of a body form a message group of ActiveMQ. The broker delivers them in order to
+ * the same consumer, even if several consumers receive from the queue. The type of the body,
+ * the codec and the position of a chunk are stored in properties with the prefix vertx_. The
+ * receiving module reassembles the chunks with a {@link ChunkAssembler} or hands them to the
+ * subscriber one by one.
+ *
+ * |===
+ * | field                 | default  | description
+ * |
+ * | compression           |          | Codec to compress large bodies with: deflate or gzip. Nothing is compressed if not set.
+ * | compression-threshold | 65536    | Size in bytes from which on a body is compressed.
+ * | chunk-size            | 0        | Maximum number of bytes of a body in one message, 0 to never split a body.
+ * | max-reassembled-size  | 67108864 | Maximum number of bytes of all incomplete bodies of a consumer.
+ * | chunk-timeout         | 60000    | Milliseconds after which an incomplete body is discarded.
+ * |===
+ *
+ * The limits of the receiving side apply to every received message, even if the sender is
+ * configured differently. The codec is thread safe.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class LargeMessageCodec {
+
+    public static final String DEFLATE = "deflate";
+    public static final String GZIP = "gzip";
+
+    static final String BODY_TYPE_PROPERTY = HeaderConverter.INTERNAL_PROPERTY_PREFIX + "body_type";
+    static final String COMPRESSION_PROPERTY = HeaderConverter.INTERNAL_PROPERTY_PREFIX + "compression";
+    static final String CHUNK_ID_PROPERTY = HeaderConverter.INTERNAL_PROPERTY_PREFIX + "chunk_id";
+    static final String CHUNK_INDEX_PROPERTY = HeaderConverter.INTERNAL_PROPERTY_PREFIX + "chunk_index";
+    static final String CHUNK_COUNT_PROPERTY = HeaderConverter.INTERNAL_PROPERTY_PREFIX + "chunk_count";
+
+    private final String compression;
+    private final int compressionThreshold;
+    private final int chunkSize;
+    private final long maxReassembledSize;
+    private final long chunkTimeout;
+
+    private final long minimumEncodedSize;
+
+    /**
+     * Create a codec that neither compresses nor splits bodies, but decodes received ones.
+     */
+    public LargeMessageCodec() {
+        this(new JsonObject());
+    }
+
+    /**
+     * Create a codec with the given settings.
+     *
+     * @param config Json structure with the settings described above
+     */
+    public LargeMessageCodec(JsonObject config) {
+        compression = config.getString("compression");
+        compressionThreshold = config.getInteger("compression-threshold", 65536);
+        chunkSize = config.getInteger("chunk-size", 0);
+        maxReassembledSize = config.getLong("max-reassembled-size", 67108864);
+        chunkTimeout = config.getLong("chunk-timeout", 60000);
+
+        if (compression != null && !DEFLATE.equals(compression) && !GZIP.equals(compression)) {
+            throw new IllegalArgumentException(String.format("unknown compression %s", compression));
+        }
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compression-threshold must not be negative");
+        }
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("chunk-size must not be negative");
+        }
+        if (maxReassembledSize < 1 || maxReassembledSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("max-reassembled-size must be between 1 and 2147483647");
+        }
+        if (chunkTimeout < 1) {
+            throw new IllegalArgumentException("chunk-timeout must be at least 1");
+        }
+
+        long minimum = Long.MAX_VALUE;
+        if (compression != null) {
+            minimum = compressionThreshold;
+        }
+        if (chunkSize > 0) {
+            minimum = Math.min(minimum, chunkSize + 1L);
+        }
+        minimumEncodedSize = minimum;
+    }
+
+    public long getMaxReassembledSize() {
+        return maxReassembledSize;
+    }
+
+    public long getChunkTimeout() {
+        return chunkTimeout;
+    }
+
+    /**
+     * Encode a text body, if it is large enough to be compressed or split.
+     *
+     * @param session session to create the messages with
+     * @param text body of the message
+     * @return compressed message or chunks of the body, null if the body is send as TextMessage
+     * @throws JMSException if the messages could not be created
+     */
+    public List<BytesMessage> encode(Session session, String text) throws JMSException {
+        // a character takes at most 3 bytes, so short texts are not encoded to UTF-8 for nothing
+        if (text.length() * 3L < minimumEncodedSize) {
+            return null;
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return encode(session, TextBodyConverter.NAME, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encode a body, if it is large enough to be compressed or split.
+     *
+     * @param session session to create the messages with
+     * @param bodyType text for UTF-8 encoded text, binary for binary content
+     * @param bytes array with the body
+     * @param offset position of the first byte of the body
+     * @param length number of bytes of the body
+     * @return compressed message or chunks of the body, null if the body is send unchanged
+     * @throws JMSException if the messages could not be created
+     */
+    public List<BytesMessage> encode(Session session, String bodyType, byte[] bytes, int offset, int length)
+            throws JMSException {
+        if (length < minimumEncodedSize) {
+            return null;
+        }
+
+        boolean compressed = compression != null && length >= compressionThreshold;
+        List<BytesMessage> messages = new ArrayList<>();
+        if (chunkSize == 0 || length <= chunkSize) {
+            messages.add(createMessage(session, bodyType, compressed, bytes, offset, length, null, 0, 1));
+            return messages;
+        }
+
+        boolean text = TextBodyConverter.NAME.equals(bodyType);
+        List<Integer> boundaries = new ArrayList<>();
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            int next = (int) Math.min((long) position + chunkSize, end);
+            if (text && next < end) {
+                int characterStart = next;
+                while (characterStart > position && (bytes[characterStart] & 0xC0) == 0x80) {
+                    characterStart--;
+                }
+                if (characterStart > position) {
+                    next = characterStart;
+                }
+            }
+            boundaries.add(next);
+            position = next;
+        }
+
+        String chunkId = UUID.randomUUID().toString();
+        int count = boundaries.size();
+        position = offset;
+        for (int index = 0; index < count; index++) {
+            int next = boundaries.get(index);
+            messages.add(createMessage(session, bodyType, compressed, bytes, position, next - position,
+                    chunkId, index, count));
+            position = next;
+        }
+
+        return messages;
+    }
+
+    /**
+     * Return the content of a compressed message or chunk.
+     *
+     * @param message message created by {@link #encode(Session, String, byte[], int, int)}
+     * @return content of the message, decompressed if needed
+     * @throws JMSException if the content could not be read or is larger than the
+     *          max-reassembled-size
+     */
+    public ByteSequence decode(BytesMessage message) throws JMSException {
+        ByteSequence content = BytesBodyConverter.readContent(message);
+        String codec = message.getStringProperty(COMPRESSION_PROPERTY);
+        if (codec == null) {
+            return content;
+        }
+
+        try (InputStream input = decompress(codec,
+                new ByteArrayInputStream(content.data, content.offset, content.length))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(content.length * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                if (output.size() + (long) read > maxReassembledSize) {
+                    throw new JMSException("decompressed body exceeds max-reassembled-size");
+                }
+                output.write(buffer, 0, read);
+            }
+
+            return new ByteSequence(output.toByteArray());
+        }
+        catch (IOException e) {
+            JMSException exception = new JMSException("body could not be decompressed");
+            exception.setLinkedException(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * Check if the message was created by {@link #encode(Session, String, byte[], int, int)}.
+     *
+     * @param message received message
+     * @return true if the message is compressed or a chunk
+     * @throws JMSException if the properties could not be read
+     */
+    public static boolean isEncoded(Message message) throws JMSException {
+        return message instanceof BytesMessage && message.propertyExists(BODY_TYPE_PROPERTY);
+    }
+
+    /**
+     * Check if the message is a chunk of a body.
+     *
+     * @param message received message
+     * @return true if the message is a chunk
+     * @throws JMSException if the properties could not be read
+     */
+    public static boolean isChunk(Message message) throws JMSException {
+        return message instanceof BytesMessage && message.propertyExists(CHUNK_ID_PROPERTY);
+    }
+
+    /**
+     * Return the type of the encoded body.
+     *
+     * @param message message created by {@link #encode(Session, String, byte[], int, int)}
+     * @return text or binary
+     * @throws JMSException if the properties could not be read
+     */
+    public static String getBodyType(Message message) throws JMSException {
+        return message.getStringProperty(BODY_TYPE_PROPERTY);
+    }
+
+    /**
+     * Put the content of an encoded message into the body field of the Json message.
+     *
+     * @param bodyType text or binary
+     * @param content content of the message
+     * @param target Json message to put the body into
+     */
+    public static void putBody(String bodyType, ByteSequence content, JsonObject target) {
+        if (TextBodyConverter.NAME.equals(bodyType)) {
+            target.putString(ActiveMqFieldName.BODY.toString(),
+                    new String(content.data, content.offset, content.length, StandardCharsets.UTF_8));
+            return;
+        }
+
+        byte[] bytes = content.data;
+        if (content.offset != 0 || content.length != bytes.length) {
+            bytes = Arrays.copyOfRange(content.data, content.offset, content.offset + content.length);
+        }
+        target.putBinary(ActiveMqFieldName.BODY.toString(), bytes);
+        target.putString(ActiveMqFieldName.BODY_TYPE.toString(), BytesBodyConverter.NAME);
+    }
+
+    private BytesMessage createMessage(Session session, String bodyType, boolean compressed,
+            byte[] bytes, int offset, int length, String chunkId, int index, int count) throws JMSException {
+        BytesMessage message = session.createBytesMessage();
+        message.setStringProperty(BODY_TYPE_PROPERTY, bodyType);
+        if (chunkId != null) {
+            message.setStringProperty(CHUNK_ID_PROPERTY, chunkId);
+            message.setIntProperty(CHUNK_INDEX_PROPERTY, index);
+            message.setIntProperty(CHUNK_COUNT_PROPERTY, count);
+            message.setStringProperty("JMSXGroupID", chunkId);
+            // a sequence of -1 closes the group, so the broker forgets its consumer
+            message.setIntProperty("JMSXGroupSeq", index == count - 1 ? -1 : index + 1);
+        }
+
+        if (compressed) {
+            byte[] compressedBytes = compress(bytes, offset, length);
+            message.setStringProperty(COMPRESSION_PROPERTY, compression);
+            BytesBodyConverter.setContent(message, compressedBytes, 0, compressedBytes.length);
+        }
+        else {
+            BytesBodyConverter.setContent(message, bytes, offset, length);
+        }
+
+        return message;
+    }
+
+    private byte[] compress(byte[] bytes, int offset, int length) throws JMSException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 4));
+        try (OutputStream compressor = GZIP.equals(compression)
+                ? new GZIPOutputStream(output) : new DeflaterOutputStream(output)) {
+            compressor.write(bytes, offset, length);
+        }
+        catch (IOException e) {
+            JMSException exception = new JMSException("body could not be compressed");
+            exception.setLinkedException(e);
+            throw exception;
+        }
+
+        return output.toByteArray();
+    }
+
+    private static InputStream decompress(String codec, InputStream input) throws IOException {
+        if (GZIP.equals(codec)) {
+            return new GZIPInputStream(input);
+        }
+        if (DEFLATE.equals(codec)) {
+            return new InflaterInputStream(input);
+        }
+
+        throw new IOException(String.format("unknown compression %s", codec));
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets.
+ *
+ * Every power of two is divided into eight buckets of the same width, so a recorded value is
+ * at most 12.5 percent off the bucket it is counted in. The histogram has a fixed size and
+ * recording a value is lock free, so it can be updated by the dispatch and I/O threads without
+ * allocating memory.
+ *
+ * The percentiles are reported as the upper bound of the bucket containing the percentile.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos latency in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Return the value below or equal to which the given percentage of the recorded latencies are.
+     *
+     * @param percentile percentage between 0 and 100
+     * @return upper bound of the bucket containing the percentile in nanoseconds, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += buckets.get(index);
+            if (seen >= rank) {
+                return Math.min(upperBound(index), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Return the count, mean, maximum and percentiles in microseconds as Json structure.
+     *
+     * @return Json structure with the statistics of the histogram
+     */
+    public JsonObject getStatistics() {
+        long recorded = count.get();
+
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("count", recorded);
+        statistics.putNumber("mean-micros", recorded == 0 ? 0 : total.get() / 1000.0 / recorded);
+        statistics.putNumber("max-micros", max.get() / 1000.0);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            statistics.putNumber(PERCENTILE_NAMES[i] + "-micros", getPercentile(PERCENTILES[i]) / 1000.0);
+        }
+
+        return statistics;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+
+}
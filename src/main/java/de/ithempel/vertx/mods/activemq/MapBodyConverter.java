@@ -0,0 +1,116 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts a JsonObject body into a MapMessage and back.
+ *
+ * The fields of the JsonObject are written directly into the MapMessage. Only nested objects
+ * and arrays are converted into a Map or List, which ActiveMQ accepts as values of a MapMessage.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class MapBodyConverter implements BodyConverter {
+
+    public static final String NAME = "map";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageType() {
+        return MapMessage.class;
+    }
+
+    @Override
+    public boolean canConvert(Object body) {
+        return body instanceof JsonObject;
+    }
+
+    @Override
+    public Message toMessage(Session session, JsonObject source) throws JMSException {
+        JsonObject jsonContent = source.getObject(ActiveMqFieldName.BODY.toString());
+
+        MapMessage mapMessage = session.createMapMessage();
+        for (String fieldName : jsonContent.getFieldNames()) {
+            Object value = jsonContent.getField(fieldName);
+            if (value instanceof JsonObject) {
+                value = ((JsonObject) value).toMap();
+            }
+            else if (value instanceof JsonArray) {
+                value = ((JsonArray) value).toList();
+            }
+
+            mapMessage.setObject(fieldName, value);
+        }
+
+        return mapMessage;
+    }
+
+    @Override
+    public void toJson(Message source, JsonObject target) throws JMSException {
+        MapMessage mapMessage = (MapMessage) source;
+
+        JsonObject bodyContent = new JsonObject();
+        Enumeration<?> mapNames = mapMessage.getMapNames();
+        while (mapNames.hasMoreElements()) {
+            String fieldName = (String) mapNames.nextElement();
+
+            bodyContent.putValue(fieldName, mapMessage.getObject(fieldName));
+        }
+
+        target.putObject(ActiveMqFieldName.BODY.toString(), bodyContent);
+    }
+
+    /**
+     * Convert only the given entries of the MapMessage into the body field.
+     *
+     * The names of the other entries are not enumerated and their values are not converted.
+     * Entries missing in the message are left out.
+     *
+     * @param source MapMessage to read the entries from
+     * @param target Json message to put the body field into
+     * @param fieldNames names of the entries to convert
+     * @throws JMSException if an entry could not be read
+     */
+    public static void toJson(MapMessage source, JsonObject target, List<String> fieldNames) throws JMSException {
+        JsonObject bodyContent = new JsonObject();
+        for (String fieldName : fieldNames) {
+            Object value = source.getObject(fieldName);
+            if (value != null) {
+                bodyContent.putValue(fieldName, value);
+            }
+        }
+
+        target.putObject(ActiveMqFieldName.BODY.toString(), bodyContent);
+    }
+
+}
@@ -17,112 +17,300 @@
  */
 package de.ithempel.vertx.mods.activemq;
 
-import java.util.Enumeration;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.Session;
-import javax.jms.TextMessage;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.activemq.util.ByteSequence;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.json.JsonObject;
-import org.vertx.java.core.logging.Logger;
 
 /**
  * The MessageConverter is used to convert JsonObject instances from Vert.x into JMS Messages
  * and the other way round.
  *
- * TODO:
- *  * Find a way to convert the imortant header values from / to JsonObject
+ * |===
+ * | body                               | JMS Message
+ * |
+ * | String                             | TextMessage
+ * | JsonObject                         | MapMessage
+ * | JsonArray                          | StreamMessage
+ * | binary (body-type binary)          | BytesMessage
+ * | any (body-type object)             | ObjectMessage
+ * |===
+ *
+ * The conversion of the body is done by the {@link BodyConverter} selected by the
+ * {@link ConverterRegistry}. If the name of the destination is given, the selection is cached
+ * for the destination.
+ *
+ * The headers and properties of the JMS Message are mapped to fields of the Json message by the
+ * {@link HeaderConverter}. Received messages can be converted without the headers or with only
+ * some entries of a MapMessage.
+ *
+ * Large text and binary bodies are compressed and split into chunks by the
+ * {@link LargeMessageCodec}, if the codec is configured. Received chunks are reassembled by the
+ * {@link ChunkAssembler} of the converter, so a converter must only be used for one consumer.
+ *
+ * Messages that can't be converted are reported with a JMSException, so the caller decides
+ * whether the message is rejected, redelivered or moved to a dead-letter queue.
+ *
+ * Binary content can't be stored in a JsonObject without encoding it in Base64. So there are
+ * conversions between BytesMessages and Buffers too. They hand the content to / from ActiveMQ
+ * without copying it, if the session creates ActiveMQ messages and the message is not compressed.
  *
  * @author https://github.com/ithempel[Sebastian Hempel]
  */
 public class MessageConverter {
 
     private final Session session;
-    private final Logger logger;
+    private final ConverterRegistry registry;
+    private final LargeMessageCodec codec;
+    private final ChunkAssembler assembler;
+
+    public MessageConverter(Session session) {
+        this(session, new ConverterRegistry());
+    }
 
-    public MessageConverter(Session session, Logger logger) {
+    public MessageConverter(Session session, ConverterRegistry registry) {
+        this(session, registry, new LargeMessageCodec());
+    }
+
+    public MessageConverter(Session session, ConverterRegistry registry, LargeMessageCodec codec) {
         this.session = session;
-        this.logger = logger;
+        this.registry = registry;
+        this.codec = codec;
+
+        assembler = new ChunkAssembler(codec);
     }
 
-    public Message convertToJmsMessage(JsonObject source) {
-        Message message = null;
+    public Message convertToJmsMessage(JsonObject source) throws JMSException {
+        return convertToJmsMessage(null, source);
+    }
 
-        try {
-            Object bodyContent = source.getField(ActiveMqFieldName.BODY.toString());
-            if (bodyContent instanceof String) {
-                String textContent = (String) bodyContent;
+    /**
+     * Convert the Json message to send to the given destination into a JMS Message.
+     *
+     * @param destination name of the destination / queue, null if unknown
+     * @param source Json message with the body
+     * @return JMS Message
+     * @throws JMSException if the message could not be converted, e.g. because of an unknown
+     *          body type
+     */
+    public Message convertToJmsMessage(String destination, JsonObject source) throws JMSException {
+        BodyConverter converter = registry.selectForJson(destination, source);
+        Message message = converter.toMessage(session, source);
+        HeaderConverter.toMessage(session, source, message);
 
-                TextMessage textMessage = session.createTextMessage();
-                textMessage.setText(textContent);
+        return message;
+    }
 
-                message = textMessage;
-            }
-            else if (bodyContent instanceof JsonObject) {
-                JsonObject jsonContent = (JsonObject) bodyContent;
-                Map<String, Object> mapContent = jsonContent.toMap();
+    /**
+     * Convert the Json message to send to the given destination into JMS Messages.
+     *
+     * Large text and binary bodies are compressed or split into chunks by the
+     * {@link LargeMessageCodec}. The headers are set on every message.
+     *
+     * @param destination name of the destination / queue, null if unknown
+     * @param source Json message with the body
+     * @return JMS Messages to send in order
+     * @throws JMSException if the message could not be converted, e.g. because of an unknown
+     *          body type
+     */
+    public List<Message> convertToJmsMessages(String destination, JsonObject source) throws JMSException {
+        BodyConverter converter = registry.selectForJson(destination, source);
+        List<BytesMessage> encoded = null;
+        if (converter instanceof TextBodyConverter) {
+            encoded = codec.encode(session, source.getString(ActiveMqFieldName.BODY.toString()));
+        }
+        else if (converter instanceof BytesBodyConverter) {
+            byte[] bytes = source.getBinary(ActiveMqFieldName.BODY.toString());
+            encoded = codec.encode(session, BytesBodyConverter.NAME, bytes, 0, bytes.length);
+        }
 
-                MapMessage mapMessage = session.createMapMessage();
-                for (Entry<String, Object> entry : mapContent.entrySet()) {
-                    mapMessage.setObject(entry.getKey(), entry.getValue());
-                }
+        List<Message> messages = new ArrayList<>();
+        if (encoded != null) {
+            messages.addAll(encoded);
+        }
+        else {
+            messages.add(converter.toMessage(session, source));
+        }
 
-                message = mapMessage;
-            }
-            else {
-                String className = bodyContent.getClass().getName();
-                String errorMessage = String.format(
-                        "unkown body content of type %s could not be converted to a JMS Message", className);
-                logger.error(errorMessage);
+        for (Message message : messages) {
+            HeaderConverter.toMessage(session, source, message);
+        }
+        return messages;
+    }
+
+    public JsonObject convertToJsonObject(Message source) throws JMSException {
+        return convertToJsonObject(null, source);
+    }
+
+    /**
+     * Convert the JMS Message received from the given destination into a Json message.
+     *
+     * @param destination name of the destination / queue, null if unknown
+     * @param source received JMS Message
+     * @return Json message with the body, null if the message is a chunk and the body is not
+     *          complete yet
+     * @throws JMSException if the message could not be converted
+     */
+    public JsonObject convertToJsonObject(String destination, Message source) throws JMSException {
+        return convertToJsonObject(destination, source, null, true);
+    }
+
+    /**
+     * Convert the JMS Message received from the given destination into a Json message with only
+     * the given entries and optionally without headers.
+     *
+     * The entries of a MapMessage are read one by one by their names, other entries are not
+     * converted at all. The fields are ignored for all other types of messages.
+     *
+     * @param destination name of the destination / queue, null if unknown
+     * @param source received JMS Message
+     * @param fields names of the entries of a MapMessage to convert, null for all entries
+     * @param headers convert the headers and properties of the message
+     * @return Json message with the body, null if the message is a chunk and the body is not
+     *          complete yet
+     * @throws JMSException if the message could not be converted
+     */
+    public JsonObject convertToJsonObject(String destination, Message source, List<String> fields, boolean headers)
+            throws JMSException {
+        JsonObject json = new JsonObject();
+
+        if (LargeMessageCodec.isEncoded(source)) {
+            ByteSequence content = decode((BytesMessage) source);
+            if (content == null) {
+                return null;
             }
+            LargeMessageCodec.putBody(LargeMessageCodec.getBodyType(source), content, json);
+        }
+        else if (fields != null && source instanceof MapMessage) {
+            MapBodyConverter.toJson((MapMessage) source, json, fields);
         }
-        catch (JMSException e) {
-            String errorMessage = "JMSException while converting JsonObject to JMS Message";
-            logger.error(errorMessage, e);
+        else {
+            registry.selectForMessage(destination, source).toJson(source, json);
         }
 
-        return message;
+        if (headers) {
+            HeaderConverter.toJson(source, json);
+        }
+
+        return json;
     }
 
-    public JsonObject convertToJsonObject(Message source) {
+    /**
+     * Convert a chunk into a Json message with the part of the body in the chunk.
+     *
+     * The Json message contains the id of the chunked body, the index of the chunk and the number
+     * of chunks. The part of a text body is a String, the part of a binary body is binary.
+     *
+     * @param source chunk created by the {@link LargeMessageCodec}
+     * @param headers convert the headers and properties of the message
+     * @return Json message with the part of the body
+     * @throws JMSException if the chunk could not be converted
+     */
+    public JsonObject convertChunkToJsonObject(BytesMessage source, boolean headers) throws JMSException {
         JsonObject json = new JsonObject();
 
-        try {
-            if (source instanceof TextMessage) {
-                TextMessage textMessage = (TextMessage) source;
+        LargeMessageCodec.putBody(LargeMessageCodec.getBodyType(source), codec.decode(source), json);
+        json.putString(ActiveMqFieldName.CHUNK_ID.toString(),
+                source.getStringProperty(LargeMessageCodec.CHUNK_ID_PROPERTY));
+        json.putNumber(ActiveMqFieldName.CHUNK_INDEX.toString(),
+                source.getIntProperty(LargeMessageCodec.CHUNK_INDEX_PROPERTY));
+        json.putNumber(ActiveMqFieldName.CHUNK_COUNT.toString(),
+                source.getIntProperty(LargeMessageCodec.CHUNK_COUNT_PROPERTY));
 
-                json.putString(ActiveMqFieldName.BODY.toString(), textMessage.getText());
-            }
-            else if (source instanceof MapMessage) {
-                MapMessage mapMessage = (MapMessage) source;
+        if (headers) {
+            HeaderConverter.toJson(source, json);
+        }
 
-                JsonObject bodyContent = new JsonObject();
-                Enumeration<String> mapNames = mapMessage.getMapNames();
-                while (mapNames.hasMoreElements()) {
-                    String fieldName = mapNames.nextElement();
+        return json;
+    }
 
-                    bodyContent.putValue(fieldName, mapMessage.getObject(fieldName));
-                }
+    /**
+     * Convert the content of the Buffer starting at the given offset into a BytesMessage.
+     *
+     * @param source buffer with the content of the message
+     * @param offset position of the first byte of the content in the buffer
+     * @return BytesMessage with the content of the buffer
+     * @throws JMSException if the message could not be created
+     */
+    public BytesMessage convertToBytesMessage(Buffer source, int offset) throws JMSException {
+        ByteBuf byteBuf = source.getByteBuf();
+        if (byteBuf.hasArray()) {
+            return BytesBodyConverter.createBytesMessage(session, byteBuf.array(),
+                    byteBuf.arrayOffset() + byteBuf.readerIndex() + offset, byteBuf.readableBytes() - offset);
+        }
 
-                json.putElement(ActiveMqFieldName.BODY.toString(), bodyContent);
-            }
-            else {
-                String messageType = source.getClass().getName();
-                String errorMessage = String.format(
-                        "unkown JMS Message type %s could not be converted to a JsonObject", messageType);
-                logger.error(errorMessage);
-            }
+        byte[] bytes = source.getBytes(offset, source.length());
+        return BytesBodyConverter.createBytesMessage(session, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Convert the content of the Buffer starting at the given offset into BytesMessages.
+     *
+     * Large content is compressed or split into chunks by the {@link LargeMessageCodec}.
+     *
+     * @param source buffer with the content of the message
+     * @param offset position of the first byte of the content in the buffer
+     * @return BytesMessages to send in order
+     * @throws JMSException if the messages could not be created
+     */
+    public List<Message> convertToBytesMessages(Buffer source, int offset) throws JMSException {
+        ByteBuf byteBuf = source.getByteBuf();
+        List<BytesMessage> encoded;
+        if (byteBuf.hasArray()) {
+            encoded = codec.encode(session, BytesBodyConverter.NAME, byteBuf.array(),
+                    byteBuf.arrayOffset() + byteBuf.readerIndex() + offset, byteBuf.readableBytes() - offset);
         }
-        catch (JMSException e) {
-            String errorMessage = "JMSException while converting JMS Message to JsonObject";
-            logger.error(errorMessage, e);
+        else {
+            byte[] bytes = source.getBytes(offset, source.length());
+            encoded = codec.encode(session, BytesBodyConverter.NAME, bytes, 0, bytes.length);
         }
 
-        return json;
+        List<Message> messages = new ArrayList<>();
+        if (encoded != null) {
+            messages.addAll(encoded);
+        }
+        else {
+            messages.add(convertToBytesMessage(source, offset));
+        }
+        return messages;
+    }
+
+    /**
+     * Convert the content of a BytesMessage into a Buffer.
+     *
+     * Compressed content is decompressed and chunks are reassembled.
+     *
+     * @param source BytesMessage to convert
+     * @return Buffer wrapping the content of the message, null if the message is a chunk and the
+     *          content is not complete yet
+     * @throws JMSException if the content could not be read
+     */
+    public Buffer convertToBuffer(BytesMessage source) throws JMSException {
+        ByteSequence content = LargeMessageCodec.isEncoded(source)
+                ? decode(source) : BytesBodyConverter.readContent(source);
+        if (content == null) {
+            return null;
+        }
+
+        return new Buffer(Unpooled.wrappedBuffer(content.data, content.offset, content.length));
+    }
+
+    private ByteSequence decode(BytesMessage source) throws JMSException {
+        if (LargeMessageCodec.isChunk(source)) {
+            return assembler.add(source);
+        }
+
+        return codec.decode(source);
     }
 
 }
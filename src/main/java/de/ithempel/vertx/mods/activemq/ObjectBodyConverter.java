@@ -0,0 +1,103 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts a body into an ObjectMessage and back.
+ *
+ * Objects and arrays are send as serialized Map or List. Strings, numbers and booleans are
+ * send as they are. Received objects of other classes can't be converted into a body.
+ *
+ * The converter is only used for messages with the body-type object or destinations
+ * configured to use it.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ObjectBodyConverter implements BodyConverter {
+
+    public static final String NAME = "object";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageType() {
+        return ObjectMessage.class;
+    }
+
+    @Override
+    public boolean canConvert(Object body) {
+        return body instanceof JsonObject || body instanceof JsonArray || body instanceof String
+                || body instanceof Number || body instanceof Boolean;
+    }
+
+    @Override
+    public Message toMessage(Session session, JsonObject source) throws JMSException {
+        Object body = source.getField(ActiveMqFieldName.BODY.toString());
+        if (body instanceof JsonObject) {
+            body = ((JsonObject) body).toMap();
+        }
+        else if (body instanceof JsonArray) {
+            body = ((JsonArray) body).toList();
+        }
+
+        if (!(body instanceof Serializable)) {
+            throw new JMSException("The body of the message is not serializable");
+        }
+
+        return session.createObjectMessage((Serializable) body);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void toJson(Message source, JsonObject target) throws JMSException {
+        Object object = ((ObjectMessage) source).getObject();
+
+        if (object instanceof Map) {
+            target.putObject(ActiveMqFieldName.BODY.toString(), new JsonObject((Map<String, Object>) object));
+        }
+        else if (object instanceof List) {
+            target.putArray(ActiveMqFieldName.BODY.toString(), new JsonArray((List<Object>) object));
+        }
+        else if (object instanceof String || object instanceof Number || object instanceof Boolean
+                || object == null) {
+            target.putValue(ActiveMqFieldName.BODY.toString(), object);
+        }
+        else {
+            String errorMessage = String.format("object of type %s could not be converted to a body",
+                    object.getClass().getName());
+            throw new JMSException(errorMessage);
+        }
+        target.putString(ActiveMqFieldName.BODY_TYPE.toString(), NAME);
+    }
+
+}
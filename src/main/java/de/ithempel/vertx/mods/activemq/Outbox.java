@@ -0,0 +1,501 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Disk backed storage for the messages of the {@link ReplayBuffer}.
+ *
+ * The outbox is an append only log of memory mapped segment files in a directory. Each message
+ * is written as a record with its length, a CRC32 checksum, the time it was appended, the
+ * destination and the body. A Json message is stored as its encoded text, the content of a
+ * BytesMessage as raw bytes. The records are read in the order they were appended. The read
+ * position is stored in a checkpoint file when a batch of records has been forwarded to the
+ * broker, and segments before this position are deleted.
+ *
+ * When the outbox is opened, existing segments and the checkpoint are recovered. Records after
+ * the first incomplete or corrupt record of a segment are ignored. So messages not forwarded
+ * before the module was stopped are send after the next start.
+ *
+ * The configuration can contain the following fields.
+ *
+ * |===
+ * | field          | default    | description
+ * |
+ * | enabled        | false      | Use the outbox instead of the in-memory replay buffer.
+ * | directory      | outbox     | Directory of the segment files.
+ * | segment-size   | 16777216   | Size of a segment file in bytes.
+ * | max-size       | 1073741824 | Maximum size of all segment files, further messages are rejected.
+ * | fsync          | interval   | Flush the segments to disk after every message (always), at most every fsync-interval milliseconds (interval) or leave it to the operating system (never).
+ * | fsync-interval | 1000       | Milliseconds between two flushes with the interval policy.
+ * | retention      | 0          | Milliseconds after which a message not forwarded is discarded, 0 to keep the messages until they are forwarded.
+ * |===
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class Outbox {
+
+    /**
+     * When the segment files are flushed to disk.
+     */
+    public enum Fsync {
+        ALWAYS, INTERVAL, NEVER
+    }
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int RECORD_FIXED_SIZE = 11;
+    private static final byte TYPE_JSON = 0;
+    private static final byte TYPE_BYTES = 1;
+    private static final int CHECKSUM_BUFFER_SIZE = 8192;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final Fsync fsync;
+    private final long fsyncInterval;
+    private final long retention;
+    private final Logger logger;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] checksumBuffer = new byte[CHECKSUM_BUFFER_SIZE];
+    private MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private long committedSegment;
+    private int committedPosition;
+
+    private long backlog;
+    private long backlogBytes;
+    private long readCount;
+    private long readBytes;
+    private long readExpired;
+    private long lastFlush;
+
+    private long appended;
+    private long drained;
+    private long expired;
+    private long rejected;
+    private long corrupt;
+
+    /**
+     * Create a new outbox with the given configuration.
+     *
+     * @param config Json structure with the settings of the outbox
+     * @param logger logger to report recovered and corrupt segments
+     */
+    public Outbox(JsonObject config, Logger logger) {
+        directory = new File(config.getString("directory", "outbox"));
+        segmentSize = config.getInteger("segment-size", 16 * 1024 * 1024);
+        maxSize = config.getLong("max-size", 1024L * 1024 * 1024);
+        fsyncInterval = config.getLong("fsync-interval", 1000);
+        retention = config.getLong("retention", 0);
+        this.logger = logger;
+
+        try {
+            fsync = Fsync.valueOf(config.getString("fsync", "interval").toUpperCase(Locale.ENGLISH));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("fsync of the outbox must be always, interval or never");
+        }
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segment-size of the outbox must be at least 1024 bytes");
+        }
+        if (maxSize < segmentSize) {
+            throw new IllegalArgumentException("max-size of the outbox must be at least the segment-size");
+        }
+        if (retention < 0) {
+            throw new IllegalArgumentException("retention of the outbox must not be negative");
+        }
+    }
+
+    /**
+     * Open the outbox and recover the segments and the checkpoint of a previous run.
+     *
+     * @throws IOException if the directory, a segment or the checkpoint could not be opened
+     */
+    public synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Cannot create directory %s of the outbox", directory));
+        }
+
+        checkpoint = map(new File(directory, CHECKPOINT_FILE), 12);
+        committedSegment = checkpoint.getLong(0);
+        committedPosition = checkpoint.getInt(8);
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            long sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            if (sequence < committedSegment) {
+                delete(file);
+            }
+            else {
+                segments.put(sequence, map(file, segmentSize));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            committedSegment = Math.max(committedSegment, 1);
+            committedPosition = 0;
+            segments.put(committedSegment, map(segmentFile(committedSegment), segmentSize));
+        }
+        else if (segments.firstKey() > committedSegment) {
+            committedSegment = segments.firstKey();
+            committedPosition = 0;
+        }
+        readSegment = committedSegment;
+        readPosition = committedPosition;
+
+        recover();
+        writeCheckpoint();
+
+        if (backlog > 0) {
+            String infoMessage = String.format("Recovered %d messages from the outbox in %s", backlog, directory);
+            logger.info(infoMessage);
+        }
+    }
+
+    /**
+     * Flush the segments to disk and release them.
+     */
+    public synchronized void close() {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        segments.clear();
+        if (checkpoint != null) {
+            checkpoint.force();
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * Append a message at the end of the log.
+     *
+     * @param destination name of the destination / queue
+     * @param payload JsonObject with the message or Buffer with the content of a BytesMessage
+     * @param offset position of the content in a Buffer payload
+     * @return true if appended, false if the maximum size of the outbox is reached
+     * @throws IOException if a new segment could not be created
+     */
+    public synchronized boolean append(String destination, Object payload, int offset) throws IOException {
+        byte[] destinationBytes = destination.getBytes(StandardCharsets.UTF_8);
+        byte type;
+        byte[] body;
+        if (payload instanceof Buffer) {
+            type = TYPE_BYTES;
+            Buffer content = (Buffer) payload;
+            body = content.getBytes(offset, content.length());
+        }
+        else {
+            type = TYPE_JSON;
+            body = ((JsonObject) payload).encode().getBytes(StandardCharsets.UTF_8);
+        }
+
+        int length = RECORD_FIXED_SIZE + destinationBytes.length + body.length;
+        if (RECORD_HEADER_SIZE + length > segmentSize) {
+            rejected++;
+            return false;
+        }
+
+        if (writePosition + RECORD_HEADER_SIZE + length > segmentSize) {
+            if ((long) (segments.size() + 1) * segmentSize > maxSize) {
+                rejected++;
+                return false;
+            }
+
+            if (fsync != Fsync.NEVER) {
+                segments.get(writeSegment).force();
+            }
+            writeSegment++;
+            writePosition = 0;
+            segments.put(writeSegment, map(segmentFile(writeSegment), segmentSize));
+        }
+
+        MappedByteBuffer segment = segments.get(writeSegment);
+        int start = writePosition + RECORD_HEADER_SIZE;
+        segment.putLong(start, System.currentTimeMillis());
+        segment.put(start + 8, type);
+        segment.putShort(start + 9, (short) destinationBytes.length);
+        put(segment, start + RECORD_FIXED_SIZE, destinationBytes);
+        put(segment, start + RECORD_FIXED_SIZE + destinationBytes.length, body);
+        segment.putInt(writePosition + 4, checksum(segment, start, length));
+        segment.putInt(writePosition, length);
+        writePosition += RECORD_HEADER_SIZE + length;
+
+        appended++;
+        backlog++;
+        backlogBytes += RECORD_HEADER_SIZE + length;
+        flush(segment);
+
+        return true;
+    }
+
+    /**
+     * Read the next messages after the read position.
+     *
+     * The messages stay in the outbox until {@link #commit()} is called. Messages older than the
+     * retention are skipped and discarded with the next commit.
+     *
+     * @param max maximum number of messages to read
+     * @return messages read, empty if all messages have been read
+     */
+    public synchronized List<ReplayBuffer.Entry> read(int max) {
+        List<ReplayBuffer.Entry> entries = new ArrayList<>(max);
+        long expiry = retention > 0 ? System.currentTimeMillis() - retention : Long.MIN_VALUE;
+
+        while (entries.size() < max && (readSegment < writeSegment || readPosition < writePosition)) {
+            MappedByteBuffer segment = segments.get(readSegment);
+            int length = readPosition + RECORD_HEADER_SIZE <= segmentSize ? segment.getInt(readPosition) : 0;
+            if (length == 0) {
+                readSegment = segments.higherKey(readSegment);
+                readPosition = 0;
+                continue;
+            }
+
+            int start = readPosition + RECORD_HEADER_SIZE;
+            readPosition = start + length;
+            readCount++;
+            readBytes += RECORD_HEADER_SIZE + length;
+
+            if (segment.getLong(start) < expiry) {
+                readExpired++;
+                continue;
+            }
+
+            int destinationLength = segment.getShort(start + 9);
+            String destination = new String(get(segment, start + RECORD_FIXED_SIZE, destinationLength),
+                    StandardCharsets.UTF_8);
+            byte[] body = get(segment, start + RECORD_FIXED_SIZE + destinationLength,
+                    length - RECORD_FIXED_SIZE - destinationLength);
+            if (segment.get(start + 8) == TYPE_BYTES) {
+                entries.add(new ReplayBuffer.Entry(destination, new Buffer(body), 0));
+            }
+            else {
+                entries.add(new ReplayBuffer.Entry(destination, new JsonObject(new String(body, StandardCharsets.UTF_8)), 0));
+            }
+        }
+
+        if (entries.isEmpty() && readCount > 0) {
+            commit();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Remove the messages read since the last commit from the outbox.
+     *
+     * The read position is written to the checkpoint and segments that have been read completely
+     * are deleted.
+     */
+    public synchronized void commit() {
+        drained += readCount - readExpired;
+        expired += readExpired;
+        backlog -= readCount;
+        backlogBytes -= readBytes;
+        readCount = 0;
+        readBytes = 0;
+        readExpired = 0;
+
+        committedSegment = readSegment;
+        committedPosition = readPosition;
+        writeCheckpoint();
+
+        while (segments.firstKey() < committedSegment) {
+            long sequence = segments.firstKey();
+            segments.remove(sequence);
+            delete(segmentFile(sequence));
+        }
+    }
+
+    /**
+     * Move the read position back to the last commit, so the messages are read again.
+     */
+    public synchronized void rewind() {
+        readSegment = committedSegment;
+        readPosition = committedPosition;
+        readCount = 0;
+        readExpired = 0;
+        readBytes = 0;
+    }
+
+    /**
+     * Return the number of messages not yet removed from the outbox.
+     *
+     * @return number of messages in the outbox
+     */
+    public synchronized long size() {
+        return backlog;
+    }
+
+    /**
+     * Return the state and the counters of the outbox.
+     *
+     * @return Json structure with the backlog, the segments and the counters of the outbox
+     */
+    public synchronized JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putString("directory", directory.getPath());
+        statistics.putNumber("segments", segments.size());
+        statistics.putNumber("segment-size", segmentSize);
+        statistics.putNumber("max-size", maxSize);
+        statistics.putNumber("backlog", backlog);
+        statistics.putNumber("backlog-bytes", backlogBytes);
+        statistics.putNumber("appended", appended);
+        statistics.putNumber("drained", drained);
+        statistics.putNumber("expired", expired);
+        statistics.putNumber("rejected", rejected);
+        statistics.putNumber("corrupt", corrupt);
+
+        return statistics;
+    }
+
+    private void recover() {
+        long sequence = committedSegment;
+        int position = committedPosition;
+        for (Long key : segments.tailMap(committedSegment).keySet()) {
+            MappedByteBuffer segment = segments.get(key);
+            if (key != sequence) {
+                position = 0;
+            }
+            sequence = key;
+
+            while (position + RECORD_HEADER_SIZE <= segmentSize) {
+                int length = segment.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length < RECORD_FIXED_SIZE || (long) position + RECORD_HEADER_SIZE + length > segmentSize
+                        || segment.getInt(position + 4) != checksum(segment, position + RECORD_HEADER_SIZE, length)) {
+                    corrupt++;
+                    String errorMessage = String.format("Corrupt record at position %d of outbox segment %d, "
+                            + "ignoring the rest of the segment", position, key);
+                    logger.error(errorMessage);
+                    clear(segment, position);
+                    break;
+                }
+
+                position += RECORD_HEADER_SIZE + length;
+                backlog++;
+                backlogBytes += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        writeSegment = sequence;
+        writePosition = position;
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, committedSegment);
+        checkpoint.putInt(8, committedPosition);
+        if (fsync != Fsync.NEVER) {
+            checkpoint.force();
+        }
+    }
+
+    private void flush(MappedByteBuffer segment) {
+        long now = System.currentTimeMillis();
+        if (fsync == Fsync.ALWAYS || (fsync == Fsync.INTERVAL && now - lastFlush >= fsyncInterval)) {
+            segment.force();
+            lastFlush = now;
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    private void delete(File file) {
+        if (!file.delete()) {
+            String errorMessage = String.format("Cannot delete outbox segment %s", file);
+            logger.error(errorMessage);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private int checksum(MappedByteBuffer segment, int position, int length) {
+        ByteBuffer view = view(segment, position, length);
+        crc.reset();
+        while (view.hasRemaining()) {
+            int chunk = Math.min(view.remaining(), checksumBuffer.length);
+            view.get(checksumBuffer, 0, chunk);
+            crc.update(checksumBuffer, 0, chunk);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    private static void put(MappedByteBuffer segment, int position, byte[] bytes) {
+        view(segment, position, bytes.length).put(bytes);
+    }
+
+    private static byte[] get(MappedByteBuffer segment, int position, int length) {
+        byte[] bytes = new byte[length];
+        view(segment, position, length).get(bytes);
+
+        return bytes;
+    }
+
+    private static void clear(MappedByteBuffer segment, int position) {
+        put(segment, position, new byte[segment.capacity() - position]);
+    }
+
+    private static ByteBuffer view(MappedByteBuffer segment, int position, int length) {
+        ByteBuffer view = segment.duplicate();
+        view.position(position);
+        view.limit(position + length);
+
+        return view;
+    }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+
+import org.apache.activemq.ActiveMQMessageConsumer;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Handles the messages of a subscription that could not be delivered.
+ *
+ * A failed message is redelivered by ActiveMQ with the backoff of the
+ * {@link RedeliverySettings} of the destination. The consumer receives the following messages
+ * while the failed message waits for its redelivery. On its last delivery the message is moved to
+ * the dead-letter destination with the cause of the failure in the property
+ * {@value #FAILURE_CAUSE_PROPERTY} and the name of the subscribed destination in the property
+ * {@value #ORIGINAL_DESTINATION_PROPERTY}. Without a dead-letter destination ActiveMQ hands the
+ * message to the dead letter queue of the broker.
+ *
+ * Messages received by a {@link PollingReceiver} or {@link BatchReceiver} can't be redelivered
+ * one by one. They are moved to the dead-letter destination at once or, if none is configured,
+ * dropped.
+ *
+ * With a {@link CircuitBreaker} the consumers of the subscription are paused when too many
+ * messages fail, so a poisoned destination doesn't keep the threads of the module busy. The
+ * consumers are started again after the open time of the breaker.
+ *
+ * The handler is shared by all consumers of the subscription, so it may be called by several
+ * threads at the same time.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class PoisonMessageHandler {
+
+    public static final String FAILURE_CAUSE_PROPERTY = "dlqDeliveryFailureCause";
+    public static final String ORIGINAL_DESTINATION_PROPERTY = "dlqOriginalDestination";
+
+    private final String destination;
+    private final RedeliverySettings settings;
+    private final CircuitBreaker circuitBreaker;
+    private final SessionPool sessionPool;
+    private final ScheduledExecutorService timer;
+    private final Logger logger;
+
+    private final List<MessageConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final AtomicLong redelivered = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new handler for the subscription to the given destination.
+     *
+     * @param destination name of the subscribed destination / queue
+     * @param settings redelivery settings of the destination
+     * @param sessionPool pool with the sessions to send to the dead-letter destination
+     * @param timer timer to start paused consumers again, may be null without circuit breaker
+     * @param logger logger to report failed messages
+     */
+    public PoisonMessageHandler(String destination, RedeliverySettings settings, SessionPool sessionPool,
+            ScheduledExecutorService timer, Logger logger) {
+        this.destination = destination;
+        this.settings = settings;
+        this.sessionPool = sessionPool;
+        this.timer = timer;
+        this.logger = logger;
+
+        circuitBreaker = settings.createCircuitBreaker();
+    }
+
+    /**
+     * Add a consumer to pause when the circuit breaker opens.
+     *
+     * @param consumer consumer of the subscription
+     */
+    public void addConsumer(MessageConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * Record a message delivered successfully.
+     */
+    public void succeeded() {
+        if (circuitBreaker != null) {
+            circuitBreaker.recordSuccess();
+        }
+    }
+
+    /**
+     * Record a batch of messages rejected by the subscriber and redelivered by ActiveMQ.
+     */
+    public void rejected() {
+        recordFailure();
+    }
+
+    /**
+     * Handle a message that could not be delivered.
+     *
+     * @param message received message
+     * @param cause cause of the failure
+     * @param redeliverable true if ActiveMQ redelivers the message when the listener throws
+     * @return true if the listener must throw to let ActiveMQ redeliver the message or hand it
+     *          to the dead letter queue of the broker, false if the message was handled
+     */
+    public boolean failed(Message message, Exception cause, boolean redeliverable) {
+        recordFailure();
+
+        int redeliveryCounter = message instanceof ActiveMQMessage
+                ? ((ActiveMQMessage) message).getRedeliveryCounter() : 0;
+        if (redeliverable && !settings.isLastDelivery(redeliveryCounter)) {
+            redelivered.incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                String debugMessage = String.format("Message from queue %s failed on delivery %d and is redelivered: %s",
+                        destination, redeliveryCounter + 1, cause.getMessage());
+                logger.debug(debugMessage);
+            }
+            return true;
+        }
+
+        String deadLetter = settings.getDeadLetter();
+        if (deadLetter != null) {
+            try {
+                moveToDeadLetter(deadLetter, message, cause);
+                deadLettered.incrementAndGet();
+
+                String errorMessage = String.format("Moved message from queue %s to dead-letter queue %s: %s",
+                        destination, deadLetter, cause.getMessage());
+                logger.error(errorMessage);
+                return false;
+            }
+            catch (JMSException e) {
+                String errorMessage = String.format("Cannot move message from queue %s to dead-letter queue %s",
+                        destination, deadLetter);
+                logger.error(errorMessage, e);
+            }
+        }
+
+        if (redeliverable) {
+            deadLettered.incrementAndGet();
+
+            String errorMessage = String.format(
+                    "Message from queue %s failed on its last delivery, handing it to the broker: %s",
+                    destination, cause.getMessage());
+            logger.error(errorMessage);
+            return true;
+        }
+
+        dropped.incrementAndGet();
+        String errorMessage = String.format("Dropped message from queue %s: %s", destination, cause.getMessage());
+        logger.error(errorMessage);
+        return false;
+    }
+
+    /**
+     * Stop the consumers of the subscription and stop starting paused consumers.
+     *
+     * Stopped consumers don't dispatch further messages to their listeners while the subscription
+     * is closed.
+     */
+    public void close() {
+        closed = true;
+        for (MessageConsumer consumer : consumers) {
+            ((ActiveMQMessageConsumer) consumer).stop();
+        }
+    }
+
+    /**
+     * Return the counters of the failed messages and the state of the circuit breaker.
+     *
+     * @return Json structure with the number of redelivered, dead-lettered and dropped messages
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("redelivered", redelivered.get());
+        statistics.putNumber("dead-lettered", deadLettered.get());
+        statistics.putNumber("dropped", dropped.get());
+        if (circuitBreaker != null) {
+            statistics.putObject("circuit-breaker", circuitBreaker.getStatistics());
+        }
+
+        return statistics;
+    }
+
+    private void moveToDeadLetter(String deadLetter, Message message, Exception cause) throws JMSException {
+        // send a copy, the received message must keep its ID for the acknowledgement
+        ActiveMQMessage copy = (ActiveMQMessage) ((ActiveMQMessage) message).copy();
+        copy.setReadOnlyProperties(false);
+        copy.setStringProperty(FAILURE_CAUSE_PROPERTY, String.valueOf(cause.getMessage()));
+        copy.setStringProperty(ORIGINAL_DESTINATION_PROPERTY, destination);
+
+        PooledSession pooledSession = sessionPool.getSendSession(deadLetter);
+        synchronized (pooledSession) {
+            MessageProducer producer = pooledSession.getProducerCache().getProducer(deadLetter);
+            producer.send(copy, copy.getJMSDeliveryMode(), copy.getJMSPriority(), Message.DEFAULT_TIME_TO_LIVE);
+        }
+    }
+
+    private void recordFailure() {
+        if (circuitBreaker != null && circuitBreaker.recordFailure()) {
+            pause();
+        }
+    }
+
+    private void pause() {
+        for (MessageConsumer consumer : consumers) {
+            ((ActiveMQMessageConsumer) consumer).stop();
+        }
+
+        String errorMessage = String.format("Too many failed messages from queue %s, pausing its consumers for %d ms",
+                destination, circuitBreaker.getOpenTime());
+        logger.error(errorMessage);
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resume();
+            }
+        }, circuitBreaker.getOpenTime(), TimeUnit.MILLISECONDS);
+    }
+
+    private void resume() {
+        if (closed) {
+            return;
+        }
+
+        circuitBreaker.halfOpen();
+        for (MessageConsumer consumer : consumers) {
+            try {
+                ((ActiveMQMessageConsumer) consumer).start();
+            }
+            catch (JMSException e) {
+                String errorMessage = String.format("Cannot resume consumer of queue %s", destination);
+                logger.error(errorMessage, e);
+            }
+        }
+
+        String infoMessage = String.format("Resumed the consumers of queue %s", destination);
+        logger.info(infoMessage);
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Receives the messages of a consumer with a synchronous receive loop on a thread of its own.
+ *
+ * Instead of registering the listener on the consumer, where ActiveMQ calls it from the thread
+ * of the session, the receiver takes the messages from the prefetch buffer of the consumer
+ * and calls the listener directly. The listener converts the message and hands it to the event
+ * bus, which passes it on to the event loop of the subscriber. So every message is handed over
+ * between threads only once after it has been received.
+ *
+ * The receiver waits at most {@value #IDLE_RECEIVE_TIMEOUT} milliseconds for a message before
+ * it checks whether it has been closed.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class PollingReceiver implements Runnable {
+
+    protected static final long IDLE_RECEIVE_TIMEOUT = 500;
+
+    protected final String destination;
+    protected final MessageConsumer consumer;
+    protected final Logger logger;
+    private final MessageListener listener;
+    private final String threadName;
+
+    private Thread thread;
+    protected volatile boolean closed;
+
+    /**
+     * Create a new receiver for the given consumer.
+     *
+     * @param destination name of the destination / queue
+     * @param consumer consumer without message listener
+     * @param listener listener to call with the received messages
+     * @param logger logger to report errors
+     */
+    public PollingReceiver(String destination, MessageConsumer consumer, MessageListener listener, Logger logger) {
+        this(destination, consumer, listener, logger, "vertx-activemq-poll-" + destination);
+    }
+
+    protected PollingReceiver(String destination, MessageConsumer consumer, MessageListener listener, Logger logger,
+            String threadName) {
+        this.destination = destination;
+        this.consumer = consumer;
+        this.listener = listener;
+        this.logger = logger;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Start the thread of the receiver.
+     */
+    public synchronized void start() {
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the receiver and wait for its thread to end.
+     */
+    public synchronized void close() {
+        closed = true;
+        cancel();
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(IDLE_RECEIVE_TIMEOUT + 5000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                receive();
+            }
+            catch (JMSException e) {
+                if (recover(e)) {
+                    continue;
+                }
+                if (!closed) {
+                    String errorMessage = String.format("Error receiving from queue %s, receiver stopped", destination);
+                    logger.error(errorMessage, e);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Receive the next message and hand it to the listener.
+     *
+     * @throws JMSException if the message could not be received
+     */
+    protected void receive() throws JMSException {
+        Message message = consumer.receive(IDLE_RECEIVE_TIMEOUT);
+        if (message != null) {
+            listener.onMessage(message);
+        }
+    }
+
+    /**
+     * Called by {@link #close()} before waiting for the thread, e.g. to release a waiting
+     * receive.
+     */
+    protected void cancel() {
+    }
+
+    /**
+     * Decide whether the receiver continues after the error.
+     *
+     * @param error error thrown by {@link #receive()}
+     * @return true to continue receiving, false to stop the receiver
+     */
+    protected boolean recover(JMSException error) {
+        return false;
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * A JMS Session of the {@link SessionPool} together with the objects bound to it.
+ *
+ * JMS sessions must not be used by more than one thread at the same time. Every access to the
+ * session, its converter or its producers has to be done while holding the monitor of the
+ * PooledSession object.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class PooledSession {
+
+    private final Session session;
+    private final MessageConverter converter;
+    private final ProducerCache producerCache;
+    private final Logger logger;
+
+    public PooledSession(Session session, ClientConfig config, ConverterRegistry registry, Logger logger) {
+        this.session = session;
+        this.logger = logger;
+
+        converter = new MessageConverter(session, registry, config.getLargeMessageCodec());
+        producerCache = new ProducerCache(session, logger, config.getProducerCacheSize(),
+                config.getProducerIdleTimeout());
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public MessageConverter getConverter() {
+        return converter;
+    }
+
+    public ProducerCache getProducerCache() {
+        return producerCache;
+    }
+
+    /**
+     * Close the cached producers and the session.
+     */
+    public synchronized void close() {
+        producerCache.close();
+
+        try {
+            session.close();
+        }
+        catch (JMSException e) {
+            logger.error("Error closing pooled session", e);
+        }
+    }
+
+}
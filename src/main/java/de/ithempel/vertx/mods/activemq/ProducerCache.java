@@ -0,0 +1,205 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Bounded cache of MessageProducers for one JMS Session keyed by the name of the destination.
+ *
+ * Creating a producer costs a round trip to the broker. The cache keeps the producers of the
+ * most recently used destinations open and closes the least recently used one if the cache
+ * is full. Producers that were not used for longer than the idle timeout are closed on the
+ * next access to the cache.
+ *
+ * The cache counts hits, misses and evictions. The counters can be read as a Json structure.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ProducerCache {
+
+    private final Session session;
+    private final Logger logger;
+    private final int maxSize;
+    private final long idleTimeout;
+
+    private final LinkedHashMap<String, CachedProducer> producers;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a new cache for producers of the given session.
+     *
+     * @param session session to create the producers with
+     * @param logger logger to report errors while closing producers
+     * @param maxSize maximum number of open producers
+     * @param idleTimeout time in milliseconds after which an unused producer will be closed,
+     *          0 disables the idle check
+     */
+    public ProducerCache(Session session, Logger logger, int maxSize, long idleTimeout) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The producer cache must hold at least one producer");
+        }
+
+        this.session = session;
+        this.logger = logger;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+
+        producers = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Return the producer for the given destination / queue.
+     *
+     * If there is no open producer for the destination a new one will be created and put
+     * into the cache.
+     *
+     * @param destination name of the destination / queue, with topic:// prefix for topics
+     * @return producer to send messages to the destination
+     * @throws JMSException if the producer could not be created
+     */
+    public synchronized MessageProducer getProducer(String destination) throws JMSException {
+        long now = System.currentTimeMillis();
+        evictIdle(now);
+
+        CachedProducer cached = producers.get(destination);
+        if (cached != null) {
+            hits++;
+        }
+        else {
+            misses++;
+
+            Destination jmsDestination = DestinationName.parse(destination).create(session);
+            cached = new CachedProducer(session.createProducer(jmsDestination));
+
+            if (producers.size() >= maxSize) {
+                evictEldest();
+            }
+            producers.put(destination, cached);
+        }
+        cached.lastUsed = now;
+
+        return cached.producer;
+    }
+
+    /**
+     * Close all cached producers and clear the cache.
+     */
+    public synchronized void close() {
+        for (CachedProducer cached : producers.values()) {
+            closeProducer(cached.producer);
+        }
+        producers.clear();
+    }
+
+    public synchronized int size() {
+        return producers.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Return the counters of the cache as a Json structure.
+     *
+     * All counters are read under the monitor of the cache, so they are consistent with each other.
+     *
+     * @return Json structure with the fields size, hits, misses and evictions
+     */
+    public synchronized JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("size", producers.size());
+        statistics.putNumber("hits", hits);
+        statistics.putNumber("misses", misses);
+        statistics.putNumber("evictions", evictions);
+
+        return statistics;
+    }
+
+    private void evictIdle(long now) {
+        if (idleTimeout <= 0) {
+            return;
+        }
+
+        // access order: the eldest entry is the one that was not used for the longest time
+        Iterator<CachedProducer> iterator = producers.values().iterator();
+        while (iterator.hasNext()) {
+            CachedProducer cached = iterator.next();
+            if (now - cached.lastUsed < idleTimeout) {
+                break;
+            }
+
+            iterator.remove();
+            evictions++;
+            closeProducer(cached.producer);
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<String, CachedProducer>> iterator = producers.entrySet().iterator();
+        if (iterator.hasNext()) {
+            CachedProducer cached = iterator.next().getValue();
+            iterator.remove();
+            evictions++;
+            closeProducer(cached.producer);
+        }
+    }
+
+    private void closeProducer(MessageProducer producer) {
+        try {
+            producer.close();
+        }
+        catch (JMSException e) {
+            logger.error("Error closing cached message producer", e);
+        }
+    }
+
+    private static class CachedProducer {
+
+        private final MessageProducer producer;
+        private long lastUsed;
+
+        private CachedProducer(MessageProducer producer) {
+            this.producer = producer;
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Redelivery, dead-letter and circuit breaker settings for received messages.
+ *
+ * The settings are read from the redelivery field of the tuning and of the overrides per
+ * destination (see {@link ConnectionTuning}). Fields missing in an override are taken from the
+ * global settings.
+ *
+ * |===
+ * | field                | default | description
+ * |
+ * | maximum-redeliveries | 6       | Redeliveries of a message that could not be handled, -1 for no limit.
+ * | initial-delay        | 1000    | Milliseconds before the first redelivery.
+ * | backoff-multiplier   | 2.0     | Factor the delay grows with after each redelivery, 1 for a constant delay.
+ * | maximum-delay        | 60000   | Maximum milliseconds between two redeliveries.
+ * | dead-letter          |         | Destination for messages that failed on their last delivery, the dead letter queue of the broker if not set.
+ * | circuit-breaker      |         | Pause the consumers of a destination with many failures, see {@link CircuitBreaker}.
+ * |===
+ *
+ * The redelivery is done by ActiveMQ with non blocking redelivery. The delay before a redelivery
+ * is scheduled by the session, so the consumer receives the following messages while a message
+ * waits for its next delivery. A redelivered message therefore loses its place in the order of
+ * the destination. The circuit-breaker object contains the failure-rate (default 0.5), the window
+ * (default 20) and the open-time in milliseconds (default 30000).
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class RedeliverySettings {
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("maximum-redeliveries",
+            "initial-delay", "backoff-multiplier", "maximum-delay", "dead-letter", "circuit-breaker"));
+    private static final Set<String> CIRCUIT_BREAKER_FIELDS = new HashSet<>(Arrays.asList("failure-rate",
+            "window", "open-time"));
+
+    private final int maximumRedeliveries;
+    private final long initialDelay;
+    private final double backoffMultiplier;
+    private final long maximumDelay;
+    private final String deadLetter;
+    private final JsonObject circuitBreaker;
+
+    /**
+     * Read and validate the global settings.
+     *
+     * @param config Json structure with the settings described above
+     */
+    public RedeliverySettings(JsonObject config) {
+        this("tuning.redelivery", config, null);
+    }
+
+    /**
+     * Read and validate the settings of a destination.
+     *
+     * @param path path of the settings in the configuration to report errors with
+     * @param config Json structure with the settings described above
+     * @param defaults settings to take the missing fields from, null for the built in defaults
+     */
+    public RedeliverySettings(String path, JsonObject config, RedeliverySettings defaults) {
+        ConnectionTuning.checkFields(path, config, FIELDS);
+
+        maximumRedeliveries = ConnectionTuning.getInteger(config, "maximum-redeliveries",
+                defaults != null ? defaults.maximumRedeliveries : RedeliveryPolicy.DEFAULT_MAXIMUM_REDELIVERIES, -1);
+        initialDelay = getLong(config, "initial-delay", defaults != null ? defaults.initialDelay : 1000, 0);
+        backoffMultiplier = getDouble(config, "backoff-multiplier",
+                defaults != null ? defaults.backoffMultiplier : 2.0, 1);
+        maximumDelay = getLong(config, "maximum-delay", defaults != null ? defaults.maximumDelay : 60000,
+                initialDelay);
+
+        Object deadLetterConfig = config.getField("dead-letter");
+        if (deadLetterConfig != null && !(deadLetterConfig instanceof String)) {
+            throw new IllegalArgumentException("dead-letter must be the name of a destination");
+        }
+        deadLetter = deadLetterConfig != null ? (String) deadLetterConfig : defaults != null ? defaults.deadLetter : null;
+
+        Object circuitBreakerConfig = config.getField("circuit-breaker");
+        if (circuitBreakerConfig != null && !(circuitBreakerConfig instanceof JsonObject)) {
+            throw new IllegalArgumentException(String.format("%s.circuit-breaker must be an object", path));
+        }
+        if (circuitBreakerConfig != null) {
+            JsonObject breaker = (JsonObject) circuitBreakerConfig;
+            ConnectionTuning.checkFields(path + ".circuit-breaker", breaker, CIRCUIT_BREAKER_FIELDS);
+            double failureRate = getDouble(breaker, "failure-rate", 0.5, 0);
+            if (failureRate == 0 || failureRate > 1) {
+                throw new IllegalArgumentException("failure-rate must be above 0 and at most 1");
+            }
+
+            circuitBreaker = new JsonObject();
+            circuitBreaker.putNumber("failure-rate", failureRate);
+            circuitBreaker.putNumber("window", ConnectionTuning.getInteger(breaker, "window", 20, 1));
+            circuitBreaker.putNumber("open-time", getLong(breaker, "open-time", 30000, 1));
+        }
+        else {
+            circuitBreaker = defaults != null ? defaults.circuitBreaker : null;
+        }
+    }
+
+    public int getMaximumRedeliveries() {
+        return maximumRedeliveries;
+    }
+
+    /**
+     * Return the destination for messages that failed on their last delivery.
+     *
+     * @return name of the dead-letter destination, null for the dead letter queue of the broker
+     */
+    public String getDeadLetter() {
+        return deadLetter;
+    }
+
+    /**
+     * Check if a message received the given number of times is on its last delivery.
+     *
+     * @param redeliveryCounter number of redeliveries of the message
+     * @return true if the message is not redelivered again
+     */
+    public boolean isLastDelivery(int redeliveryCounter) {
+        return maximumRedeliveries != RedeliveryPolicy.NO_MAXIMUM_REDELIVERIES
+                && redeliveryCounter >= maximumRedeliveries;
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker != null;
+    }
+
+    /**
+     * Create a new circuit breaker with the settings.
+     *
+     * @return new closed circuit breaker, null if no circuit breaker is configured
+     */
+    public CircuitBreaker createCircuitBreaker() {
+        if (circuitBreaker == null) {
+            return null;
+        }
+
+        return new CircuitBreaker(circuitBreaker.getNumber("failure-rate").doubleValue(),
+                circuitBreaker.getInteger("window"), circuitBreaker.getLong("open-time"));
+    }
+
+    /**
+     * Create the redelivery policy of ActiveMQ for the given destination.
+     *
+     * @param destination name of the destination, null for the default policy
+     * @return redelivery policy with exponential backoff
+     */
+    public RedeliveryPolicy createPolicy(String destination) {
+        RedeliveryPolicy policy = new RedeliveryPolicy();
+        policy.setMaximumRedeliveries(maximumRedeliveries);
+        policy.setInitialRedeliveryDelay(initialDelay);
+        policy.setRedeliveryDelay(initialDelay);
+        policy.setUseExponentialBackOff(backoffMultiplier > 1);
+        policy.setBackOffMultiplier(backoffMultiplier);
+        policy.setMaximumRedeliveryDelay(maximumDelay);
+
+        if (destination != null) {
+            DestinationName destinationName = DestinationName.parse(destination);
+            policy.setDestination(ActiveMQDestination.createDestination(destinationName.getName(),
+                    destinationName.isTopic() ? ActiveMQDestination.TOPIC_TYPE : ActiveMQDestination.QUEUE_TYPE));
+        }
+
+        return policy;
+    }
+
+    /**
+     * Return the effective settings.
+     *
+     * @return Json structure with all settings
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.putNumber("maximum-redeliveries", maximumRedeliveries);
+        json.putNumber("initial-delay", initialDelay);
+        json.putNumber("backoff-multiplier", backoffMultiplier);
+        json.putNumber("maximum-delay", maximumDelay);
+        if (deadLetter != null) {
+            json.putString("dead-letter", deadLetter);
+        }
+        if (circuitBreaker != null) {
+            json.putObject("circuit-breaker", circuitBreaker.copy());
+        }
+
+        return json;
+    }
+
+    private static long getLong(JsonObject config, String field, long defaultValue, long minimum) {
+        Object value = config.getField(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Integer || value instanceof Long)) {
+            throw new IllegalArgumentException(String.format("%s must be an integer", field));
+        }
+        if (((Number) value).longValue() < minimum) {
+            throw new IllegalArgumentException(String.format("%s must be at least %d", field, minimum));
+        }
+
+        return ((Number) value).longValue();
+    }
+
+    private static double getDouble(JsonObject config, String field, double defaultValue, double minimum) {
+        Object value = config.getField(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(String.format("%s must be a number", field));
+        }
+        if (((Number) value).doubleValue() < minimum) {
+            throw new IllegalArgumentException(String.format("%s must be at least %s", field, minimum));
+        }
+
+        return ((Number) value).doubleValue();
+    }
+
+}
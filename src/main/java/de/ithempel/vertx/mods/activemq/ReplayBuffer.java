@@ -0,0 +1,314 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Buffer for the messages send while the connection to the broker is interrupted.
+ *
+ * When the transport to the broker is interrupted, messages to send are put into the buffer
+ * instead of waiting for the reconnect. After the transport is resumed, the buffered messages
+ * are replayed in batches in the order they were send. Until the buffer is empty, new messages
+ * are buffered too, so they don't overtake the replayed ones.
+ *
+ * By default the messages are kept in memory up to a fixed capacity, so they are lost if the
+ * module is stopped during an outage. With an {@link Outbox} the messages are stored on disk
+ * instead and replayed after the next start.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ReplayBuffer {
+
+    private final int capacity;
+    private final Outbox outbox;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private boolean interrupted;
+    private boolean replaying;
+    private long replayStart;
+    private long replayedInRun;
+    private double drainRate;
+
+    private long buffered;
+    private long replayed;
+    private long rejected;
+    private long dropped;
+
+    /**
+     * Create a new buffer keeping the messages in memory.
+     *
+     * @param capacity maximum number of buffered messages, 0 to never buffer messages
+     */
+    public ReplayBuffer(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity of the replay buffer must not be negative");
+        }
+
+        this.capacity = capacity;
+        outbox = null;
+    }
+
+    /**
+     * Create a new buffer storing the messages in the given outbox.
+     *
+     * @param outbox outbox to store the messages in, opened with {@link #open()}
+     */
+    public ReplayBuffer(Outbox outbox) {
+        capacity = 0;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Open the outbox of the buffer and recover its messages.
+     *
+     * @throws IOException if the outbox could not be opened
+     */
+    public synchronized void open() throws IOException {
+        if (outbox != null) {
+            outbox.open();
+        }
+    }
+
+    /**
+     * Close the outbox of the buffer.
+     */
+    public synchronized void close() {
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Mark the transport to the broker as interrupted.
+     */
+    public synchronized void interrupt() {
+        interrupted = true;
+    }
+
+    /**
+     * Mark the transport to the broker as resumed.
+     *
+     * The replay has to be started with {@link #startReplay()} afterwards.
+     */
+    public synchronized void resume() {
+        interrupted = false;
+    }
+
+    /**
+     * Start the replay if there are buffered messages and no replay is running.
+     *
+     * @return true if the caller has to start the replay of the buffered messages
+     */
+    public synchronized boolean startReplay() {
+        if (interrupted || replaying || size() == 0) {
+            return false;
+        }
+
+        replaying = true;
+        replayStart = System.nanoTime();
+        replayedInRun = 0;
+        return true;
+    }
+
+    public synchronized boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Check if new messages have to be put into the buffer instead of sending them.
+     *
+     * @return true while the transport is interrupted or buffered messages wait for the replay
+     */
+    public synchronized boolean isBuffering() {
+        return interrupted || replaying || size() > 0;
+    }
+
+    /**
+     * Return the number of buffered messages.
+     *
+     * @return number of messages waiting for the replay
+     */
+    public synchronized long size() {
+        return outbox != null ? outbox.size() : entries.size();
+    }
+
+    /**
+     * Put a message at the end of the buffer.
+     *
+     * @param destination name of the destination / queue
+     * @param payload JsonObject with the message or Buffer with the content of a BytesMessage
+     * @param offset position of the content in a Buffer payload
+     * @return true if buffered, false if the buffer is full
+     * @throws IOException if the message could not be written to the outbox
+     */
+    public synchronized boolean add(String destination, Object payload, int offset) throws IOException {
+        boolean added;
+        if (outbox != null) {
+            added = outbox.append(destination, payload, offset);
+        }
+        else if (entries.size() < capacity) {
+            added = entries.add(new Entry(destination, payload, offset));
+        }
+        else {
+            added = false;
+        }
+
+        if (added) {
+            buffered++;
+        }
+        else {
+            rejected++;
+        }
+        return added;
+    }
+
+    /**
+     * Take the next batch of messages to replay.
+     *
+     * The replay ends when the buffer is empty or the transport was interrupted again. Every
+     * batch must be reported with {@link #replayed(List, int)} or {@link #retry(List)} before
+     * the next batch is taken.
+     *
+     * @param max maximum number of messages in the batch
+     * @return next messages, empty if the replay has ended
+     */
+    public synchronized List<Entry> nextBatch(int max) {
+        List<Entry> batch = new ArrayList<>();
+        if (!interrupted) {
+            if (outbox != null) {
+                batch = outbox.read(max);
+            }
+            else {
+                while (batch.size() < max && !entries.isEmpty()) {
+                    batch.add(entries.pollFirst());
+                }
+            }
+        }
+
+        if (batch.isEmpty()) {
+            replaying = false;
+            long elapsed = System.nanoTime() - replayStart;
+            drainRate = elapsed > 0 ? replayedInRun * 1e9 / elapsed : 0;
+        }
+        return batch;
+    }
+
+    /**
+     * Remove a replayed batch from the buffer.
+     *
+     * @param batch batch taken with {@link #nextBatch(int)}
+     * @param failed number of messages of the batch that could not be send and are dropped
+     */
+    public synchronized void replayed(List<Entry> batch, int failed) {
+        if (outbox != null) {
+            outbox.commit();
+        }
+
+        replayed += batch.size() - failed;
+        replayedInRun += batch.size() - failed;
+        dropped += failed;
+    }
+
+    /**
+     * Put a batch that could not be send because the transport was interrupted again back at
+     * the start of the buffer.
+     *
+     * @param batch batch taken with {@link #nextBatch(int)}
+     */
+    public synchronized void retry(List<Entry> batch) {
+        if (outbox != null) {
+            outbox.rewind();
+            return;
+        }
+
+        ListIterator<Entry> iterator = batch.listIterator(batch.size());
+        while (iterator.hasPrevious()) {
+            entries.addFirst(iterator.previous());
+        }
+    }
+
+    /**
+     * Return the state and the counters of the buffer.
+     *
+     * The drain rate is the number of messages replayed per second in the running or the last
+     * replay.
+     *
+     * @return Json structure with the size, capacity and counters of the buffer
+     */
+    public synchronized JsonObject getStatistics() {
+        double rate = drainRate;
+        if (replaying) {
+            long elapsed = System.nanoTime() - replayStart;
+            rate = elapsed > 0 ? replayedInRun * 1e9 / elapsed : 0;
+        }
+
+        JsonObject statistics = new JsonObject();
+        statistics.putBoolean("interrupted", interrupted);
+        statistics.putBoolean("replaying", replaying);
+        statistics.putNumber("size", size());
+        statistics.putNumber("capacity", capacity);
+        statistics.putNumber("buffered", buffered);
+        statistics.putNumber("replayed", replayed);
+        statistics.putNumber("rejected", rejected);
+        statistics.putNumber("dropped", dropped);
+        statistics.putNumber("drain-rate", rate);
+        if (outbox != null) {
+            statistics.putObject("outbox", outbox.getStatistics());
+        }
+
+        return statistics;
+    }
+
+    /**
+     * A message waiting for the replay.
+     */
+    public static class Entry {
+
+        private final String destination;
+        private final Object payload;
+        private final int offset;
+
+        Entry(String destination, Object payload, int offset) {
+            this.destination = destination;
+            this.payload = payload;
+            this.offset = offset;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public Object getPayload() {
+            return payload;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+    }
+
+}
@@ -0,0 +1,252 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Correlates the replies to requests send by the client.
+ *
+ * All requests of a client share one temporary queue for their replies, which lives as long as
+ * the connection it was created on. Each request is registered with a unique correlation ID and
+ * send with the temporary queue as JMSReplyTo. A single consumer on the temporary queue hands
+ * every reply to the handler registered for its JMSCorrelationID. So there is no consumer per
+ * request and thousands of requests can wait for their replies at the same time.
+ *
+ * A request that is not answered within its timeout is completed with a
+ * {@link TimeoutException}. Replies arriving after the timeout are discarded and counted.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class RequestCorrelator implements MessageListener {
+
+    private final ConverterRegistry registry;
+    private final LargeMessageCodec codec;
+    private final Logger logger;
+    private final String idPrefix = UUID.randomUUID().toString() + "-";
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<String, PendingRequest> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+
+    private volatile Session session;
+    private volatile MessageConverter converter;
+    private volatile String replyTo;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong lateReplies = new AtomicLong();
+
+    public RequestCorrelator(ConverterRegistry registry, LargeMessageCodec codec, Logger logger) {
+        this.registry = registry;
+        this.codec = codec;
+        this.logger = logger;
+
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vertx-activemq-request-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Create the temporary reply queue and its consumer.
+     *
+     * @param consumerSession session owned by the correlator to receive the replies with
+     * @throws JMSException if the queue or the consumer could not be created
+     */
+    public void open(Session consumerSession) throws JMSException {
+        session = consumerSession;
+        converter = new MessageConverter(session, registry, codec);
+
+        TemporaryQueue replyQueue = session.createTemporaryQueue();
+        session.createConsumer(replyQueue).setMessageListener(this);
+        replyTo = DestinationName.format(replyQueue);
+    }
+
+    /**
+     * Return the name of the temporary reply queue.
+     *
+     * @return name of the reply queue with the prefix temp-queue://, null if not opened
+     */
+    public String getReplyTo() {
+        return replyTo;
+    }
+
+    /**
+     * Register a new request waiting for its reply.
+     *
+     * @param timeout milliseconds to wait for the reply
+     * @param replyHandler handler called once with the reply or the failure of the request
+     * @return correlation ID to send the request with
+     */
+    public String register(final long timeout, Handler<AsyncResult<JsonObject>> replyHandler) {
+        final String correlationId = idPrefix + nextId.incrementAndGet();
+        final PendingRequest request = new PendingRequest(replyHandler);
+        pending.put(correlationId, request);
+        requests.incrementAndGet();
+
+        request.timeoutFuture = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.remove(correlationId, request)) {
+                    timeouts.incrementAndGet();
+                    request.replyHandler.handle(new DefaultFutureResult<JsonObject>(new TimeoutException(
+                            String.format("no reply received within %d milliseconds", timeout))));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        return correlationId;
+    }
+
+    /**
+     * Complete a request with a failure, e.g. because the request could not be send.
+     *
+     * @param correlationId correlation ID of the request
+     * @param cause cause of the failure
+     */
+    public void fail(String correlationId, Throwable cause) {
+        PendingRequest request = pending.remove(correlationId);
+        if (request != null) {
+            request.cancelTimeout();
+            request.replyHandler.handle(new DefaultFutureResult<JsonObject>(cause));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        String correlationId;
+        try {
+            correlationId = message.getJMSCorrelationID();
+        }
+        catch (JMSException e) {
+            logger.error("Cannot read the correlation ID of a reply", e);
+            return;
+        }
+
+        JsonObject reply;
+        try {
+            reply = converter.convertToJsonObject(message);
+        }
+        catch (JMSException e) {
+            String errorMessage = String.format("Cannot convert the reply with correlation ID %s", correlationId);
+            logger.error(errorMessage, e);
+            if (correlationId != null) {
+                fail(correlationId, e);
+            }
+            return;
+        }
+        if (reply == null) {
+            // chunk of a large reply, the request is completed with the last chunk
+            return;
+        }
+
+        PendingRequest request = correlationId != null ? pending.remove(correlationId) : null;
+        if (request == null) {
+            lateReplies.incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                String debugMessage = String.format("Discarding reply with unknown correlation ID %s", correlationId);
+                logger.debug(debugMessage);
+            }
+            return;
+        }
+
+        request.cancelTimeout();
+        replies.incrementAndGet();
+        request.replyHandler.handle(new DefaultFutureResult<>(reply));
+    }
+
+    /**
+     * Close the reply queue and fail all requests still waiting for their replies.
+     */
+    public void close() {
+        timer.shutdownNow();
+        if (session != null) {
+            try {
+                session.close();
+            }
+            catch (JMSException e) {
+                logger.error("Error closing the session of the reply queue", e);
+            }
+        }
+
+        for (Map.Entry<String, PendingRequest> entry : pending.entrySet()) {
+            fail(entry.getKey(), new JMSException("The client is disconnected from the broker"));
+        }
+    }
+
+    /**
+     * Return the number of waiting requests and the counters of the correlator.
+     *
+     * @return Json structure with the pending requests and the counters
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("pending", pending.size());
+        statistics.putNumber("requests", requests.get());
+        statistics.putNumber("replies", replies.get());
+        statistics.putNumber("timeouts", timeouts.get());
+        statistics.putNumber("late-replies", lateReplies.get());
+
+        return statistics;
+    }
+
+    private static class PendingRequest {
+
+        private final Handler<AsyncResult<JsonObject>> replyHandler;
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        PendingRequest(Handler<AsyncResult<JsonObject>> replyHandler) {
+            this.replyHandler = replyHandler;
+        }
+
+        void cancelTimeout() {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+        }
+
+    }
+
+}
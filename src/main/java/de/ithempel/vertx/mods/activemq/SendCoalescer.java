@@ -0,0 +1,243 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Coalesces single send commands into batches that are send in one transaction.
+ *
+ * Messages are buffered per destination. The buffer of a destination is flushed when it
+ * contains the maximum batch size of messages or when the linger time since the first
+ * buffered message has passed. Each flush sends the buffered messages with
+ * {@link ActiveMqClient#sendBatch(String, JsonArray)} on the {@link JmsExecutor}. When the batch
+ * is committed every event bus message of the batch gets its reply. The reply contains the receipt
+ * of the message in the batch and the time since the message was buffered (latency-micros), like
+ * the reply to a single send.
+ *
+ * The coalescer is used by the verticle only, so all methods and result handlers are called on
+ * the event loop of the verticle.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SendCoalescer {
+
+    private final Vertx vertx;
+    private final ActiveMqClient amqClient;
+    private final JmsExecutor executor;
+    private final Logger logger;
+    private final int maxBatchSize;
+    private final long lingerTime;
+
+    private final Map<String, PendingBatch> pending = new HashMap<>();
+
+    private int queueDepth;
+    private long flushes;
+    private long flushedMessages;
+    private long failedMessages;
+    private int lastFlushSize;
+    private int maxFlushSize;
+
+    /**
+     * Create a new coalescer in front of the given client.
+     *
+     * @param vertx Vert.x instance to set the linger timers with
+     * @param amqClient client to send the batches with
+     * @param executor executor to run the blocking sends on
+     * @param logger logger to report failed messages
+     * @param maxBatchSize number of messages that triggers a flush of a destination
+     * @param lingerTime time in milliseconds a message waits at most for other messages
+     */
+    public SendCoalescer(Vertx vertx, ActiveMqClient amqClient, JmsExecutor executor, Logger logger,
+            int maxBatchSize, long lingerTime) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("The maximum batch size must be at least 1");
+        }
+        if (lingerTime < 1) {
+            throw new IllegalArgumentException("The linger time must be at least 1 millisecond");
+        }
+
+        this.vertx = vertx;
+        this.amqClient = amqClient;
+        this.executor = executor;
+        this.logger = logger;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerTime = lingerTime;
+    }
+
+    /**
+     * Buffer a message for the given destination.
+     *
+     * The event bus message is replied to when the batch containing it has been send.
+     *
+     * @param destination name of the destination / queue
+     * @param message event bus message with the message to send as a Json structure
+     */
+    public void send(final String destination, Message<JsonObject> message) {
+        PendingBatch batch = pending.get(destination);
+        if (batch == null) {
+            batch = new PendingBatch();
+            pending.put(destination, batch);
+
+            batch.timerId = vertx.setTimer(lingerTime, new Handler<Long>() {
+                @Override
+                public void handle(Long timerId) {
+                    PendingBatch expired = pending.get(destination);
+                    if (expired != null && expired.timerId == timerId) {
+                        flush(destination);
+                    }
+                }
+            });
+        }
+
+        batch.messages.addObject(message.body());
+        batch.replies.add(message);
+        batch.starts.add(System.nanoTime());
+        queueDepth++;
+
+        if (batch.messages.size() >= maxBatchSize) {
+            vertx.cancelTimer(batch.timerId);
+            flush(destination);
+        }
+    }
+
+    /**
+     * Flush the buffers of all destinations.
+     */
+    public void flushAll() {
+        for (String destination : new ArrayList<>(pending.keySet())) {
+            PendingBatch batch = pending.get(destination);
+            vertx.cancelTimer(batch.timerId);
+            flush(destination);
+        }
+    }
+
+    /**
+     * Return the metrics of the coalescer.
+     *
+     * @return Json structure with the current queue depth and the flush counters
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("queue-depth", queueDepth);
+        statistics.putNumber("flushes", flushes);
+        statistics.putNumber("flushed-messages", flushedMessages);
+        statistics.putNumber("failed-messages", failedMessages);
+        statistics.putNumber("last-flush-size", lastFlushSize);
+        statistics.putNumber("max-flush-size", maxFlushSize);
+        statistics.putNumber("average-flush-size", flushes == 0 ? 0 : (double) (flushedMessages + failedMessages) / flushes);
+
+        return statistics;
+    }
+
+    private void flush(final String destination) {
+        final PendingBatch batch = pending.remove(destination);
+
+        executor.execute(destination, new Callable<JsonObject>() {
+            @Override
+            public JsonObject call() throws Exception {
+                return amqClient.sendBatch(destination, batch.messages);
+            }
+        }, new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                flushed(destination, batch, result);
+            }
+        });
+    }
+
+    private void flushed(String destination, PendingBatch batch, AsyncResult<JsonObject> result) {
+        int size = batch.messages.size();
+        queueDepth -= size;
+
+        String[] errors = new String[size];
+        JsonObject[] receipts = new JsonObject[size];
+        int failed = 0;
+        if (result.succeeded()) {
+            for (Object entry : result.result().getArray("receipts")) {
+                JsonObject receipt = (JsonObject) entry;
+                receipts[receipt.getInteger("index")] = receipt;
+                receipt.removeField("index");
+            }
+            for (Object entry : result.result().getArray("failed")) {
+                JsonObject failure = (JsonObject) entry;
+                errors[failure.getInteger("index")] = errorMessage(failure.getString("error"));
+                failed++;
+            }
+        }
+        else {
+            Arrays.fill(errors, errorMessage(result.cause().getMessage()));
+            failed = size;
+        }
+
+        flushes++;
+        flushedMessages += size - failed;
+        failedMessages += failed;
+        lastFlushSize = size;
+        maxFlushSize = Math.max(maxFlushSize, size);
+
+        long now = System.nanoTime();
+        for (int index = 0; index < size; index++) {
+            JsonObject reply;
+            if (errors[index] != null) {
+                reply = new JsonObject();
+                reply.putString("status", "error");
+                reply.putString("message", errors[index]);
+            }
+            else {
+                reply = receipts[index] != null ? receipts[index] : new JsonObject();
+                reply.putString("status", "ok");
+                reply.putNumber("latency-micros", (now - batch.starts.get(index)) / 1000);
+            }
+            batch.replies.get(index).reply(reply);
+        }
+
+        if (failed > 0) {
+            String errorMessage = String.format("%d of %d coalesced messages to queue %s could not be send",
+                    failed, size, destination);
+            logger.error(errorMessage);
+        }
+    }
+
+    private String errorMessage(String error) {
+        return error != null ? error : "message could not be send in coalesced batch";
+    }
+
+    private static class PendingBatch {
+
+        private final JsonArray messages = new JsonArray();
+        private final List<Message<JsonObject>> replies = new ArrayList<>();
+        private final List<Long> starts = new ArrayList<>();
+        private long timerId;
+
+    }
+
+}
@@ -0,0 +1,457 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Schedules single sends by class of service before they are handed to the {@link JmsExecutor}.
+ *
+ * Every destination has its own queue. The destinations are assigned to classes, destinations
+ * without a class belong to the class default. Only max-in-flight sends are handed to the
+ * executor at once, the other sends wait in their queues. When a send completes, the next
+ * send is taken from the class chosen by the policy:
+ *
+ * |===
+ * | policy   | description
+ * |
+ * | weighted | The classes get a share of the sends proportional to their weight (smooth weighted round robin).
+ * | priority | The class with the highest weight is always served first.
+ * |===
+ *
+ * Within a class the destinations are served round robin, so a destination flooded with
+ * messages doesn't delay the other destinations of its class. A destination with a rate limit
+ * is skipped while its rate is exceeded. The sends of one destination keep their order.
+ *
+ * A class may have a jms-priority that is set as JMSPriority on its messages without a
+ * priority field. The time the sends waited in the queues is recorded per class.
+ *
+ * The scheduler is used by the verticle only, so all methods and result handlers are called on
+ * the event loop of the verticle.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SendScheduler {
+
+    public static final String WEIGHTED = "weighted";
+    public static final String PRIORITY = "priority";
+    public static final String DEFAULT_CLASS = "default";
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("enabled", "policy",
+            "max-in-flight", "max-queued", "classes", "rate-limits"));
+    private static final Set<String> CLASS_FIELDS = new HashSet<>(Arrays.asList("weight", "jms-priority",
+            "destinations"));
+
+    private final Vertx vertx;
+    private final ActiveMqClient amqClient;
+    private final JmsExecutor executor;
+    private final String policy;
+    private final int maxInFlight;
+    private final int maxQueued;
+
+    private final Map<String, SendClass> classes = new LinkedHashMap<>();
+    private final Map<String, SendClass> classOfDestination = new HashMap<>();
+    private final Map<String, Integer> rateLimits = new HashMap<>();
+    private final Map<String, DestinationQueue> queues = new HashMap<>();
+
+    private int queued;
+    private int inFlight;
+    private boolean dispatching;
+    private long timerId = -1;
+
+    /**
+     * Create a new scheduler in front of the given client.
+     *
+     * @param vertx Vert.x instance to set the timers of the rate limits with
+     * @param amqClient client to send the messages with
+     * @param executor executor to run the sends on
+     * @param config Json structure with the scheduling field of the configuration
+     */
+    public SendScheduler(Vertx vertx, ActiveMqClient amqClient, JmsExecutor executor, JsonObject config) {
+        ConnectionTuning.checkFields("scheduling", config, FIELDS);
+
+        policy = config.getString("policy", WEIGHTED);
+        if (!WEIGHTED.equals(policy) && !PRIORITY.equals(policy)) {
+            throw new IllegalArgumentException(String.format("unknown scheduling policy %s", policy));
+        }
+        maxInFlight = ConnectionTuning.getInteger(config, "max-in-flight", 16, 1);
+        maxQueued = ConnectionTuning.getInteger(config, "max-queued", 10000, 1);
+
+        JsonObject classesConfig = getObject(config, "classes", "scheduling.classes");
+        for (String name : classesConfig.getFieldNames()) {
+            String path = "scheduling.classes." + name;
+            JsonObject classConfig = getObject(classesConfig, name, path);
+            ConnectionTuning.checkFields(path, classConfig, CLASS_FIELDS);
+
+            SendClass sendClass = new SendClass(name, ConnectionTuning.getInteger(classConfig, "weight", 1, 1),
+                    ConnectionTuning.getInteger(classConfig, "jms-priority", -1, 0));
+            if (sendClass.jmsPriority > 9) {
+                throw new IllegalArgumentException(String.format("%s.jms-priority must be between 0 and 9", path));
+            }
+            classes.put(name, sendClass);
+
+            Object destinations = classConfig.getField("destinations");
+            if (destinations != null && !(destinations instanceof JsonArray)) {
+                throw new IllegalArgumentException(String.format("%s.destinations must be an array", path));
+            }
+            for (Object destination : destinations != null ? (JsonArray) destinations : new JsonArray()) {
+                if (classOfDestination.put(String.valueOf(destination), sendClass) != null) {
+                    throw new IllegalArgumentException(String.format("destination %s is assigned to more than one class",
+                            destination));
+                }
+            }
+        }
+        if (!classes.containsKey(DEFAULT_CLASS)) {
+            classes.put(DEFAULT_CLASS, new SendClass(DEFAULT_CLASS, 1, -1));
+        }
+
+        JsonObject rateLimitsConfig = getObject(config, "rate-limits", "scheduling.rate-limits");
+        for (String destination : rateLimitsConfig.getFieldNames()) {
+            rateLimits.put(destination, ConnectionTuning.getInteger(rateLimitsConfig, destination, 0, 1));
+        }
+
+        this.vertx = vertx;
+        this.amqClient = amqClient;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a message for the given destination.
+     *
+     * @param destination name of the destination / queue
+     * @param message message to send as a Json structure
+     * @param resultHandler handler called with the result of the send
+     */
+    public void send(final String destination, final JsonObject message,
+            Handler<AsyncResult<JsonObject>> resultHandler) {
+        SendClass sendClass = getClass(destination);
+        if (sendClass.jmsPriority >= 0 && message.getField(ActiveMqFieldName.PRIORITY.toString()) == null) {
+            message.putNumber(ActiveMqFieldName.PRIORITY.toString(), sendClass.jmsPriority);
+        }
+
+        enqueue(destination, new JmsExecutor.AsyncTask<JsonObject>() {
+            @Override
+            public void start(Handler<AsyncResult<JsonObject>> completionHandler) {
+                amqClient.send(destination, message, completionHandler);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Queue the content of the Buffer starting at the given offset for the given destination.
+     *
+     * @param destination name of the destination / queue
+     * @param content buffer with the content of the BytesMessage
+     * @param offset position of the first byte of the content in the buffer
+     * @param resultHandler handler called with the result of the send
+     */
+    public void send(final String destination, final Buffer content, final int offset,
+            Handler<AsyncResult<JsonObject>> resultHandler) {
+        enqueue(destination, new JmsExecutor.AsyncTask<JsonObject>() {
+            @Override
+            public void start(Handler<AsyncResult<JsonObject>> completionHandler) {
+                amqClient.send(destination, content, offset, completionHandler);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Return the name of the class of the given destination.
+     *
+     * @param destination name of the destination / queue
+     * @return name of the class the destination is assigned to
+     */
+    public String getClassName(String destination) {
+        return getClass(destination).name;
+    }
+
+    /**
+     * Return the metrics of the scheduler.
+     *
+     * @return Json structure with the queued and in flight sends and the counters and queue wait
+     *          times per class
+     */
+    public JsonObject getStatistics() {
+        JsonObject classStatistics = new JsonObject();
+        for (SendClass sendClass : classes.values()) {
+            JsonObject statistics = new JsonObject();
+            statistics.putNumber("weight", sendClass.weight);
+            statistics.putNumber("queued", sendClass.queued);
+            statistics.putNumber("dispatched", sendClass.dispatched);
+            statistics.putNumber("rejected", sendClass.rejected);
+            statistics.putObject("queue-wait", sendClass.queueWait.getStatistics());
+            classStatistics.putObject(sendClass.name, statistics);
+        }
+
+        JsonObject statistics = new JsonObject();
+        statistics.putString("policy", policy);
+        statistics.putNumber("queued", queued);
+        statistics.putNumber("in-flight", inFlight);
+        statistics.putNumber("max-in-flight", maxInFlight);
+        statistics.putObject("classes", classStatistics);
+
+        return statistics;
+    }
+
+    private SendClass getClass(String destination) {
+        SendClass sendClass = classOfDestination.get(destination);
+        return sendClass != null ? sendClass : classes.get(DEFAULT_CLASS);
+    }
+
+    private void enqueue(String destination, JmsExecutor.AsyncTask<JsonObject> task,
+            Handler<AsyncResult<JsonObject>> resultHandler) {
+        SendClass sendClass = getClass(destination);
+        if (queued >= maxQueued) {
+            sendClass.rejected++;
+            String errorMessage = String.format("%d sends are already queued in the scheduler", queued);
+            resultHandler.handle(new DefaultFutureResult<JsonObject>(new IllegalStateException(errorMessage)));
+            return;
+        }
+
+        DestinationQueue queue = queues.get(destination);
+        if (queue == null) {
+            Integer rateLimit = rateLimits.get(destination);
+            queue = new DestinationQueue(destination, rateLimit != null ? rateLimit : 0);
+            queues.put(destination, queue);
+        }
+
+        queue.sends.add(new PendingSend(destination, task, resultHandler));
+        if (!queue.active) {
+            queue.active = true;
+            sendClass.destinations.add(queue);
+        }
+        sendClass.queued++;
+        queued++;
+
+        dispatch();
+    }
+
+    private void dispatch() {
+        if (dispatching) {
+            return;
+        }
+
+        dispatching = true;
+        try {
+            long now = System.nanoTime();
+            while (inFlight < maxInFlight && queued > 0) {
+                SendClass sendClass = selectClass(now);
+                if (sendClass == null) {
+                    scheduleTimer(now);
+                    break;
+                }
+
+                PendingSend send = take(sendClass, now);
+                queued--;
+                inFlight++;
+                sendClass.queueWait.record(now - send.enqueued);
+                start(send);
+                now = System.nanoTime();
+            }
+        }
+        finally {
+            dispatching = false;
+        }
+    }
+
+    private SendClass selectClass(long now) {
+        SendClass selected = null;
+        int totalWeight = 0;
+        for (SendClass sendClass : classes.values()) {
+            if (!sendClass.isReady(now)) {
+                continue;
+            }
+
+            if (PRIORITY.equals(policy)) {
+                if (selected == null || sendClass.weight > selected.weight) {
+                    selected = sendClass;
+                }
+            }
+            else {
+                sendClass.currentWeight += sendClass.weight;
+                totalWeight += sendClass.weight;
+                if (selected == null || sendClass.currentWeight > selected.currentWeight) {
+                    selected = sendClass;
+                }
+            }
+        }
+
+        if (selected != null) {
+            selected.currentWeight -= totalWeight;
+        }
+
+        return selected;
+    }
+
+    private PendingSend take(SendClass sendClass, long now) {
+        DestinationQueue queue = sendClass.destinations.poll();
+        while (queue.getWait(now) > 0) {
+            sendClass.destinations.add(queue);
+            queue = sendClass.destinations.poll();
+        }
+
+        PendingSend send = queue.take(now);
+        if (queue.sends.isEmpty()) {
+            queue.active = false;
+            if (queue.interval == 0) {
+                queues.remove(queue.destination);
+            }
+        }
+        else {
+            sendClass.destinations.add(queue);
+        }
+        sendClass.queued--;
+        sendClass.dispatched++;
+
+        return send;
+    }
+
+    private void start(final PendingSend send) {
+        executor.executeAsync(send.destination, send.task, new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                inFlight--;
+                send.resultHandler.handle(result);
+                dispatch();
+            }
+        });
+    }
+
+    private void scheduleTimer(long now) {
+        if (timerId != -1) {
+            return;
+        }
+
+        long wait = Long.MAX_VALUE;
+        for (SendClass sendClass : classes.values()) {
+            for (DestinationQueue queue : sendClass.destinations) {
+                wait = Math.min(wait, queue.getWait(now));
+            }
+        }
+
+        timerId = vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)), new Handler<Long>() {
+            @Override
+            public void handle(Long event) {
+                timerId = -1;
+                dispatch();
+            }
+        });
+    }
+
+    private static JsonObject getObject(JsonObject config, String field, String path) {
+        Object value = config.getField(field);
+        if (value != null && !(value instanceof JsonObject)) {
+            throw new IllegalArgumentException(String.format("%s must be an object", path));
+        }
+
+        return value != null ? (JsonObject) value : new JsonObject();
+    }
+
+    private static class SendClass {
+
+        private final String name;
+        private final int weight;
+        private final int jmsPriority;
+        private final ArrayDeque<DestinationQueue> destinations = new ArrayDeque<>();
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+
+        private int currentWeight;
+        private int queued;
+        private long dispatched;
+        private long rejected;
+
+        private SendClass(String name, int weight, int jmsPriority) {
+            this.name = name;
+            this.weight = weight;
+            this.jmsPriority = jmsPriority;
+        }
+
+        private boolean isReady(long now) {
+            for (DestinationQueue queue : destinations) {
+                if (queue.getWait(now) == 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+    private static class DestinationQueue {
+
+        private final String destination;
+        private final long interval;
+        private final ArrayDeque<PendingSend> sends = new ArrayDeque<>();
+        private boolean active;
+        private long nextSend;
+
+        private DestinationQueue(String destination, int rateLimit) {
+            this.destination = destination;
+            interval = rateLimit > 0 ? TimeUnit.SECONDS.toNanos(1) / rateLimit : 0;
+            // nanoTime has an arbitrary origin, the bucket starts full like after an idle period
+            nextSend = System.nanoTime() - TimeUnit.SECONDS.toNanos(1) + interval;
+        }
+
+        private long getWait(long now) {
+            return interval == 0 || nextSend - now <= 0 ? 0 : nextSend - now;
+        }
+
+        private PendingSend take(long now) {
+            if (interval > 0) {
+                long burstStart = now - TimeUnit.SECONDS.toNanos(1) + interval;
+                nextSend = (nextSend - burstStart > 0 ? nextSend : burstStart) + interval;
+            }
+
+            return sends.poll();
+        }
+
+    }
+
+    private static class PendingSend {
+
+        private final String destination;
+        private final JmsExecutor.AsyncTask<JsonObject> task;
+        private final Handler<AsyncResult<JsonObject>> resultHandler;
+        private final long enqueued = System.nanoTime();
+
+        private PendingSend(String destination, JmsExecutor.AsyncTask<JsonObject> task,
+                Handler<AsyncResult<JsonObject>> resultHandler) {
+            this.destination = destination;
+            this.task = task;
+            this.resultHandler = resultHandler;
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.transport.TransportListener;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Pool of connections and sessions to the ActiveMQ broker.
+ *
+ * The pool opens the configured number of connections and on each connection the configured
+ * number of sessions for sending. A destination is always mapped to the same pooled session.
+ * So the order of messages to one destination is kept and the producers for the destination
+ * are cached in only one session.
+ *
+ * For every send session there is a transacted session on the same connection. The transacted
+ * sessions are handed out round robin to send batches of messages with a single commit.
+ *
+ * Consumers get their own sessions, because the listener of a consumer is called by the
+ * dispatch thread of ActiveMQ. These sessions are created round robin on the connections of
+ * the pool and are owned by the caller.
+ *
+ * If a client ID is configured, the first connection gets this client ID and the other
+ * connections the client ID with their number appended. Durable subscriptions belong to the
+ * client ID of their connection, so their sessions are always created on the first connection.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SessionPool {
+
+    private final ClientConfig config;
+    private final ConverterRegistry registry;
+    private final Logger logger;
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<PooledSession> sendSessions = new ArrayList<>();
+    private final List<PooledSession> transactedSessions = new ArrayList<>();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final AtomicInteger nextTransactedSession = new AtomicInteger();
+
+    public SessionPool(ClientConfig config, ConverterRegistry registry, Logger logger) {
+        this.config = config;
+        this.registry = registry;
+        this.logger = logger;
+    }
+
+    /**
+     * Open all connections and send sessions of the pool.
+     *
+     * If one of the connections could not be opened, the connections already opened are closed.
+     *
+     * @param connectionFactory factory to create the connections with
+     * @throws JMSException if a connection or session could not be opened
+     */
+    public void open(ConnectionFactory connectionFactory) throws JMSException {
+        try {
+            for (int i = 0; i < config.getConnections(); i++) {
+                Connection connection = connectionFactory.createConnection();
+                connections.add(connection);
+                if (config.getClientId() != null) {
+                    connection.setClientID(i == 0 ? config.getClientId() : config.getClientId() + "-" + i);
+                }
+                connection.start();
+
+                for (int j = 0; j < config.getSessionsPerConnection(); j++) {
+                    Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    sendSessions.add(new PooledSession(session, config, registry, logger));
+
+                    Session transactedSession = connection.createSession(true, Session.SESSION_TRANSACTED);
+                    transactedSessions.add(new PooledSession(transactedSession, config, registry, logger));
+                }
+            }
+        }
+        catch (JMSException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close all sessions and connections of the pool.
+     *
+     * Closing a connection closes the sessions of the consumers too.
+     */
+    public void close() {
+        for (PooledSession pooledSession : sendSessions) {
+            pooledSession.close();
+        }
+        sendSessions.clear();
+        for (PooledSession pooledSession : transactedSessions) {
+            pooledSession.close();
+        }
+        transactedSessions.clear();
+
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            }
+            catch (JMSException e) {
+                logger.error("Error closing connection to ActiveMQ Broker", e);
+            }
+        }
+        connections.clear();
+    }
+
+    /**
+     * Add a listener for interruptions and resumptions of the transport to all connections.
+     *
+     * @param transportListener listener to add
+     */
+    public void addTransportListener(TransportListener transportListener) {
+        for (Connection connection : connections) {
+            if (connection instanceof ActiveMQConnection) {
+                ((ActiveMQConnection) connection).addTransportListener(transportListener);
+            }
+        }
+    }
+
+    /**
+     * Return the pooled session to send messages to the given destination.
+     *
+     * The caller must synchronize on the returned object while using it.
+     *
+     * @param destination name of the destination / queue
+     * @return pooled session assigned to the destination
+     */
+    public PooledSession getSendSession(String destination) {
+        int index = (destination.hashCode() & Integer.MAX_VALUE) % sendSessions.size();
+
+        return sendSessions.get(index);
+    }
+
+    /**
+     * Return the next transacted session of the pool.
+     *
+     * The caller must synchronize on the returned object while using it and must commit or
+     * rollback the session before releasing the monitor.
+     *
+     * @return pooled transacted session
+     */
+    public PooledSession getTransactedSession() {
+        int index = (nextTransactedSession.getAndIncrement() & Integer.MAX_VALUE) % transactedSessions.size();
+
+        return transactedSessions.get(index);
+    }
+
+    /**
+     * Create a new session for a consumer.
+     *
+     * The session belongs to the caller and must not be shared with other threads.
+     *
+     * @param transacted create a transacted session, e.g. to commit a batch of received messages
+     * @return new AUTO_ACKNOWLEDGE or transacted session
+     * @throws JMSException if the session could not be created
+     */
+    public Session createConsumerSession(boolean transacted) throws JMSException {
+        int index = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.size();
+
+        return createSession(connections.get(index), transacted);
+    }
+
+    /**
+     * Create a new session for a durable subscription on the connection with the configured
+     * client ID.
+     *
+     * The session belongs to the caller and must not be shared with other threads.
+     *
+     * @param transacted create a transacted session, e.g. to commit a batch of received messages
+     * @return new AUTO_ACKNOWLEDGE or transacted session
+     * @throws JMSException if the session could not be created or no client ID is configured
+     */
+    public Session createDurableSession(boolean transacted) throws JMSException {
+        if (config.getClientId() == null) {
+            throw new JMSException("durable subscriptions need a client-id in the configuration");
+        }
+
+        return createSession(connections.get(0), transacted);
+    }
+
+    /**
+     * Return the summed up counters of the producer caches of all send sessions.
+     *
+     * @return Json structure with the statistics of the producer caches
+     */
+    public JsonObject getProducerCacheStatistics() {
+        long size = 0;
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        for (PooledSession pooledSession : sendSessions) {
+            JsonObject cacheStatistics = pooledSession.getProducerCache().getStatistics();
+            size += cacheStatistics.getLong("size");
+            hits += cacheStatistics.getLong("hits");
+            misses += cacheStatistics.getLong("misses");
+            evictions += cacheStatistics.getLong("evictions");
+        }
+
+        JsonObject statistics = new JsonObject();
+        statistics.putNumber("size", size);
+        statistics.putNumber("hits", hits);
+        statistics.putNumber("misses", misses);
+        statistics.putNumber("evictions", evictions);
+
+        return statistics;
+    }
+
+    private static Session createSession(Connection connection, boolean transacted) throws JMSException {
+        return transacted ? connection.createSession(true, Session.SESSION_TRANSACTED)
+                : connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+}
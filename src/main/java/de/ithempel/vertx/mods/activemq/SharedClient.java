@@ -0,0 +1,176 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Client to the broker shared by the instances of the module in one JVM.
+ *
+ * A module deployed with several instances gets one verticle per event loop. Instead of opening
+ * its own connections, executor and subscriptions every instance acquires the shared client of
+ * its configuration. The first instance connects to the broker, the others only increase the
+ * reference count. The last instance releasing the client closes the subscriptions, stops the
+ * executor and disconnects.
+ *
+ * The subscriptions are kept in one {@link SubscriptionRegistry} for all instances. The event
+ * bus hands a subscribe command to only one of the instances and a repeated command, handled
+ * by another instance, finds the existing subscription. So the messages of a destination are
+ * delivered once per subscriber address regardless of the number of instances.
+ *
+ * Instances with different configurations, e.g. other brokers, get different clients. With
+ * shared-client set to false in the configuration every instance gets a client of its own.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SharedClient {
+
+    private static final Map<String, SharedClient> CLIENTS = new HashMap<>();
+
+    private final String key;
+    private final Object owner;
+    private final ClientConfig config;
+    private final ActiveMqClient client;
+    private final JmsExecutor executor;
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+
+    private int references;
+
+    private SharedClient(String key, Object owner, ClientConfig config, ActiveMqClient client,
+            JmsExecutor executor) {
+        this.key = key;
+        this.owner = owner;
+        this.config = config;
+        this.client = client;
+        this.executor = executor;
+    }
+
+    /**
+     * Acquire the client for the given configuration.
+     *
+     * If there is no client for the configuration yet, a new one is created and connected to
+     * the broker. The caller waits while another instance connects the client.
+     *
+     * @param instance instance of the module acquiring the client
+     * @param vertx Vert.x instance for the executor of the client
+     * @param logger logger of the client
+     * @param moduleConfig configuration of the module
+     * @return client for the configuration, null if the connection to the broker failed
+     */
+    public static SharedClient acquire(Object instance, Vertx vertx, Logger logger, JsonObject moduleConfig) {
+        boolean shared = moduleConfig.getBoolean("shared-client", true);
+        String key = moduleConfig.encode();
+
+        synchronized (CLIENTS) {
+            SharedClient sharedClient = shared ? CLIENTS.get(key) : null;
+            if (sharedClient == null) {
+                ClientConfig config = new ClientConfig(moduleConfig);
+                ActiveMqClient client = new ActiveMqClient(logger, config);
+                if (!client.connect()) {
+                    client.disconnect();
+                    return null;
+                }
+
+                JmsExecutor executor = new JmsExecutor(vertx, logger, moduleConfig.getInteger("io-threads", 4),
+                        moduleConfig.getInteger("io-queue-size", 1024));
+                sharedClient = new SharedClient(shared ? key : null, instance, config, client, executor);
+                if (shared) {
+                    CLIENTS.put(key, sharedClient);
+                }
+            }
+            else {
+                String debugMessage = String.format("Sharing the connection to %s with %d other instances",
+                        sharedClient.config.getBrokerUrl(), sharedClient.references);
+                logger.debug(debugMessage);
+            }
+
+            sharedClient.references++;
+            return sharedClient;
+        }
+    }
+
+    /**
+     * Release the client acquired by an instance.
+     *
+     * When the last instance released the client, the subscriptions are closed, the queued
+     * calls of the executor are finished and the connections to the broker are closed.
+     */
+    public void release() {
+        synchronized (CLIENTS) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            if (key != null) {
+                CLIENTS.remove(key);
+            }
+        }
+
+        for (Subscription subscription : subscriptions.removeAll()) {
+            subscription.close();
+        }
+        executor.shutdown(5000);
+        client.disconnect();
+    }
+
+    /**
+     * Check if the given instance created the client.
+     *
+     * Tasks that should run once per client, like publishing the statistics, are only done by
+     * the instance that created it.
+     *
+     * @param instance instance of the module
+     * @return true if the instance created the client
+     */
+    public boolean isOwner(Object instance) {
+        return owner == instance;
+    }
+
+    /**
+     * Return the number of instances using the client.
+     *
+     * @return number of instances that acquired and not yet released the client
+     */
+    public int getReferences() {
+        synchronized (CLIENTS) {
+            return references;
+        }
+    }
+
+    public ClientConfig getConfig() {
+        return config;
+    }
+
+    public ActiveMqClient getClient() {
+        return client;
+    }
+
+    public JmsExecutor getExecutor() {
+        return executor;
+    }
+
+    public SubscriptionRegistry getSubscriptions() {
+        return subscriptions;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts a JsonArray body into a StreamMessage and back.
+ *
+ * Every element of the array is written as one value of the stream. A StreamMessage only
+ * holds primitive values, Strings and byte arrays, so the array must not contain objects or
+ * arrays.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class StreamBodyConverter implements BodyConverter {
+
+    public static final String NAME = "stream";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageType() {
+        return StreamMessage.class;
+    }
+
+    @Override
+    public boolean canConvert(Object body) {
+        return body instanceof JsonArray;
+    }
+
+    @Override
+    public Message toMessage(Session session, JsonObject source) throws JMSException {
+        JsonArray arrayContent = source.getArray(ActiveMqFieldName.BODY.toString());
+
+        StreamMessage streamMessage = session.createStreamMessage();
+        for (Object element : arrayContent) {
+            if (element instanceof JsonObject || element instanceof JsonArray) {
+                throw new JMSException("A StreamMessage can't contain objects or arrays");
+            }
+
+            streamMessage.writeObject(element);
+        }
+
+        return streamMessage;
+    }
+
+    @Override
+    public void toJson(Message source, JsonObject target) throws JMSException {
+        StreamMessage streamMessage = (StreamMessage) source;
+
+        JsonArray arrayContent = new JsonArray();
+        try {
+            while (true) {
+                arrayContent.add(streamMessage.readObject());
+            }
+        }
+        catch (MessageEOFException e) {
+            // end of the stream
+        }
+
+        target.putArray(ActiveMqFieldName.BODY.toString(), arrayContent);
+    }
+
+}
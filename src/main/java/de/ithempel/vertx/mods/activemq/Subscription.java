@@ -0,0 +1,176 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * The consumers of one subscription to a destination.
+ *
+ * Every consumer of the subscription has its own session and with it its own dispatch thread.
+ * Closing the subscription closes the flow control first, so dispatch threads waiting for a
+ * credit return without acknowledging their message. Then the consumers are stopped, so they
+ * don't dispatch further messages, and the sessions are closed together with their consumers.
+ * A consumer can't be stopped while its listener waits, because the listener holds the lock of
+ * the dispatch channel. A durable subscription stays on the broker when it is closed.
+ *
+ * ActiveMQ counts a message returned by a waiting dispatch thread as a redelivery. It doesn't
+ * reach the {@link PoisonMessageHandler}, but a message that waited for a credit while its
+ * subscription was closed more often than the maximum redeliveries goes to the dead letter
+ * queue of the broker.
+ *
+ * The consumers of a subscription in low-latency mode or receiving batches have a
+ * {@link PollingReceiver} or {@link BatchReceiver} each instead of a message listener. The
+ * receivers are stopped before the sessions are closed.
+ *
+ * The {@link PoisonMessageHandler} of the subscription counts the messages that could not be
+ * delivered and holds the circuit breaker of the subscription.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class Subscription {
+
+    private final String destination;
+    private final String durableName;
+    private final List<Session> sessions;
+    private final FlowControl flowControl;
+    private final List<PollingReceiver> receivers;
+    private final PoisonMessageHandler poisonMessages;
+    private final Logger logger;
+
+    private boolean closed;
+
+    public Subscription(String destination, String durableName, List<Session> sessions,
+            FlowControl flowControl, Logger logger) {
+        this(destination, durableName, sessions, Collections.<PollingReceiver> emptyList(), flowControl, null,
+                logger);
+    }
+
+    public Subscription(String destination, String durableName, List<Session> sessions,
+            List<PollingReceiver> receivers, FlowControl flowControl, PoisonMessageHandler poisonMessages,
+            Logger logger) {
+        this.destination = destination;
+        this.durableName = durableName;
+        this.sessions = sessions;
+        this.receivers = receivers;
+        this.flowControl = flowControl;
+        this.poisonMessages = poisonMessages;
+        this.logger = logger;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * Return the name of the durable subscription.
+     *
+     * @return name of the durable subscription, null if the subscription is not durable
+     */
+    public String getDurableName() {
+        return durableName;
+    }
+
+    /**
+     * Return the flow control of the subscription.
+     *
+     * @return flow control with the credits of the subscription, null if the credits are not limited
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    public int getConsumers() {
+        return sessions.size();
+    }
+
+    /**
+     * Close the consumers and sessions of the subscription.
+     *
+     * The call blocks until the listeners of the consumers have returned.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (flowControl != null) {
+            flowControl.close();
+        }
+        if (poisonMessages != null) {
+            poisonMessages.close();
+        }
+        for (PollingReceiver receiver : receivers) {
+            receiver.close();
+        }
+
+        for (Session session : sessions) {
+            try {
+                session.close();
+            }
+            catch (JMSException e) {
+                String errorMessage = String.format("Error closing consumer session of queue %s", destination);
+                logger.error(errorMessage, e);
+            }
+        }
+    }
+
+    /**
+     * Return the number of consumers, the state of the flow control and the failed messages.
+     *
+     * @return Json structure with the statistics of the subscription
+     */
+    public JsonObject getStatistics() {
+        JsonObject statistics = new JsonObject();
+        statistics.putString(ActiveMqFieldName.DESTINATION.toString(), destination);
+        statistics.putNumber("consumers", sessions.size());
+        if (durableName != null) {
+            statistics.putString(ActiveMqFieldName.SUBSCRIPTION_NAME.toString(), durableName);
+        }
+        if (flowControl != null) {
+            statistics.putObject("flow-control", flowControl.getStatistics());
+        }
+        if (poisonMessages != null) {
+            statistics.putObject("failures", poisonMessages.getStatistics());
+        }
+        if (!receivers.isEmpty() && receivers.get(0) instanceof BatchReceiver) {
+            long committed = 0;
+            long rolledBack = 0;
+            for (PollingReceiver receiver : receivers) {
+                JsonObject receiverStatistics = ((BatchReceiver) receiver).getStatistics();
+                committed += receiverStatistics.getLong("committed");
+                rolledBack += receiverStatistics.getLong("rolled-back");
+            }
+            JsonObject batches = new JsonObject();
+            batches.putNumber("committed", committed);
+            batches.putNumber("rolled-back", rolledBack);
+            statistics.putObject("batches", batches);
+        }
+
+        return statistics;
+    }
+
+}
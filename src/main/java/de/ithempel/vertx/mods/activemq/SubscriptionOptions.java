@@ -0,0 +1,237 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Options of a subscription read from the subscribe command.
+ *
+ * |===
+ * | field          | default | description
+ * |
+ * | raw            | false   | Hand the content of BytesMessages to the subscriber as Buffer.
+ * | credits        | 0       | Maximum number of messages in flight to the subscriber, 0 for no limit.
+ * | credit-timeout | 30000   | Milliseconds after which an unanswered message returns its credit.
+ * | concurrency    | 1       | Number of consumers receiving the messages of the destination in parallel.
+ * | selector       |         | JMS message selector evaluated by the broker.
+ * | durable        | false   | Create a durable subscription to a topic.
+ * | subscription-name | subscriber-address | Name of the durable subscription.
+ * | fields         |         | Names of the entries of MapMessages to convert, all entries if not set.
+ * | headers        | true    | Put the headers and properties of the messages into the Json messages.
+ * | stream-chunks  | false   | Hand the chunks of large bodies to the subscriber one by one instead of reassembling them.
+ * | group          |         | Consumer group sharing the messages of a virtual topic.
+ * | batch-size     | 0       | Maximum number of messages handed to the subscriber as one batch, 0 for single messages.
+ * | batch-timeout  | 100     | Milliseconds to wait for further messages after the first message of a batch.
+ * | confirm-timeout | 30000  | Milliseconds after which a batch not confirmed by the subscriber is rolled back.
+ * | low-latency    | false   | Receive with a synchronous receive loop on a dedicated thread per consumer.
+ * |===
+ *
+ * A durable subscription has a single consumer, so it can't be combined with a concurrency
+ * above 1. The queue of a consumer group keeps the messages like a durable subscription, so a
+ * subscription can't be both.
+ *
+ * Batches are confirmed by the reply of the subscriber to the whole batch. So they can't be
+ * combined with credits, and in raw mode the Buffers can't be put into a batch. Batches are
+ * always received by a receive loop, so they can't be combined with low-latency.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SubscriptionOptions {
+
+    private final boolean raw;
+    private final FlowControl flowControl;
+    private final long creditTimeout;
+    private final int concurrency;
+    private final String selector;
+    private final String durableName;
+    private final List<String> fields;
+    private final boolean headers;
+    private final boolean streamChunks;
+    private final String group;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final long confirmTimeout;
+    private final boolean lowLatency;
+
+    public SubscriptionOptions(JsonObject command) {
+        raw = command.getBoolean(ActiveMqFieldName.RAW.toString(), false);
+        int credits = command.getInteger(ActiveMqFieldName.CREDITS.toString(), 0);
+        creditTimeout = command.getLong(ActiveMqFieldName.CREDIT_TIMEOUT.toString(), 30000);
+        concurrency = command.getInteger(ActiveMqFieldName.CONCURRENCY.toString(), 1);
+        selector = command.getString(ActiveMqFieldName.SELECTOR.toString());
+        headers = command.getBoolean(ActiveMqFieldName.HEADERS.toString(), true);
+        streamChunks = command.getBoolean(ActiveMqFieldName.STREAM_CHUNKS.toString(), false);
+        group = command.getString(ActiveMqFieldName.GROUP.toString());
+        batchSize = command.getInteger(ActiveMqFieldName.BATCH_SIZE.toString(), 0);
+        batchTimeout = command.getLong(ActiveMqFieldName.BATCH_TIMEOUT.toString(), 100);
+        confirmTimeout = command.getLong(ActiveMqFieldName.CONFIRM_TIMEOUT.toString(), 30000);
+        lowLatency = command.getBoolean(ActiveMqFieldName.LOW_LATENCY.toString(), false);
+        JsonArray fieldNames = command.getArray(ActiveMqFieldName.FIELDS.toString());
+        boolean durable = command.getBoolean(ActiveMqFieldName.DURABLE.toString(), false);
+        durableName = durable ? command.getString(ActiveMqFieldName.SUBSCRIPTION_NAME.toString(),
+                command.getString(ActiveMqFieldName.SUBSCRIBER_ADDRESS.toString())) : null;
+
+        if (credits < 0) {
+            throw new IllegalArgumentException("credits must not be negative");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if (durable && durableName == null) {
+            throw new IllegalArgumentException("durable subscriptions need a subscription-name");
+        }
+        if (durable && concurrency > 1) {
+            throw new IllegalArgumentException("durable subscriptions can't have a concurrency above 1");
+        }
+        if (durable && group != null) {
+            throw new IllegalArgumentException("durable subscriptions can't be part of a consumer group");
+        }
+        if (group != null && (group.isEmpty() || group.indexOf('.') >= 0)) {
+            throw new IllegalArgumentException("group must be a name without dots");
+        }
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batch-size must not be negative");
+        }
+        if (batchTimeout < 0) {
+            throw new IllegalArgumentException("batch-timeout must not be negative");
+        }
+        if (confirmTimeout < 1) {
+            throw new IllegalArgumentException("confirm-timeout must be at least 1 millisecond");
+        }
+        if (batchSize > 0 && credits > 0) {
+            throw new IllegalArgumentException("batches can't be combined with credits");
+        }
+        if (batchSize > 0 && raw) {
+            throw new IllegalArgumentException("batches can't be combined with raw");
+        }
+        if (batchSize > 0 && lowLatency) {
+            throw new IllegalArgumentException("batches can't be combined with low-latency");
+        }
+
+        flowControl = credits > 0 ? new FlowControl(credits) : null;
+
+        if (fieldNames != null) {
+            fields = new ArrayList<>(fieldNames.size());
+            for (Object fieldName : fieldNames) {
+                if (!(fieldName instanceof String)) {
+                    throw new IllegalArgumentException("fields must only contain names of map entries");
+                }
+                fields.add((String) fieldName);
+            }
+        }
+        else {
+            fields = null;
+        }
+    }
+
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * Return the flow control of the subscription.
+     *
+     * @return flow control with the credits of the subscription, null if the credits are not limited
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    public long getCreditTimeout() {
+        return creditTimeout;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Return the message selector of the subscription.
+     *
+     * @return selector or null to receive all messages
+     */
+    public String getSelector() {
+        return selector;
+    }
+
+    /**
+     * Return the name of the durable subscription.
+     *
+     * @return name of the durable subscription, null if the subscription is not durable
+     */
+    public String getDurableName() {
+        return durableName;
+    }
+
+    /**
+     * Return the names of the entries of MapMessages to convert.
+     *
+     * @return names of the entries, null to convert all entries
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public boolean isHeaders() {
+        return headers;
+    }
+
+    public boolean isStreamChunks() {
+        return streamChunks;
+    }
+
+    /**
+     * Return the consumer group of a subscription to a virtual topic.
+     *
+     * @return name of the consumer group, null to subscribe to the destination itself
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Check if the messages are handed to the subscriber in batches.
+     *
+     * @return true if a batch size is set
+     */
+    public boolean isBatch() {
+        return batchSize > 0;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    public long getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Registry of the subscriptions of the module keyed by destination and subscriber address.
+ *
+ * A subscription is reserved before its consumers are created. So a second subscribe command
+ * for the same destination and subscriber address is detected even while the consumers of the
+ * first one are still being created, and no duplicate consumers are opened.
+ *
+ * The registry is shared by the instances of the module in one JVM (see {@link SharedClient}),
+ * so all methods are synchronized.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SubscriptionRegistry {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Reserve the subscription of the subscriber address to the destination.
+     *
+     * @param destination name of the destination / queue
+     * @param subscriberAddress address of the subscriber on the event bus
+     * @return true if reserved, false if there is already a subscription or a reservation
+     */
+    public synchronized boolean reserve(String destination, String subscriberAddress) {
+        String key = key(destination, subscriberAddress);
+        if (entries.containsKey(key)) {
+            return false;
+        }
+
+        entries.put(key, new Entry(subscriberAddress));
+        return true;
+    }
+
+    /**
+     * Store the subscription created for a reservation.
+     *
+     * @param destination name of the destination / queue
+     * @param subscriberAddress address of the subscriber on the event bus
+     * @param subscription subscription with the consumers
+     * @return true if stored, false if the reservation was removed in the meantime
+     */
+    public synchronized boolean activate(String destination, String subscriberAddress, Subscription subscription) {
+        Entry entry = entries.get(key(destination, subscriberAddress));
+        if (entry == null) {
+            return false;
+        }
+
+        entry.subscription = subscription;
+        return true;
+    }
+
+    /**
+     * Remove the subscription or reservation of the subscriber address to the destination.
+     *
+     * @param destination name of the destination / queue
+     * @param subscriberAddress address of the subscriber on the event bus
+     * @return removed subscription, null if there was none or it was only reserved
+     */
+    public synchronized Subscription remove(String destination, String subscriberAddress) {
+        Entry entry = entries.remove(key(destination, subscriberAddress));
+
+        return entry != null ? entry.subscription : null;
+    }
+
+    /**
+     * Check if the subscriber address is subscribed to the destination.
+     *
+     * @param destination name of the destination / queue
+     * @param subscriberAddress address of the subscriber on the event bus
+     * @return true if the subscription exists or is reserved
+     */
+    public synchronized boolean contains(String destination, String subscriberAddress) {
+        return entries.containsKey(key(destination, subscriberAddress));
+    }
+
+    /**
+     * Remove all subscriptions and reservations.
+     *
+     * @return removed subscriptions
+     */
+    public synchronized List<Subscription> removeAll() {
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.subscription != null) {
+                subscriptions.add(entry.subscription);
+            }
+        }
+        entries.clear();
+
+        return subscriptions;
+    }
+
+    /**
+     * Return the active subscriptions.
+     *
+     * @return array with destination, subscriber address, number of consumers and the flow
+     *          control of each subscription
+     */
+    public synchronized JsonArray list() {
+        JsonArray subscriptions = new JsonArray();
+        for (Entry entry : entries.values()) {
+            if (entry.subscription != null) {
+                JsonObject subscription = entry.subscription.getStatistics();
+                subscription.putString(ActiveMqFieldName.SUBSCRIBER_ADDRESS.toString(), entry.subscriberAddress);
+                subscriptions.addObject(subscription);
+            }
+        }
+
+        return subscriptions;
+    }
+
+    /**
+     * Return the state of the flow controls of the subscriptions with credits.
+     *
+     * @return Json structure with the flow controls keyed by destination and subscriber address
+     */
+    public synchronized JsonObject getFlowControlStatistics() {
+        JsonObject statistics = new JsonObject();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Subscription subscription = entry.getValue().subscription;
+            if (subscription != null && subscription.getFlowControl() != null) {
+                statistics.putObject(entry.getKey(), subscription.getFlowControl().getStatistics());
+            }
+        }
+
+        return statistics;
+    }
+
+    private static String key(String destination, String subscriberAddress) {
+        return destination + " -> " + subscriberAddress;
+    }
+
+    private static class Entry {
+
+        private final String subscriberAddress;
+        private Subscription subscription;
+
+        Entry(String subscriberAddress) {
+            this.subscriberAddress = subscriberAddress;
+        }
+
+    }
+
+}
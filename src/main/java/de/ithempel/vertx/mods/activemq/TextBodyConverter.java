@@ -0,0 +1,64 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Converts a String body into a TextMessage and back.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class TextBodyConverter implements BodyConverter {
+
+    public static final String NAME = "text";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Class<? extends Message> getMessageType() {
+        return TextMessage.class;
+    }
+
+    @Override
+    public boolean canConvert(Object body) {
+        return body instanceof String;
+    }
+
+    @Override
+    public Message toMessage(Session session, JsonObject source) throws JMSException {
+        TextMessage textMessage = session.createTextMessage();
+        textMessage.setText(source.getString(ActiveMqFieldName.BODY.toString()));
+
+        return textMessage;
+    }
+
+    @Override
+    public void toJson(Message source, JsonObject target) throws JMSException {
+        target.putString(ActiveMqFieldName.BODY.toString(), ((TextMessage) source).getText());
+    }
+
+}
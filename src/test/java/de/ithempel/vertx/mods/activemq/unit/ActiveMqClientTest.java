@@ -0,0 +1,667 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.TransactionId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.BatchReceiver;
+import de.ithempel.vertx.mods.activemq.CircuitBreaker;
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.PoisonMessageHandler;
+import de.ithempel.vertx.mods.activemq.Subscription;
+import de.ithempel.vertx.mods.activemq.SubscriptionOptions;
+
+/**
+ * Unit Tests for the {@link ActiveMqClient} class with an embedded broker.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ActiveMqClientTest {
+
+    private BrokerService broker;
+    private JsonObject config;
+    private ActiveMqClient client;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    private final BlockingQueue<AsyncResult<JsonObject>> results = new LinkedBlockingQueue<>();
+    private final AtomicInteger commits = new AtomicInteger();
+    private volatile boolean failCommits;
+
+    @Before
+    public void setup() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPlugins(new BrokerPlugin[] { new CommitCountingPlugin() });
+        broker.addConnector("tcp://localhost:0");
+        broker.start();
+        broker.waitUntilStarted();
+
+        config = new JsonObject();
+        config.putNumber("port", broker.getTransportConnectors().get(0).getConnectUri().getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void reportMessageIdAndTimingOfAsyncSend() throws Exception {
+        config.putBoolean("async-send", true);
+        config.putNumber("max-in-flight-sends", 4);
+        connect();
+
+        for (int i = 0; i < 20; i++) {
+            client.send("QUEUE", new JsonObject().putString("body", "message " + i), resultHandler());
+        }
+
+        for (int i = 0; i < 20; i++) {
+            JsonObject receipt = results.poll(5, TimeUnit.SECONDS).result();
+            assertThat(receipt.getBoolean("buffered"), equalTo(false));
+            assertThat(receipt.getString("message-id"), notNullValue());
+            assertTrue(receipt.getLong("send-micros") >= 0);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThat(((JsonObject) received.poll(5, TimeUnit.SECONDS)).getString("body"), equalTo("message " + i));
+        }
+        assertThat(client.getInFlightStatistics().getInteger("in-flight"), equalTo(0));
+    }
+
+    @Test
+    public void reportMessageIdOfSyncSend() throws Exception {
+        connect();
+
+        client.send("QUEUE", new Buffer("content"), 0, resultHandler());
+
+        AsyncResult<JsonObject> result = results.poll(5, TimeUnit.SECONDS);
+        assertThat(result.succeeded(), equalTo(true));
+        assertThat(result.result().getString("message-id"), notNullValue());
+        assertThat(received.poll(5, TimeUnit.SECONDS), notNullValue());
+    }
+
+    @Test
+    public void sendWithPriorityTimeToLiveAndDeliveryMode() throws Exception {
+        connect();
+
+        client.send("QUEUE", new JsonObject().putString("body", "content").putNumber("priority", 7)
+                .putNumber("time-to-live", 60000).putBoolean("persistent", false), resultHandler());
+
+        assertThat(results.poll(5, TimeUnit.SECONDS).succeeded(), equalTo(true));
+        JsonObject message = (JsonObject) received.poll(5, TimeUnit.SECONDS);
+        assertThat(message.getInteger("priority"), equalTo(7));
+        assertThat(message.getBoolean("persistent"), equalTo(false));
+        assertTrue(message.getLong("expiration") > System.currentTimeMillis());
+    }
+
+    @Test
+    public void rejectPriorityOutOfRange() throws Exception {
+        connect();
+
+        client.send("QUEUE", new JsonObject().putString("body", "content").putNumber("priority", 10), resultHandler());
+
+        assertThat(results.poll(5, TimeUnit.SECONDS).failed(), equalTo(true));
+    }
+
+    @Test
+    public void reportFailureOfConversion() throws Exception {
+        connect();
+
+        client.send("QUEUE", new JsonObject().putNumber("body", 1).putString("body-type", "unknown"), resultHandler());
+
+        AsyncResult<JsonObject> result = results.poll(5, TimeUnit.SECONDS);
+        assertThat(result.failed(), equalTo(true));
+    }
+
+    @Test
+    public void reportEntriesOfBatchThatAreNoJsonObjects() throws Exception {
+        connect();
+        JsonArray messages = new JsonArray().addString("no object")
+                .addObject(new JsonObject().putString("body", "content"));
+
+        JsonObject result = client.sendBatch("QUEUE", messages);
+
+        assertThat(result.getInteger("sent"), equalTo(1));
+        JsonArray failed = result.getArray("failed");
+        assertThat(failed.size(), equalTo(1));
+        assertThat(((JsonObject) failed.get(0)).getInteger("index"), equalTo(0));
+        assertThat(((JsonObject) failed.get(0)).getString("error"), equalTo("entry is not a Json object"));
+        assertThat(((JsonObject) received.poll(5, TimeUnit.SECONDS)).getString("body"), equalTo("content"));
+    }
+
+    @Test
+    public void reportEntriesOfBatchWithoutDestination() throws Exception {
+        connect();
+        JsonArray messages = new JsonArray().addObject(new JsonObject().putString("body", "content"))
+                .addObject(new JsonObject().putString("body", "content").putString("destination", "QUEUE"));
+
+        JsonObject result = client.sendBatch(null, messages);
+
+        assertThat(result.getInteger("sent"), equalTo(1));
+        JsonArray failed = result.getArray("failed");
+        assertThat(failed.size(), equalTo(1));
+        assertThat(((JsonObject) failed.get(0)).getInteger("index"), equalTo(0));
+        assertThat(((JsonObject) failed.get(0)).getString("error"), equalTo("no destination given"));
+    }
+
+    @Test
+    public void reportEntriesOfBatchThatCantBeConverted() throws Exception {
+        connect();
+        JsonArray messages = new JsonArray().addObject(new JsonObject().putString("body", "first"))
+                .addObject(new JsonObject().putNumber("body", 1).putString("body-type", "unknown"))
+                .addObject(new JsonObject().putString("body", "third"));
+
+        JsonObject result = client.sendBatch("QUEUE", messages);
+
+        assertThat(result.getInteger("sent"), equalTo(2));
+        JsonArray failed = result.getArray("failed");
+        assertThat(failed.size(), equalTo(1));
+        assertThat(((JsonObject) failed.get(0)).getInteger("index"), equalTo(1));
+        assertThat(((JsonObject) failed.get(0)).getString("destination"), equalTo("QUEUE"));
+        assertThat(((JsonObject) failed.get(0)).getString("error"), equalTo("unknown body-type unknown"));
+        assertThat(((JsonObject) received.poll(5, TimeUnit.SECONDS)).getString("body"), equalTo("first"));
+        assertThat(((JsonObject) received.poll(5, TimeUnit.SECONDS)).getString("body"), equalTo("third"));
+    }
+
+    @Test
+    public void commitBatchOnce() throws Exception {
+        connect();
+        JsonArray messages = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            messages.addObject(new JsonObject().putString("body", "message " + i));
+        }
+
+        JsonObject result = client.sendBatch("QUEUE", messages);
+
+        assertThat(result.getInteger("sent"), equalTo(10));
+        assertThat(result.getInteger("buffered"), equalTo(0));
+        assertThat(result.getArray("failed").size(), equalTo(0));
+        assertThat(commits.get(), equalTo(1));
+        JsonArray receipts = result.getArray("receipts");
+        assertThat(receipts.size(), equalTo(10));
+        for (int i = 0; i < 10; i++) {
+            JsonObject receipt = receipts.get(i);
+            assertThat(receipt.getInteger("index"), equalTo(i));
+            assertThat(receipt.getBoolean("buffered"), equalTo(false));
+            assertThat(receipt.getString("message-id"), notNullValue());
+            assertTrue(receipt.getLong("send-micros") >= 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThat(((JsonObject) received.poll(5, TimeUnit.SECONDS)).getString("body"), equalTo("message " + i));
+        }
+    }
+
+    @Test
+    public void failAllEntriesOfBatchAndRollbackIfCommitFails() throws Exception {
+        connect();
+        failCommits = true;
+        JsonArray messages = new JsonArray().addObject(new JsonObject().putString("body", "first"))
+                .addString("no object")
+                .addObject(new JsonObject().putString("body", "third"));
+
+        JsonObject result = client.sendBatch("QUEUE", messages);
+
+        assertThat(result.getInteger("sent"), equalTo(0));
+        JsonArray failed = result.getArray("failed");
+        assertThat(failed.size(), equalTo(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(((JsonObject) failed.get(i)).getInteger("index"), equalTo(i));
+            assertTrue(((JsonObject) failed.get(i)).getString("error").startsWith("commit failed: "));
+        }
+        assertThat(result.getArray("receipts").size(), equalTo(0));
+        assertThat(received.poll(500, TimeUnit.MILLISECONDS), equalTo(null));
+        assertThat(client.getMetrics().getLong("commit-errors"), equalTo(1L));
+    }
+
+    @Test
+    public void bufferBatchWhileConnectionIsInterrupted() throws Exception {
+        config.putObject("failover", new JsonObject().putBoolean("enabled", true)
+                .putNumber("initial-reconnect-delay", 50).putNumber("max-reconnect-delay", 200)
+                .putNumber("send-timeout", 200));
+        connect();
+        broker.stop();
+        broker.waitUntilStopped();
+        for (int i = 0; i < 100 && !client.getReplayStatistics().getBoolean("interrupted"); i++) {
+            Thread.sleep(50);
+        }
+        JsonArray messages = new JsonArray()
+                .addObject(new JsonObject().putString("body", "first").putString("destination", "QUEUE"))
+                .addObject(new JsonObject().putString("body", "second").putString("destination", "QUEUE"))
+                .addObject(new JsonObject().putString("body", "no destination"));
+
+        JsonObject result = client.sendBatch(null, messages);
+
+        assertThat(result.getInteger("sent"), equalTo(0));
+        assertThat(result.getInteger("buffered"), equalTo(2));
+        assertThat(result.getArray("failed").size(), equalTo(1));
+        JsonArray receipts = result.getArray("receipts");
+        assertThat(receipts.size(), equalTo(2));
+        for (int i = 0; i < 2; i++) {
+            assertThat(((JsonObject) receipts.get(i)).getInteger("index"), equalTo(i));
+            assertThat(((JsonObject) receipts.get(i)).getBoolean("buffered"), equalTo(true));
+        }
+        assertThat(client.getReplayStatistics().getInteger("size"), equalTo(2));
+    }
+
+    @Test
+    public void correlateRepliesOfConcurrentRequests() throws Exception {
+        connect();
+        respondOn("SERVICE");
+        int count = 1000;
+
+        for (int i = 0; i < count; i++) {
+            client.request("SERVICE", new JsonObject().putString("body", "request " + i), 10000, resultHandler());
+        }
+
+        for (int i = 0; i < count; i++) {
+            AsyncResult<JsonObject> result = results.poll(10, TimeUnit.SECONDS);
+            assertThat(result.succeeded(), equalTo(true));
+            assertTrue(result.result().getString("body").startsWith("reply to request "));
+        }
+        JsonObject statistics = client.getRequestStatistics();
+        assertThat(statistics.getLong("replies"), equalTo((long) count));
+        assertThat(statistics.getInteger("pending"), equalTo(0));
+    }
+
+    @Test
+    public void failRequestWithoutReplyAfterTimeout() throws Exception {
+        connect();
+
+        client.request("NOBODY", new JsonObject().putString("body", "request"), 100, resultHandler());
+
+        AsyncResult<JsonObject> result = results.poll(5, TimeUnit.SECONDS);
+        assertThat(result.failed(), equalTo(true));
+        assertThat(result.cause(), instanceOf(TimeoutException.class));
+        assertThat(client.getRequestStatistics().getLong("timeouts"), equalTo(1L));
+    }
+
+    @Test
+    public void reassembleCompressedChunksOfLargeBody() throws Exception {
+        config.putObject("large-messages", new JsonObject().putString("compression", "gzip")
+                .putNumber("compression-threshold", 1024).putNumber("chunk-size", 4096));
+        connect();
+        String text = largeText(100000);
+
+        client.send("QUEUE", new JsonObject().putString("body", text).putString("correlation-id", "large"),
+                resultHandler());
+        client.send("QUEUE", new Buffer(text), 0, resultHandler());
+
+        assertThat(results.poll(5, TimeUnit.SECONDS).succeeded(), equalTo(true));
+        assertThat(results.poll(5, TimeUnit.SECONDS).succeeded(), equalTo(true));
+        JsonObject message = (JsonObject) received.poll(5, TimeUnit.SECONDS);
+        assertThat(message.getString("body"), equalTo(text));
+        assertThat(message.getString("correlation-id"), equalTo("large"));
+        assertThat(message.containsField("properties"), equalTo(false));
+        JsonObject binary = (JsonObject) received.poll(5, TimeUnit.SECONDS);
+        assertThat(new String(binary.getBinary("body"), "UTF-8"), equalTo(text));
+    }
+
+    @Test
+    public void streamChunksOfLargeBody() throws Exception {
+        config.putObject("large-messages", new JsonObject().putNumber("chunk-size", 4096));
+        connect();
+        client.subscribe("STREAM", new SubscriptionOptions(new JsonObject().putBoolean("stream-chunks", true)),
+                new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        received.add(body);
+                    }
+                });
+        String text = largeText(10000);
+
+        client.send("STREAM", new JsonObject().putString("body", text), resultHandler());
+
+        assertThat(results.poll(5, TimeUnit.SECONDS).succeeded(), equalTo(true));
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            JsonObject chunk = (JsonObject) received.poll(5, TimeUnit.SECONDS);
+            assertThat(chunk.getInteger("chunk-index"), equalTo(i));
+            assertThat(chunk.getInteger("chunk-count"), equalTo(3));
+            joined.append(chunk.getString("body"));
+        }
+        assertThat(joined.toString(), equalTo(text));
+    }
+
+    @Test
+    public void receiveMessagesOnPollingThreadInLowLatencyMode() throws Exception {
+        connect();
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        final BlockingQueue<Object> lowLatencyReceived = new LinkedBlockingQueue<>();
+        JsonObject command = new JsonObject().putBoolean("low-latency", true);
+
+        Subscription subscription = client.subscribe("LOW-LATENCY", new SubscriptionOptions(command),
+                new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        threads.add(Thread.currentThread().getName());
+                        lowLatencyReceived.add(body);
+                    }
+                });
+        sendMessages("LOW-LATENCY", 5);
+
+        for (int i = 0; i < 5; i++) {
+            JsonObject message = (JsonObject) lowLatencyReceived.poll(5, TimeUnit.SECONDS);
+            assertThat(message.getString("body"), equalTo("message " + i));
+            assertThat(threads.poll(), equalTo("vertx-activemq-poll-LOW-LATENCY"));
+        }
+        subscription.close();
+    }
+
+    @Test
+    public void receiveMessagesInBatchesWithOneCommit() throws Exception {
+        connect();
+        sendMessages("BATCHES", 25);
+        final BlockingQueue<BatchReceiver.Batch> batches = new LinkedBlockingQueue<>();
+        JsonObject command = new JsonObject().putNumber("batch-size", 10).putNumber("batch-timeout", 200);
+
+        Subscription subscription = client.subscribeBatches("BATCHES", new SubscriptionOptions(command),
+                new Handler<BatchReceiver.Batch>() {
+                    @Override
+                    public void handle(BatchReceiver.Batch batch) {
+                        batch.confirm(true);
+                        batches.add(batch);
+                    }
+                });
+
+        int index = 0;
+        for (int expected : new int[] { 10, 10, 5 }) {
+            JsonArray messages = batches.poll(5, TimeUnit.SECONDS).getMessages();
+            assertThat(messages.size(), equalTo(expected));
+            for (Object message : messages) {
+                assertThat(((JsonObject) message).getString("body"), equalTo("message " + index++));
+            }
+        }
+        subscription.close();
+        assertThat(subscription.getStatistics().getObject("batches").getLong("committed"), equalTo(3L));
+    }
+
+    @Test
+    public void redeliverRejectedBatch() throws Exception {
+        connect();
+        sendMessages("BATCHES", 3);
+        final BlockingQueue<BatchReceiver.Batch> batches = new LinkedBlockingQueue<>();
+        final AtomicInteger handled = new AtomicInteger();
+        JsonObject command = new JsonObject().putNumber("batch-size", 10).putNumber("batch-timeout", 100);
+
+        Subscription subscription = client.subscribeBatches("BATCHES", new SubscriptionOptions(command),
+                new Handler<BatchReceiver.Batch>() {
+                    @Override
+                    public void handle(BatchReceiver.Batch batch) {
+                        batch.confirm(handled.getAndIncrement() > 0);
+                        batches.add(batch);
+                    }
+                });
+
+        JsonArray rejected = batches.poll(5, TimeUnit.SECONDS).getMessages();
+        JsonArray redelivered = batches.poll(5, TimeUnit.SECONDS).getMessages();
+        assertThat(redelivered.size(), equalTo(rejected.size()));
+        JsonObject first = redelivered.get(0);
+        assertThat(first.getString("body"), equalTo("message 0"));
+        assertThat(first.getBoolean("redelivered"), equalTo(true));
+        subscription.close();
+        assertThat(subscription.getStatistics().getObject("batches").getLong("rolled-back"), equalTo(1L));
+    }
+
+    @Test
+    public void moveUnconvertibleMessageToDeadLetterAfterRedeliveries() throws Exception {
+        JsonObject redelivery = new JsonObject();
+        redelivery.putNumber("maximum-redeliveries", 2);
+        redelivery.putNumber("initial-delay", 10);
+        redelivery.putString("dead-letter", "DEAD-LETTERS");
+        config.putObject("tuning", new JsonObject().putObject("redelivery", redelivery));
+        connect();
+        Subscription subscription = client.subscribe("POISON", new SubscriptionOptions(new JsonObject()),
+                new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        received.add(body);
+                    }
+                });
+
+        sendWithoutBody("POISON");
+        Message deadLetter = receiveRaw("DEAD-LETTERS");
+
+        assertThat(deadLetter, notNullValue());
+        assertThat(deadLetter.getStringProperty(PoisonMessageHandler.ORIGINAL_DESTINATION_PROPERTY), equalTo("POISON"));
+        assertThat(deadLetter.getStringProperty(PoisonMessageHandler.FAILURE_CAUSE_PROPERTY), notNullValue());
+        JsonObject failures = subscription.getStatistics().getObject("failures");
+        assertThat(failures.getLong("redelivered"), equalTo(2L));
+        assertThat(failures.getLong("dead-lettered"), equalTo(1L));
+        assertThat(received.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void receiveFollowingMessagesWhilePoisonMessageWaitsForRedelivery() throws Exception {
+        JsonObject redelivery = new JsonObject();
+        redelivery.putNumber("maximum-redeliveries", 1);
+        redelivery.putNumber("initial-delay", 5000);
+        redelivery.putString("dead-letter", "DEAD-LETTERS");
+        config.putObject("tuning", new JsonObject().putObject("redelivery", redelivery));
+        connect();
+        client.subscribe("POISON", new SubscriptionOptions(new JsonObject()), new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                received.add(body);
+            }
+        });
+
+        sendWithoutBody("POISON");
+        sendMessages("POISON", 1);
+
+        JsonObject message = (JsonObject) received.poll(2, TimeUnit.SECONDS);
+        assertThat(message, notNullValue());
+        assertThat(message.getString("body"), equalTo("message 0"));
+    }
+
+    @Test
+    public void redeliverMessageWaitingForCreditWhenSubscriptionIsClosed() throws Exception {
+        connect();
+        Subscription subscription = client.subscribe("CREDITS",
+                new SubscriptionOptions(new JsonObject().putNumber("credits", 1)), new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        received.add(body);
+                    }
+                });
+
+        sendMessages("CREDITS", 3);
+        assertThat(received.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat(received.poll(300, TimeUnit.MILLISECONDS), equalTo(null));
+        subscription.close();
+
+        Message redelivered = receiveRaw("CREDITS");
+        assertThat(redelivered, notNullValue());
+        assertThat(((TextMessage) redelivered).getText(), equalTo("message 1"));
+        assertThat(((TextMessage) receiveRaw("CREDITS")).getText(), equalTo("message 2"));
+        JsonObject failures = subscription.getStatistics().getObject("failures");
+        assertThat(failures.getLong("redelivered"), equalTo(0L));
+        assertThat(failures.getLong("dead-lettered"), equalTo(0L));
+        assertThat(failures.getLong("dropped"), equalTo(0L));
+    }
+
+    @Test
+    public void pauseConsumersWhileCircuitBreakerIsOpen() throws Exception {
+        JsonObject circuitBreaker = new JsonObject();
+        circuitBreaker.putNumber("failure-rate", 1);
+        circuitBreaker.putNumber("window", 2);
+        circuitBreaker.putNumber("open-time", 1000);
+        JsonObject redelivery = new JsonObject();
+        redelivery.putNumber("maximum-redeliveries", 0);
+        redelivery.putString("dead-letter", "DEAD-LETTERS");
+        redelivery.putObject("circuit-breaker", circuitBreaker);
+        config.putObject("tuning", new JsonObject().putObject("redelivery", redelivery));
+        connect();
+        final BlockingQueue<Object> breakerReceived = new LinkedBlockingQueue<>();
+        Subscription subscription = client.subscribe("BREAKER", new SubscriptionOptions(new JsonObject()),
+                new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        breakerReceived.add(body);
+                    }
+                });
+
+        sendWithoutBody("BREAKER");
+        sendWithoutBody("BREAKER");
+        assertThat(receiveRaw("DEAD-LETTERS"), notNullValue());
+        assertThat(receiveRaw("DEAD-LETTERS"), notNullValue());
+        sendMessages("BREAKER", 1);
+
+        assertThat(breakerReceived.poll(300, TimeUnit.MILLISECONDS), equalTo(null));
+        assertThat(subscription.getStatistics().getObject("failures").getObject("circuit-breaker")
+                .getString("state"), equalTo(CircuitBreaker.OPEN));
+        assertThat(breakerReceived.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat(subscription.getStatistics().getObject("failures").getObject("circuit-breaker")
+                .getString("state"), equalTo(CircuitBreaker.CLOSED));
+    }
+
+    private void sendWithoutBody(String destination) throws Exception {
+        Connection connection = new ActiveMQConnectionFactory(
+                broker.getTransportConnectors().get(0).getConnectUri()).createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createProducer(session.createQueue(destination)).send(session.createMessage());
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private Message receiveRaw(String destination) throws Exception {
+        Connection connection = new ActiveMQConnectionFactory(
+                broker.getTransportConnectors().get(0).getConnectUri()).createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            return session.createConsumer(session.createQueue(destination)).receive(5000);
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private void sendMessages(String destination, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            client.send(destination, new JsonObject().putString("body", "message " + i), resultHandler());
+        }
+        for (int i = 0; i < count; i++) {
+            assertThat(results.poll(5, TimeUnit.SECONDS).succeeded(), equalTo(true));
+        }
+    }
+
+    private String largeText(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; builder.length() < length; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+
+        return builder.substring(0, length);
+    }
+
+    private void connect() throws Exception {
+        client = new ActiveMqClient(mock(Logger.class), new ClientConfig(config));
+        assertTrue(client.connect());
+        client.subscribe("QUEUE", new SubscriptionOptions(new JsonObject()), new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                received.add(body);
+            }
+        });
+    }
+
+    private void respondOn(String destination) throws Exception {
+        client.subscribe(destination, new SubscriptionOptions(new JsonObject()), new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                JsonObject request = (JsonObject) body;
+                JsonObject reply = new JsonObject();
+                reply.putString("body", "reply to " + request.getString("body"));
+                reply.putString("correlation-id", request.getString("correlation-id"));
+                client.send(request.getString("reply-to"), reply, new Handler<AsyncResult<JsonObject>>() {
+                    @Override
+                    public void handle(AsyncResult<JsonObject> result) {
+                    }
+                });
+            }
+        });
+    }
+
+    private Handler<AsyncResult<JsonObject>> resultHandler() {
+        return new Handler<AsyncResult<JsonObject>>() {
+            @Override
+            public void handle(AsyncResult<JsonObject> result) {
+                results.add(result);
+            }
+        };
+    }
+
+    private class CommitCountingPlugin implements BrokerPlugin {
+
+        @Override
+        public Broker installPlugin(Broker next) throws Exception {
+            return new BrokerFilter(next) {
+                @Override
+                public void commitTransaction(ConnectionContext context, TransactionId xid, boolean onePhase)
+                        throws Exception {
+                    if (failCommits) {
+                        throw new IllegalStateException("commit rejected by test");
+                    }
+                    super.commitTransaction(context, xid, onePhase);
+                    commits.incrementAndGet();
+                }
+            };
+        }
+
+    }
+
+}
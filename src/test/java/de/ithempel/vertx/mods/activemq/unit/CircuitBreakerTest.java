@@ -0,0 +1,87 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import de.ithempel.vertx.mods.activemq.CircuitBreaker;
+
+/**
+ * Unit Tests for the {@link CircuitBreaker} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void openWhenFailureRateOfFullWindowIsReached() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 4, 1000);
+
+        assertThat(circuitBreaker.recordFailure(), equalTo(false));
+        assertThat(circuitBreaker.recordFailure(), equalTo(false));
+        circuitBreaker.recordSuccess();
+        assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.CLOSED));
+
+        assertThat(circuitBreaker.recordFailure(), equalTo(true));
+        assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.OPEN));
+        assertThat(circuitBreaker.recordFailure(), equalTo(false));
+        assertThat(circuitBreaker.getStatistics().getInteger("opened"), equalTo(1));
+    }
+
+    @Test
+    public void forgetOutcomesOutsideOfWindow() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 4, 1000);
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.recordSuccess();
+        }
+
+        assertThat(circuitBreaker.recordFailure(), equalTo(false));
+        assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.CLOSED));
+    }
+
+    @Test
+    public void closeAfterSuccessInHalfOpenState() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1, 1000);
+        circuitBreaker.recordFailure();
+
+        circuitBreaker.halfOpen();
+        circuitBreaker.recordSuccess();
+
+        assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.CLOSED));
+    }
+
+    @Test
+    public void openAgainAfterFailureInHalfOpenState() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 4, 1000);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.recordFailure();
+        }
+
+        circuitBreaker.halfOpen();
+
+        assertThat(circuitBreaker.recordFailure(), equalTo(true));
+        assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.OPEN));
+    }
+
+}
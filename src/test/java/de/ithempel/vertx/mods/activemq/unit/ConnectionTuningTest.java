@@ -0,0 +1,173 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.ConnectionTuning;
+
+/**
+ * Unit Tests for the {@link ConnectionTuning} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ConnectionTuningTest {
+
+    @Test
+    public void reportDefaultsOfActiveMq() {
+        JsonObject tuning = new ConnectionTuning(new JsonObject(), 0).toJson();
+
+        assertThat(tuning.getObject("prefetch").getInteger("queue"), equalTo(1000));
+        assertThat(tuning.getBoolean("dispatch-async"), equalTo(true));
+        assertThat(tuning.getBoolean("use-async-send"), equalTo(false));
+        assertThat(tuning.getBoolean("always-session-async"), equalTo(true));
+        assertThat(tuning.getInteger("socket-send-buffer-size"), equalTo(65536));
+    }
+
+    @Test
+    public void applySettingsToConnectionFactory() {
+        JsonObject config = new JsonObject();
+        config.putObject("prefetch", new JsonObject().putNumber("queue", 10).putNumber("topic", 20));
+        config.putBoolean("optimize-acknowledge", true);
+        config.putBoolean("dispatch-async", false);
+        config.putBoolean("always-session-async", false);
+        config.putNumber("producer-window-size", 1048576);
+        config.putBoolean("use-compression", true);
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory();
+
+        new ConnectionTuning(config, 0).apply(connectionFactory);
+
+        assertThat(connectionFactory.getPrefetchPolicy().getQueuePrefetch(), equalTo(10));
+        assertThat(connectionFactory.getPrefetchPolicy().getTopicPrefetch(), equalTo(20));
+        assertThat(connectionFactory.getPrefetchPolicy().getDurableTopicPrefetch(), equalTo(100));
+        assertThat(connectionFactory.isOptimizeAcknowledge(), equalTo(true));
+        assertThat(connectionFactory.isDispatchAsync(), equalTo(false));
+        assertThat(connectionFactory.isAlwaysSessionAsync(), equalTo(false));
+        assertThat(connectionFactory.getProducerWindowSize(), equalTo(1048576));
+        assertThat(connectionFactory.isUseCompression(), equalTo(true));
+    }
+
+    @Test
+    public void setPrefetchOfAllConsumers() {
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory();
+
+        new ConnectionTuning(new JsonObject().putNumber("prefetch", 5), 0).apply(connectionFactory);
+
+        assertThat(connectionFactory.getPrefetchPolicy().getQueuePrefetch(), equalTo(5));
+        assertThat(connectionFactory.getPrefetchPolicy().getQueueBrowserPrefetch(), equalTo(5));
+    }
+
+    @Test
+    public void overrideConsumerOptionsPerDestination() {
+        JsonObject destinations = new JsonObject();
+        destinations.putObject("ORDERS", new JsonObject().putNumber("prefetch", 1).putBoolean("dispatch-async", false));
+        destinations.putObject("topic://TICKS", new JsonObject().putBoolean("async-send", true));
+        ConnectionTuning tuning = new ConnectionTuning(new JsonObject().putObject("destinations", destinations), 0);
+
+        assertThat(tuning.withConsumerOptions("ORDERS", true),
+                equalTo("ORDERS?consumer.prefetchSize=1&consumer.dispatchAsync=false"));
+        assertThat(tuning.withConsumerOptions("ORDERS?consumer.priority=5", false),
+                equalTo("ORDERS?consumer.priority=5&consumer.dispatchAsync=false"));
+        assertThat(tuning.withConsumerOptions("INVOICES", true), equalTo("INVOICES"));
+        assertThat(tuning.isAsyncSend("topic://TICKS", false), equalTo(true));
+        assertThat(tuning.isAsyncSend("ORDERS", false), equalTo(false));
+    }
+
+    @Test
+    public void appendSocketBuffersToAllBrokerUrls() {
+        JsonObject config = new JsonObject();
+        config.putArray("brokers", new JsonArray().addString("tcp://broker1:61616").addString("tcp://broker2:61616?wireFormat.tightEncodingEnabled=false"));
+        config.putObject("tuning", new JsonObject().putNumber("socket-receive-buffer-size", 262144));
+
+        String brokerUrl = new ClientConfig(config).getBrokerUrl();
+
+        assertThat(brokerUrl.startsWith("failover:(tcp://broker1:61616?socket.sendBufferSize=65536"
+                + "&socket.receiveBufferSize=262144,tcp://broker2:61616?wireFormat.tightEncodingEnabled=false"
+                + "&socket.sendBufferSize=65536&socket.receiveBufferSize=262144)"), equalTo(true));
+    }
+
+    @Test
+    public void applyRedeliveryWithBackoffPerDestination() {
+        JsonObject redelivery = new JsonObject();
+        redelivery.putNumber("maximum-redeliveries", 3);
+        redelivery.putNumber("initial-delay", 100);
+        redelivery.putString("dead-letter", "DLQ.ALL");
+        JsonObject destinations = new JsonObject();
+        destinations.putObject("ORDERS", new JsonObject().putObject("redelivery",
+                new JsonObject().putNumber("maximum-redeliveries", 10).putNumber("backoff-multiplier", 1)));
+        JsonObject config = new JsonObject().putObject("redelivery", redelivery).putObject("destinations", destinations);
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory();
+
+        ConnectionTuning tuning = new ConnectionTuning(config, 0);
+        tuning.apply(connectionFactory);
+
+        assertThat(connectionFactory.isNonBlockingRedelivery(), equalTo(true));
+        RedeliveryPolicy policy = connectionFactory.getRedeliveryPolicy();
+        assertThat(policy.getMaximumRedeliveries(), equalTo(3));
+        assertThat(policy.getInitialRedeliveryDelay(), equalTo(100L));
+        assertThat(policy.isUseExponentialBackOff(), equalTo(true));
+        assertThat(policy.getNextRedeliveryDelay(100), equalTo(200L));
+        RedeliveryPolicy ordersPolicy = connectionFactory.getRedeliveryPolicyMap().getEntryFor(new ActiveMQQueue("ORDERS"));
+        assertThat(ordersPolicy.getMaximumRedeliveries(), equalTo(10));
+        assertThat(ordersPolicy.isUseExponentialBackOff(), equalTo(false));
+        assertThat(tuning.getRedelivery("ORDERS?consumer.prefetchSize=1").getDeadLetter(), equalTo("DLQ.ALL"));
+        assertThat(tuning.getRedelivery("ORDERS").isLastDelivery(10), equalTo(true));
+        assertThat(tuning.getRedelivery("INVOICES").isLastDelivery(3), equalTo(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCircuitBreakerWithoutFailureRate() {
+        JsonObject circuitBreaker = new JsonObject().putNumber("failure-rate", 0);
+
+        new ConnectionTuning(new JsonObject().putObject("redelivery",
+                new JsonObject().putObject("circuit-breaker", circuitBreaker)), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownSetting() {
+        new ConnectionTuning(new JsonObject().putBoolean("optimise-acknowledge", true), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectWrongType() {
+        new ConnectionTuning(new JsonObject().putString("dispatch-async", "yes"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNegativePrefetch() {
+        new ConnectionTuning(new JsonObject().putObject("prefetch", new JsonObject().putNumber("queue", -1)), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectConnectionSettingPerDestination() {
+        JsonObject destinations = new JsonObject();
+        destinations.putObject("ORDERS", new JsonObject().putBoolean("use-compression", true));
+
+        new ConnectionTuning(new JsonObject().putObject("destinations", destinations), 0);
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.apache.activemq.command.ActiveMQStreamMessage;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.ithempel.vertx.mods.activemq.BodyConverter;
+import de.ithempel.vertx.mods.activemq.ConverterRegistry;
+
+/**
+ * Unit Tests for the {@link ConverterRegistry} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ConverterRegistryTest {
+
+    @Test
+    public void selectConverterByTypeOfBody() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry();
+
+        assertThat(registry.selectForJson("QUEUE", body("text")).getName(), equalTo("text"));
+        assertThat(registry.selectForJson("QUEUE", body(new JsonObject())).getName(), equalTo("map"));
+        assertThat(registry.selectForJson("QUEUE", body(new JsonArray())).getName(), equalTo("stream"));
+    }
+
+    @Test
+    public void reuseConverterOfDestination() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry();
+
+        BodyConverter first = registry.selectForJson("QUEUE", body("first"));
+        BodyConverter second = registry.selectForJson("QUEUE", body("second"));
+
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void selectConverterConfiguredForDestination() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry(new JsonObject().putString("OBJECTS", "object"));
+
+        assertThat(registry.selectForJson("OBJECTS", body("text")).getName(), equalTo("object"));
+        assertThat(registry.selectForMessage("OBJECTS", new ActiveMQObjectMessage()).getName(), equalTo("object"));
+        assertThat(registry.selectForMessage("OBJECTS", new ActiveMQTextMessage()).getName(), equalTo("text"));
+    }
+
+    @Test
+    public void selectConverterByBodyType() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry();
+        JsonObject source = body("text").putString("body-type", "object");
+
+        assertThat(registry.selectForJson("QUEUE", source).getName(), equalTo("object"));
+    }
+
+    @Test
+    public void selectConverterByTypeOfMessage() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry();
+
+        assertThat(registry.selectForMessage("QUEUE", new ActiveMQStreamMessage()).getName(), equalTo("stream"));
+    }
+
+    @Test(expected = JMSException.class)
+    public void neverSelectObjectConverterByTypeOfMessage() throws JMSException {
+        ConverterRegistry registry = new ConverterRegistry();
+
+        registry.selectForMessage("QUEUE", new ActiveMQObjectMessage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownConverterForDestination() {
+        new ConverterRegistry(new JsonObject().putString("QUEUE", "unknown"));
+    }
+
+    private JsonObject body(Object content) {
+        JsonObject source = new JsonObject();
+        source.putValue("body", content);
+
+        return source;
+    }
+
+}
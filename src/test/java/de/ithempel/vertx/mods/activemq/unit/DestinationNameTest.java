@@ -0,0 +1,74 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Test;
+
+import de.ithempel.vertx.mods.activemq.DestinationName;
+
+/**
+ * Unit Tests for the {@link DestinationName} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class DestinationNameTest {
+
+    @Test
+    public void parseNameWithoutPrefixAsQueue() {
+        DestinationName destinationName = DestinationName.parse("QUEUE");
+
+        assertThat(destinationName.getName(), equalTo("QUEUE"));
+        assertThat(destinationName.isTopic(), equalTo(false));
+    }
+
+    @Test
+    public void parseNamesWithPrefix() {
+        assertThat(DestinationName.parse("queue://QUEUE").getName(), equalTo("QUEUE"));
+        assertThat(DestinationName.parse("topic://TOPIC").getName(), equalTo("TOPIC"));
+        assertThat(DestinationName.parse("topic://TOPIC").isTopic(), equalTo(true));
+    }
+
+    @Test
+    public void formatTemporaryQueueWithPrefix() throws JMSException {
+        DestinationName destinationName = DestinationName.parse("temp-queue://ID:client-1:1:1");
+
+        assertThat(destinationName.isTemporary(), equalTo(true));
+        assertThat(DestinationName.format(destinationName.create(mock(Session.class))),
+                equalTo("temp-queue://ID:client-1:1:1"));
+        assertThat(DestinationName.format(new ActiveMQQueue("QUEUE")), equalTo("QUEUE"));
+    }
+
+    @Test
+    public void createTopicWithSession() throws JMSException {
+        Session session = mock(Session.class);
+
+        DestinationName.parse("topic://TOPIC?consumer.prefetchSize=1").create(session);
+
+        verify(session).createTopic("TOPIC?consumer.prefetchSize=1");
+    }
+
+}
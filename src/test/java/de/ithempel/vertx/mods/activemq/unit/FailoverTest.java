@@ -0,0 +1,167 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.SubscriptionOptions;
+
+/**
+ * Tests the reconnect of the {@link ActiveMqClient} by stopping and restarting an embedded broker.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class FailoverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BrokerService broker;
+    private int port;
+    private ActiveMqClient client;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setup() throws Exception {
+        broker = startBroker("tcp://localhost:0");
+        port = broker.getTransportConnectors().get(0).getConnectUri().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void replayMessagesAndResubscribeAfterRestartOfBroker() throws Exception {
+        connect(new JsonObject());
+        assertThat(client.send("QUEUE", message("before")), equalTo(true));
+        assertThat(body(received.poll(5, TimeUnit.SECONDS)), equalTo("before"));
+
+        broker.stop();
+        broker.waitUntilStopped();
+        waitForReplayState("interrupted", true);
+
+        assertThat(client.send("QUEUE", message("during")), equalTo(false));
+        assertThat(client.getReplayStatistics().getInteger("size"), equalTo(1));
+
+        broker = startBroker("tcp://localhost:" + port);
+
+        assertThat(body(received.poll(10, TimeUnit.SECONDS)), equalTo("during"));
+        waitForReplayState("replaying", false);
+        assertThat(client.send("QUEUE", message("after")), equalTo(true));
+        assertThat(body(received.poll(5, TimeUnit.SECONDS)), equalTo("after"));
+        assertThat(client.getReplayStatistics().getLong("replayed"), equalTo(1L));
+    }
+
+    @Test
+    public void forwardMessagesOfOutboxAfterRestartOfModule() throws Exception {
+        JsonObject outbox = new JsonObject();
+        outbox.putBoolean("enabled", true);
+        outbox.putString("directory", folder.getRoot().getPath());
+        outbox.putString("fsync", "always");
+        connect(outbox);
+
+        broker.stop();
+        broker.waitUntilStopped();
+        waitForReplayState("interrupted", true);
+        for (int i = 0; i < 3; i++) {
+            assertThat(client.send("QUEUE", message("stored " + i)), equalTo(false));
+        }
+        client.disconnect();
+        client = null;
+
+        broker = startBroker("tcp://localhost:" + port);
+        connect(outbox);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(body(received.poll(10, TimeUnit.SECONDS)), equalTo("stored " + i));
+        }
+        waitForReplayState("replaying", false);
+        assertThat(client.getReplayStatistics().getObject("outbox").getLong("backlog"), equalTo(0L));
+    }
+
+    private void connect(JsonObject outbox) throws Exception {
+        JsonObject failover = new JsonObject();
+        failover.putBoolean("enabled", true);
+        failover.putNumber("initial-reconnect-delay", 50);
+        failover.putNumber("max-reconnect-delay", 200);
+        failover.putNumber("send-timeout", 200);
+        JsonObject config = new JsonObject();
+        config.putNumber("port", port);
+        config.putObject("failover", failover);
+        config.putObject("outbox", outbox);
+
+        client = new ActiveMqClient(mock(Logger.class), new ClientConfig(config));
+        assertTrue(client.connect());
+        client.subscribe("QUEUE", new SubscriptionOptions(new JsonObject()), new Handler<Object>() {
+            @Override
+            public void handle(Object body) {
+                received.add(body);
+            }
+        });
+    }
+
+    private BrokerService startBroker(String url) throws Exception {
+        BrokerService brokerService = new BrokerService();
+        brokerService.setPersistent(false);
+        brokerService.setUseJmx(false);
+        brokerService.addConnector(url);
+        brokerService.start();
+        brokerService.waitUntilStarted();
+
+        return brokerService;
+    }
+
+    private void waitForReplayState(String field, boolean value) throws InterruptedException {
+        for (int i = 0; i < 100 && client.getReplayStatistics().getBoolean(field) != value; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private JsonObject message(String body) {
+        return new JsonObject().putString("body", body);
+    }
+
+    private String body(Object message) {
+        return message != null ? ((JsonObject) message).getString("body") : null;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import de.ithempel.vertx.mods.activemq.FlowControl;
+
+/**
+ * Unit Tests for the {@link FlowControl} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class FlowControlTest {
+
+    @Test
+    public void takeAndReturnCredits() {
+        FlowControl flowControl = new FlowControl(2);
+
+        flowControl.acquire();
+        flowControl.acquire();
+        assertThat(flowControl.getAvailable(), equalTo(0));
+
+        flowControl.release();
+        assertThat(flowControl.getAvailable(), equalTo(1));
+    }
+
+    @Test
+    public void denyCreditsAfterClose() {
+        FlowControl flowControl = new FlowControl(1);
+
+        flowControl.close();
+
+        assertThat(flowControl.acquire(), equalTo(false));
+    }
+
+    @Test
+    public void sharePrefetchBetweenConsumers() {
+        FlowControl flowControl = new FlowControl(10);
+
+        assertThat(flowControl.withPrefetch("QUEUE", 1), equalTo("QUEUE?consumer.prefetchSize=10"));
+        assertThat(flowControl.withPrefetch("QUEUE", 4), equalTo("QUEUE?consumer.prefetchSize=3"));
+        assertThat(flowControl.withPrefetch("QUEUE?a=b", 20), equalTo("QUEUE?a=b&consumer.prefetchSize=1"));
+    }
+
+}
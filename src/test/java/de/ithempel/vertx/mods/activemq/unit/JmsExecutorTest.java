@@ -0,0 +1,242 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.JmsExecutor;
+
+/**
+ * Unit Tests for the {@link JmsExecutor} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class JmsExecutorTest {
+
+    private Vertx vertx;
+    private Logger logger;
+    private JmsExecutor executor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Context context = mock(Context.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Handler<Void>) invocation.getArguments()[0]).handle(null);
+                return null;
+            }
+        }).when(context).runOnContext(any(Handler.class));
+
+        vertx = mock(Vertx.class);
+        when(vertx.currentContext()).thenReturn(context);
+
+        logger = mock(Logger.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void executeTasksOfOneKeyInOrder() throws InterruptedException {
+        executor = new JmsExecutor(vertx, logger, 4, 100);
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            final int number = i;
+            executor.execute("QUEUE", new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executed.add(number);
+                    return null;
+                }
+            }, new Handler<AsyncResult<Void>>() {
+                @Override
+                public void handle(AsyncResult<Void> result) {
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertThat(executed.get(i), equalTo(i));
+        }
+    }
+
+    @Test
+    public void reportFailureOfTask() throws InterruptedException {
+        executor = new JmsExecutor(vertx, logger, 1, 10);
+        final List<AsyncResult<Void>> results = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.execute("QUEUE", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("broker gone");
+            }
+        }, new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                results.add(result);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(results.get(0).failed(), equalTo(true));
+        assertThat(results.get(0).cause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void rejectTasksWhenQueueIsFull() throws InterruptedException {
+        executor = new JmsExecutor(vertx, logger, 1, 1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<AsyncResult<Void>> results = Collections.synchronizedList(new ArrayList<AsyncResult<Void>>());
+        Handler<AsyncResult<Void>> resultHandler = new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                results.add(result);
+            }
+        };
+        Callable<Void> blockingTask = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                started.countDown();
+                blocker.await();
+                return null;
+            }
+        };
+
+        executor.execute("QUEUE", blockingTask, resultHandler);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute("QUEUE", blockingTask, resultHandler);
+        executor.execute("QUEUE", blockingTask, resultHandler);
+
+        assertThat(results.size(), equalTo(1));
+        assertThat(results.get(0).cause(), instanceOf(RejectedExecutionException.class));
+
+        blocker.countDown();
+    }
+
+    @Test
+    public void completeAsyncTaskFromOtherThread() throws InterruptedException {
+        executor = new JmsExecutor(vertx, logger, 1, 10);
+        final List<AsyncResult<String>> results = Collections.synchronizedList(new ArrayList<AsyncResult<String>>());
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.executeAsync("QUEUE", new JmsExecutor.AsyncTask<String>() {
+            @Override
+            public void start(final Handler<AsyncResult<String>> completionHandler) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        completionHandler.handle(new DefaultFutureResult<>("acknowledged"));
+                    }
+                }).start();
+            }
+        }, new Handler<AsyncResult<String>>() {
+            @Override
+            public void handle(AsyncResult<String> result) {
+                results.add(result);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(results.get(0).result(), equalTo("acknowledged"));
+    }
+
+    @Test
+    public void reportFailureOfStartingAsyncTask() throws InterruptedException {
+        executor = new JmsExecutor(vertx, logger, 1, 10);
+        final List<AsyncResult<String>> results = Collections.synchronizedList(new ArrayList<AsyncResult<String>>());
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.executeAsync("QUEUE", new JmsExecutor.AsyncTask<String>() {
+            @Override
+            public void start(Handler<AsyncResult<String>> completionHandler) {
+                throw new IllegalStateException("broker gone");
+            }
+        }, new Handler<AsyncResult<String>>() {
+            @Override
+            public void handle(AsyncResult<String> result) {
+                results.add(result);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(results.get(0).cause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void executeOnCallingThreadWithoutLanes() {
+        executor = new JmsExecutor(vertx, logger, 0, 1);
+        final List<AsyncResult<Thread>> results = new ArrayList<>();
+
+        executor.execute("QUEUE", new Callable<Thread>() {
+            @Override
+            public Thread call() throws Exception {
+                return Thread.currentThread();
+            }
+        }, new Handler<AsyncResult<Thread>>() {
+            @Override
+            public void handle(AsyncResult<Thread> result) {
+                results.add(result);
+            }
+        });
+
+        assertThat(results.get(0).result(), equalTo(Thread.currentThread()));
+    }
+
+}
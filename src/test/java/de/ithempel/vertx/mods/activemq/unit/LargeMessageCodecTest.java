@@ -0,0 +1,191 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.json.JsonObject;
+
+import de.ithempel.vertx.mods.activemq.ChunkAssembler;
+import de.ithempel.vertx.mods.activemq.LargeMessageCodec;
+
+/**
+ * Unit Tests for the {@link LargeMessageCodec} and {@link ChunkAssembler} classes.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class LargeMessageCodecTest {
+
+    private Session session;
+
+    @Before
+    public void setup() throws JMSException {
+        session = mock(Session.class);
+        when(session.createBytesMessage()).then(new Answer<BytesMessage>() {
+            @Override
+            public BytesMessage answer(InvocationOnMock invocation) throws Throwable {
+                return new ActiveMQBytesMessage();
+            }
+        });
+    }
+
+    @Test
+    public void leaveSmallBodiesUnchanged() throws JMSException {
+        LargeMessageCodec codec = codec(LargeMessageCodec.DEFLATE, 1024, 4096);
+
+        assertThat(codec.encode(session, "small body"), nullValue());
+    }
+
+    @Test
+    public void compressAndDecompressLargeText() throws JMSException {
+        for (String compression : new String[] { LargeMessageCodec.DEFLATE, LargeMessageCodec.GZIP }) {
+            LargeMessageCodec codec = codec(compression, 1024, 0);
+            String text = repeat("compressible content ", 1000);
+
+            List<BytesMessage> messages = codec.encode(session, text);
+
+            assertThat(messages.size(), equalTo(1));
+            assertTrue(length(messages.get(0)) < text.length() / 10);
+            assertThat(text(codec.decode(messages.get(0))), equalTo(text));
+        }
+    }
+
+    @Test
+    public void splitTextAtCharacterBoundaries() throws JMSException {
+        LargeMessageCodec codec = codec(null, 0, 100);
+        String text = repeat("ä€", 500);
+
+        List<BytesMessage> chunks = codec.encode(session, text);
+
+        StringBuilder joined = new StringBuilder();
+        for (BytesMessage chunk : chunks) {
+            assertTrue(length(chunk) <= 100);
+            joined.append(text(codec.decode(chunk)));
+        }
+        assertThat(joined.toString(), equalTo(text));
+    }
+
+    @Test
+    public void reassembleCompressedChunks() throws JMSException {
+        LargeMessageCodec codec = codec(LargeMessageCodec.DEFLATE, 0, 1000);
+        byte[] content = new byte[10500];
+        new Random(42).nextBytes(content);
+        ChunkAssembler assembler = new ChunkAssembler(codec);
+
+        List<BytesMessage> chunks = codec.encode(session, "binary", content, 0, content.length);
+
+        assertThat(chunks.size(), equalTo(11));
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertThat(assembler.add(chunks.get(i)), nullValue());
+        }
+        ByteSequence body = assembler.add(chunks.get(chunks.size() - 1));
+        assertThat(body.data, equalTo(content));
+        assertThat(assembler.getPendingBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void discardBodyExceedingReassemblyLimit() throws JMSException {
+        JsonObject config = new JsonObject().putNumber("chunk-size", 100).putNumber("max-reassembled-size", 250);
+        LargeMessageCodec codec = new LargeMessageCodec(config);
+        ChunkAssembler assembler = new ChunkAssembler(codec);
+
+        List<BytesMessage> chunks = codec.encode(session, "binary", new byte[500], 0, 500);
+
+        assembler.add(chunks.get(0));
+        assembler.add(chunks.get(1));
+        try {
+            assembler.add(chunks.get(2));
+            fail("the body should exceed the max-reassembled-size");
+        }
+        catch (JMSException e) {
+            assertThat(assembler.getDiscarded(), equalTo(1L));
+        }
+        assertThat(assembler.add(chunks.get(3)), nullValue());
+        assertThat(assembler.add(chunks.get(4)), nullValue());
+        assertThat(assembler.getPendingBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void discardBodyWithMissingChunk() throws JMSException {
+        LargeMessageCodec codec = codec(null, 0, 100);
+        ChunkAssembler assembler = new ChunkAssembler(codec);
+
+        List<BytesMessage> chunks = codec.encode(session, "binary", new byte[300], 0, 300);
+
+        assembler.add(chunks.get(0));
+        try {
+            assembler.add(chunks.get(2));
+            fail("the missing chunk should be detected");
+        }
+        catch (JMSException e) {
+            assertThat(assembler.getDiscarded(), equalTo(1L));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownCompression() {
+        codec("lz4", 0, 0);
+    }
+
+    private LargeMessageCodec codec(String compression, int threshold, int chunkSize) {
+        JsonObject config = new JsonObject();
+        config.putString("compression", compression);
+        config.putNumber("compression-threshold", threshold);
+        config.putNumber("chunk-size", chunkSize);
+
+        return new LargeMessageCodec(config);
+    }
+
+    private int length(BytesMessage message) {
+        return ((ActiveMQBytesMessage) message).getContent().getLength();
+    }
+
+    private String text(ByteSequence content) {
+        return new String(content.data, content.offset, content.length, StandardCharsets.UTF_8);
+    }
+
+    private String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+import de.ithempel.vertx.mods.activemq.LatencyHistogram;
+
+/**
+ * Unit Tests for the {@link LatencyHistogram} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void reportZeroWithoutValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getPercentile(99), equalTo(0L));
+    }
+
+    @Test
+    public void reportSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 7; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getPercentile(50), equalTo(4L));
+        assertThat(histogram.getPercentile(100), equalTo(7L));
+    }
+
+    @Test
+    public void reportPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertWithinPrecision(histogram.getPercentile(50), 500000);
+        assertWithinPrecision(histogram.getPercentile(90), 900000);
+        assertWithinPrecision(histogram.getPercentile(99), 990000);
+        assertThat(histogram.getPercentile(100), equalTo(1000000L));
+    }
+
+    @Test
+    public void reportStatisticsInMicroseconds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(3000);
+
+        JsonObject statistics = histogram.getStatistics();
+
+        assertThat(statistics.getLong("count"), equalTo(2L));
+        assertThat((Double) statistics.getNumber("mean-micros"), equalTo(2.0));
+        assertThat((Double) statistics.getNumber("max-micros"), equalTo(3.0));
+    }
+
+    private void assertWithinPrecision(long actual, long expected) {
+        assertTrue(actual + " is below " + expected, actual >= expected);
+        assertTrue(actual + " is not within 12.5% of " + expected, actual <= expected * 1.125);
+    }
+
+}
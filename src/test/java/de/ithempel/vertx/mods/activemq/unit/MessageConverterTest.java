@@ -25,20 +25,27 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.Session;
+import javax.jms.StreamMessage;
 import javax.jms.TextMessage;
 
+import org.apache.activemq.command.ActiveMQBytesMessage;
 import org.apache.activemq.command.ActiveMQMapMessage;
+import org.apache.activemq.command.ActiveMQStreamMessage;
 import org.apache.activemq.command.ActiveMQTextMessage;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
-import org.vertx.java.core.logging.Logger;
 
 import de.ithempel.vertx.mods.activemq.MessageConverter;
 
@@ -68,13 +75,25 @@ public class MessageConverterTest {
             }
         });
 
-        Logger logger = new Logger(null);
+        when(session.createBytesMessage()).then(new Answer<BytesMessage>() {
+            @Override
+            public BytesMessage answer(InvocationOnMock invocation) throws Throwable {
+                return new ActiveMQBytesMessage();
+            }
+        });
+
+        when(session.createStreamMessage()).then(new Answer<StreamMessage>() {
+            @Override
+            public StreamMessage answer(InvocationOnMock invocation) throws Throwable {
+                return new ActiveMQStreamMessage();
+            }
+        });
 
-        messageConverter = new MessageConverter(session, logger);
+        messageConverter = new MessageConverter(session);
     }
 
     @Test
-    public void convertJsonObjectStringBodyToTextMessage() {
+    public void convertJsonObjectStringBodyToTextMessage() throws JMSException {
         String bodyContent = "body content";
         JsonObject source = new JsonObject();
         source.putString("body", bodyContent);
@@ -85,7 +104,7 @@ public class MessageConverterTest {
     }
 
     @Test
-    public void convertJsonObjectJsonBodyToMapMessage() {
+    public void convertJsonObjectJsonBodyToMapMessage() throws JMSException {
         JsonObject bodyContent = new JsonObject();
         JsonObject source = new JsonObject();
         source.putElement("body", bodyContent);
@@ -157,7 +176,72 @@ public class MessageConverterTest {
     }
 
     @Test
-    public void convertMapMessageToJsonObjectMapBody() {
+    public void mapReplyToAndCorrelationIdInBothDirections() throws JMSException {
+        JsonObject source = new JsonObject();
+        source.putString("body", "request");
+        source.putString("reply-to", "temp-queue://ID:client-1:1:1");
+        source.putString("correlation-id", "request-1");
+
+        Message message = messageConverter.convertToJmsMessage(source);
+        JsonObject destination = messageConverter.convertToJsonObject(message);
+
+        assertThat(message.getJMSCorrelationID(), equalTo("request-1"));
+        assertThat(destination.getString("reply-to"), equalTo("temp-queue://ID:client-1:1:1"));
+        assertThat(destination.getString("correlation-id"), equalTo("request-1"));
+    }
+
+    @Test
+    public void mapTypeAndPropertiesInBothDirections() throws JMSException {
+        JsonObject properties = new JsonObject();
+        properties.putString("tenant", "acme");
+        properties.putNumber("attempt", 3);
+        properties.putBoolean("urgent", true);
+        JsonObject source = new JsonObject();
+        source.putString("body", "content");
+        source.putString("jms-type", "order");
+        source.putObject("properties", properties);
+
+        Message message = messageConverter.convertToJmsMessage(source);
+        JsonObject destination = messageConverter.convertToJsonObject(message);
+
+        assertThat(message.getJMSType(), equalTo("order"));
+        assertThat(message.getIntProperty("attempt"), equalTo(3));
+        assertThat(destination.getString("jms-type"), equalTo("order"));
+        assertThat(destination.getObject("properties"), equalTo(properties));
+    }
+
+    @Test
+    public void convertWithoutHeaders() throws JMSException {
+        TextMessage source = new ActiveMQTextMessage();
+        source.setText("content");
+        source.setJMSCorrelationID("request-1");
+        source.setStringProperty("tenant", "acme");
+
+        JsonObject destination = messageConverter.convertToJsonObject(null, source, null, false);
+
+        assertThat(destination.getString("body"), equalTo("content"));
+        assertThat(destination.containsField("correlation-id"), equalTo(false));
+        assertThat(destination.containsField("properties"), equalTo(false));
+    }
+
+    @Test
+    public void convertOnlyTheGivenEntriesOfMapMessage() throws JMSException {
+        MapMessage source = new ActiveMQMapMessage();
+        source.setString("id", "4711");
+        source.setInt("amount", 12);
+        source.setString("comment", "not needed");
+
+        JsonObject destination = messageConverter.convertToJsonObject(null, source,
+                Arrays.asList("id", "amount", "missing"), true);
+
+        JsonObject body = destination.getObject("body");
+        assertThat(body.getString("id"), equalTo("4711"));
+        assertThat(body.getInteger("amount"), equalTo(12));
+        assertThat(body.size(), equalTo(2));
+    }
+
+    @Test
+    public void convertMapMessageToJsonObjectMapBody() throws JMSException {
         MapMessage source = new ActiveMQMapMessage();
 
         JsonObject destination = messageConverter.convertToJsonObject(source);
@@ -165,4 +249,73 @@ public class MessageConverterTest {
         assertThat(destination.getElement("body"), notNullValue());
     }
 
+    @Test
+    public void convertJsonObjectBinaryBodyToBytesMessageContent() throws JMSException {
+        byte[] bodyContent = new byte[] { 1, 2, 3, 4 };
+        JsonObject source = new JsonObject();
+        source.putBinary("body", bodyContent);
+        source.putString("body-type", "binary");
+
+        Message destination = messageConverter.convertToJmsMessage(source);
+
+        assertThat(destination, instanceOf(BytesMessage.class));
+        assertThat(readContent((BytesMessage) destination), equalTo(bodyContent));
+    }
+
+    @Test
+    public void convertBufferToBytesMessageContentFromOffset() throws JMSException {
+        Buffer source = new Buffer("QUEUE:body content");
+
+        BytesMessage destination = messageConverter.convertToBytesMessage(source, 6);
+
+        assertThat(readContent(destination), equalTo("body content".getBytes()));
+    }
+
+    @Test
+    public void convertBytesMessageToJsonObjectBinaryBody() throws JMSException {
+        byte[] bodyContent = new byte[] { 1, 2, 3, 4 };
+        BytesMessage source = new ActiveMQBytesMessage();
+        source.writeBytes(bodyContent);
+        source.reset();
+
+        JsonObject destination = messageConverter.convertToJsonObject(source);
+
+        assertThat(destination.getBinary("body"), equalTo(bodyContent));
+        assertThat(destination.getString("body-type"), equalTo("binary"));
+    }
+
+    @Test
+    public void convertBytesMessageToBuffer() throws JMSException {
+        byte[] bodyContent = new byte[] { 1, 2, 3, 4 };
+        BytesMessage source = new ActiveMQBytesMessage();
+        source.writeBytes(bodyContent);
+        source.reset();
+
+        Buffer destination = messageConverter.convertToBuffer(source);
+
+        assertThat(destination.getBytes(), equalTo(bodyContent));
+    }
+
+    private byte[] readContent(BytesMessage bytesMessage) throws JMSException {
+        bytesMessage.reset();
+        byte[] content = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(content);
+
+        return content;
+    }
+
+    @Test
+    public void convertJsonArrayBodyToStreamMessageAndBack() throws JMSException {
+        JsonArray bodyContent = new JsonArray().addString("text").addNumber(42).addBoolean(true);
+        JsonObject source = new JsonObject();
+        source.putArray("body", bodyContent);
+
+        Message message = messageConverter.convertToJmsMessage(source);
+        ((ActiveMQStreamMessage) message).reset();
+        JsonObject destination = messageConverter.convertToJsonObject(message);
+
+        assertThat(message, instanceOf(StreamMessage.class));
+        assertThat(destination.getArray("body"), equalTo(bodyContent));
+    }
+
 }
@@ -0,0 +1,208 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.Outbox;
+import de.ithempel.vertx.mods.activemq.ReplayBuffer;
+
+/**
+ * Unit Tests for the {@link Outbox} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonObject config;
+    private Outbox outbox;
+
+    @Before
+    public void setup() {
+        config = new JsonObject();
+        config.putString("directory", folder.getRoot().getPath());
+        config.putNumber("segment-size", 1024);
+        config.putNumber("max-size", 4096);
+        config.putString("fsync", "never");
+    }
+
+    @After
+    public void tearDown() {
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void readMessagesInOrderOfAppend() throws IOException {
+        outbox = open();
+        outbox.append("QUEUE", message(1), 0);
+        outbox.append("OTHER", new Buffer(new byte[] { 9, 1, 2 }), 1);
+
+        List<ReplayBuffer.Entry> entries = outbox.read(10);
+
+        assertThat(entries.size(), equalTo(2));
+        assertThat(entries.get(0).getDestination(), equalTo("QUEUE"));
+        assertThat(((JsonObject) entries.get(0).getPayload()).getInteger("number"), equalTo(1));
+        assertThat(entries.get(1).getDestination(), equalTo("OTHER"));
+        assertThat(((Buffer) entries.get(1).getPayload()).getBytes(), equalTo(new byte[] { 1, 2 }));
+    }
+
+    @Test
+    public void readMessagesAgainAfterRewind() throws IOException {
+        outbox = open();
+        for (int i = 0; i < 3; i++) {
+            outbox.append("QUEUE", message(i), 0);
+        }
+
+        assertThat(outbox.read(2).size(), equalTo(2));
+        outbox.rewind();
+        assertThat(number(outbox.read(1).get(0)), equalTo(0));
+        outbox.commit();
+
+        assertThat(outbox.size(), equalTo(2L));
+        assertThat(number(outbox.read(10).get(0)), equalTo(1));
+    }
+
+    @Test
+    public void recoverMessagesNotCommittedAfterReopen() throws IOException {
+        outbox = open();
+        for (int i = 0; i < 20; i++) {
+            outbox.append("QUEUE", message(i), 0);
+        }
+        outbox.read(5);
+        outbox.commit();
+        outbox.read(5);
+        outbox.close();
+
+        outbox = open();
+        List<ReplayBuffer.Entry> entries = outbox.read(100);
+
+        assertThat(outbox.size(), equalTo(15L));
+        assertThat(entries.size(), equalTo(15));
+        assertThat(number(entries.get(0)), equalTo(5));
+        assertThat(number(entries.get(14)), equalTo(19));
+    }
+
+    @Test
+    public void deleteSegmentsAfterCommit() throws IOException {
+        outbox = open();
+        for (int i = 0; i < 40; i++) {
+            outbox.append("QUEUE", message(i), 0);
+        }
+        assertTrue(outbox.getStatistics().getInteger("segments") > 1);
+
+        assertThat(outbox.read(100).size(), equalTo(40));
+        outbox.commit();
+
+        assertThat(outbox.getStatistics().getInteger("segments"), equalTo(1));
+        assertThat(outbox.getStatistics().getLong("backlog-bytes"), equalTo(0L));
+        assertThat(outbox.getStatistics().getLong("drained"), equalTo(40L));
+    }
+
+    @Test
+    public void rejectMessagesWhenMaxSizeIsReached() throws IOException {
+        outbox = open();
+        int appended = 0;
+        while (outbox.append("QUEUE", message(appended), 0)) {
+            appended++;
+        }
+
+        assertTrue(appended > 0);
+        assertThat(outbox.getStatistics().getInteger("segments"), equalTo(4));
+        assertThat(outbox.getStatistics().getLong("rejected"), equalTo(1L));
+    }
+
+    @Test
+    public void ignoreCorruptRecordOnRecovery() throws IOException {
+        outbox = open();
+        outbox.append("QUEUE", message(1), 0);
+        outbox.append("QUEUE", message(2), 0);
+        outbox.close();
+
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile(), "rw")) {
+            int length = segment.readInt();
+            segment.seek(8 + length + 20);
+            segment.write(0x7f);
+        }
+
+        outbox = open();
+        List<ReplayBuffer.Entry> entries = outbox.read(10);
+
+        assertThat(entries.size(), equalTo(1));
+        assertThat(number(entries.get(0)), equalTo(1));
+        assertThat(outbox.getStatistics().getLong("corrupt"), equalTo(1L));
+    }
+
+    @Test
+    public void discardMessagesOlderThanRetention() throws Exception {
+        config.putNumber("retention", 20);
+        outbox = open();
+        outbox.append("QUEUE", message(1), 0);
+        Thread.sleep(50);
+        outbox.append("QUEUE", message(2), 0);
+
+        List<ReplayBuffer.Entry> entries = outbox.read(10);
+        outbox.commit();
+
+        assertThat(entries.size(), equalTo(1));
+        assertThat(number(entries.get(0)), equalTo(2));
+        assertThat(outbox.getStatistics().getLong("expired"), equalTo(1L));
+        assertThat(outbox.size(), equalTo(0L));
+    }
+
+    private Outbox open() throws IOException {
+        Outbox opened = new Outbox(config, mock(Logger.class));
+        opened.open();
+
+        return opened;
+    }
+
+    private File segmentFile() {
+        return new File(folder.getRoot(), String.format("%020d.segment", 1));
+    }
+
+    private JsonObject message(int number) {
+        return new JsonObject().putNumber("number", number).putString("body", "message body");
+    }
+
+    private int number(ReplayBuffer.Entry entry) {
+        return ((JsonObject) entry.getPayload()).getInteger("number");
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ProducerCache;
+
+/**
+ * Unit Tests for the {@link ProducerCache} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class ProducerCacheTest {
+
+    private Session session;
+    private Logger logger;
+
+    @Before
+    public void setup() throws JMSException {
+        session = mock(Session.class);
+        when(session.createQueue(anyString())).then(new Answer<Queue>() {
+            @Override
+            public Queue answer(InvocationOnMock invocation) throws Throwable {
+                return new ActiveMQQueue((String) invocation.getArguments()[0]);
+            }
+        });
+        when(session.createProducer(any(Destination.class))).then(new Answer<MessageProducer>() {
+            @Override
+            public MessageProducer answer(InvocationOnMock invocation) throws Throwable {
+                return mock(MessageProducer.class);
+            }
+        });
+
+        logger = new Logger(null);
+    }
+
+    @Test
+    public void reuseProducerForSameDestination() throws JMSException {
+        ProducerCache cache = new ProducerCache(session, logger, 4, 0);
+
+        MessageProducer first = cache.getProducer("QUEUE");
+        MessageProducer second = cache.getProducer("QUEUE");
+
+        assertThat(second, sameInstance(first));
+        verify(session, times(1)).createProducer(any(Destination.class));
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedProducerWhenFull() throws JMSException {
+        ProducerCache cache = new ProducerCache(session, logger, 2, 0);
+
+        MessageProducer first = cache.getProducer("FIRST");
+        cache.getProducer("SECOND");
+        cache.getProducer("FIRST");
+        MessageProducer second = cache.getProducer("SECOND");
+        cache.getProducer("THIRD");
+
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.getEvictions(), equalTo(1L));
+        assertThat(cache.getProducer("SECOND"), sameInstance(second));
+        assertThat(cache.getProducer("FIRST"), not(sameInstance(first)));
+        verify(first).close();
+    }
+
+    @Test
+    public void reportCountersAsJson() throws JMSException {
+        ProducerCache cache = new ProducerCache(session, logger, 1, 0);
+
+        cache.getProducer("FIRST");
+        cache.getProducer("FIRST");
+        cache.getProducer("SECOND");
+
+        JsonObject statistics = cache.getStatistics();
+        assertThat(statistics.getInteger("size"), equalTo(1));
+        assertThat(statistics.getLong("hits"), equalTo(1L));
+        assertThat(statistics.getLong("misses"), equalTo(2L));
+        assertThat(statistics.getLong("evictions"), equalTo(1L));
+    }
+
+    @Test
+    public void evictIdleProducers() throws JMSException, InterruptedException {
+        ProducerCache cache = new ProducerCache(session, logger, 4, 1);
+
+        MessageProducer first = cache.getProducer("QUEUE");
+        Thread.sleep(5);
+        MessageProducer second = cache.getProducer("QUEUE");
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(cache.getEvictions(), equalTo(1L));
+        verify(first).close();
+    }
+
+    @Test
+    public void closeAllProducersOnClose() throws JMSException {
+        ProducerCache cache = new ProducerCache(session, logger, 4, 0);
+        MessageProducer first = cache.getProducer("FIRST");
+        MessageProducer second = cache.getProducer("SECOND");
+
+        cache.close();
+
+        verify(first).close();
+        verify(second).close();
+        assertThat(cache.size(), equalTo(0));
+    }
+
+}
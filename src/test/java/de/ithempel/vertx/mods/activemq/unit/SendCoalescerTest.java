@@ -0,0 +1,249 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.JmsExecutor;
+import de.ithempel.vertx.mods.activemq.SendCoalescer;
+
+/**
+ * Unit Tests for the {@link SendCoalescer} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SendCoalescerTest {
+
+    private Vertx vertx;
+    private ActiveMqClient amqClient;
+    private JmsExecutor executor;
+    private SendCoalescer coalescer;
+
+    private final List<Handler<Long>> timers = new ArrayList<>();
+    private final List<String> destinations = new ArrayList<>();
+    private final List<JsonArray> batches = new ArrayList<>();
+    private final List<JsonObject> replies = new ArrayList<>();
+    private final JsonArray failed = new JsonArray();
+    private boolean buffering;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        vertx = mock(Vertx.class);
+        doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                timers.add((Handler<Long>) invocation.getArguments()[1]);
+                return (long) timers.size();
+            }
+        }).when(vertx).setTimer(anyLong(), any(Handler.class));
+
+        amqClient = mock(ActiveMqClient.class);
+        doAnswer(new Answer<JsonObject>() {
+            @Override
+            public JsonObject answer(InvocationOnMock invocation) throws Throwable {
+                JsonArray messages = (JsonArray) invocation.getArguments()[1];
+                destinations.add((String) invocation.getArguments()[0]);
+                batches.add(messages);
+
+                JsonArray receipts = new JsonArray();
+                for (int index = 0; index < messages.size(); index++) {
+                    JsonObject receipt = new JsonObject().putNumber("index", index).putBoolean("buffered", buffering);
+                    if (!buffering) {
+                        receipt.putString("message-id", "ID:" + batches.size() + ":" + index);
+                        receipt.putNumber("send-micros", 10);
+                    }
+                    receipts.addObject(receipt);
+                }
+
+                JsonObject result = new JsonObject();
+                result.putNumber("sent", buffering ? 0 : messages.size() - failed.size());
+                result.putNumber("buffered", buffering ? messages.size() : 0);
+                result.putArray("receipts", receipts);
+                result.putArray("failed", failed);
+                return result;
+            }
+        }).when(amqClient).sendBatch(anyString(), any(JsonArray.class));
+
+        executor = new JmsExecutor(vertx, mock(Logger.class), 0, 1);
+        coalescer = new SendCoalescer(vertx, amqClient, executor, mock(Logger.class), 3, 10);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void flushWhenMaximumBatchSizeIsReached() {
+        send("QUEUE", 2);
+        assertThat(batches.size(), equalTo(0));
+
+        send("QUEUE", 1);
+
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).size(), equalTo(3));
+        verify(vertx).cancelTimer(1L);
+        assertThat(replies.size(), equalTo(3));
+        for (int i = 0; i < 3; i++) {
+            JsonObject reply = replies.get(i);
+            assertThat(reply.getString("status"), equalTo("ok"));
+            assertThat(reply.getBoolean("buffered"), equalTo(false));
+            assertThat(reply.getString("message-id"), equalTo("ID:1:" + i));
+            assertThat(reply.getLong("send-micros"), equalTo(10L));
+            assertTrue(reply.getLong("latency-micros") >= 0);
+            assertThat(reply.containsField("index"), equalTo(false));
+        }
+        assertThat(coalescer.getStatistics().getInteger("queue-depth"), equalTo(0));
+        assertThat(coalescer.getStatistics().getInteger("max-flush-size"), equalTo(3));
+    }
+
+    @Test
+    public void flushWhenLingerTimeHasPassed() {
+        send("QUEUE", 2);
+        assertThat(timers.size(), equalTo(1));
+        assertThat(batches.size(), equalTo(0));
+
+        timers.get(0).handle(1L);
+
+        assertThat(destinations, equalTo(Arrays.asList("QUEUE")));
+        assertThat(batches.get(0).size(), equalTo(2));
+        assertThat(replies.size(), equalTo(2));
+    }
+
+    @Test
+    public void ignoreTimerOfFlushedBatch() {
+        send("QUEUE", 3);
+        send("QUEUE", 1);
+
+        timers.get(0).handle(1L);
+
+        assertThat(batches.size(), equalTo(1));
+        assertThat(coalescer.getStatistics().getInteger("queue-depth"), equalTo(1));
+    }
+
+    @Test
+    public void flushAllDestinationsOnStop() {
+        send("FIRST", 1);
+        send("SECOND", 2);
+
+        coalescer.flushAll();
+
+        assertThat(batches.size(), equalTo(2));
+        assertThat(destinations.contains("FIRST"), equalTo(true));
+        assertThat(destinations.contains("SECOND"), equalTo(true));
+        verify(vertx).cancelTimer(1L);
+        verify(vertx).cancelTimer(2L);
+        assertThat(replies.size(), equalTo(3));
+        assertThat(coalescer.getStatistics().getInteger("queue-depth"), equalTo(0));
+    }
+
+    @Test
+    public void replyErrorOfFailedEntries() {
+        failed.addObject(new JsonObject().putNumber("index", 1).putString("error", "unknown body-type unknown"));
+
+        send("QUEUE", 3);
+
+        assertThat(replies.get(0).getString("status"), equalTo("ok"));
+        assertThat(replies.get(1).getString("status"), equalTo("error"));
+        assertThat(replies.get(1).getString("message"), equalTo("unknown body-type unknown"));
+        assertThat(replies.get(1).containsField("message-id"), equalTo(false));
+        assertThat(replies.get(2).getString("status"), equalTo("ok"));
+        assertThat(replies.get(2).getString("message-id"), equalTo("ID:1:2"));
+        assertThat(coalescer.getStatistics().getLong("flushed-messages"), equalTo(2L));
+        assertThat(coalescer.getStatistics().getLong("failed-messages"), equalTo(1L));
+    }
+
+    @Test
+    public void replyBufferedEntriesWhileConnectionIsInterrupted() {
+        buffering = true;
+
+        send("QUEUE", 3);
+
+        assertThat(replies.size(), equalTo(3));
+        for (JsonObject reply : replies) {
+            assertThat(reply.getString("status"), equalTo("ok"));
+            assertThat(reply.getBoolean("buffered"), equalTo(true));
+            assertThat(reply.containsField("message-id"), equalTo(false));
+            assertTrue(reply.getLong("latency-micros") >= 0);
+        }
+    }
+
+    @Test
+    public void replyErrorToAllEntriesIfBatchFails() {
+        doThrow(new IllegalStateException("connection lost")).when(amqClient).sendBatch(anyString(),
+                any(JsonArray.class));
+
+        send("QUEUE", 3);
+
+        assertThat(replies.size(), equalTo(3));
+        for (JsonObject reply : replies) {
+            assertThat(reply.getString("status"), equalTo("error"));
+            assertThat(reply.getString("message"), equalTo("connection lost"));
+        }
+    }
+
+    private void send(String destination, int count) {
+        for (int i = 0; i < count; i++) {
+            coalescer.send(destination, message(new JsonObject().putString("body", "message " + i)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<JsonObject> message(JsonObject body) {
+        Message<JsonObject> message = mock(Message.class);
+        when(message.body()).thenReturn(body);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                replies.add((JsonObject) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(message).reply(any(JsonObject.class));
+
+        return message;
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ActiveMqClient;
+import de.ithempel.vertx.mods.activemq.JmsExecutor;
+import de.ithempel.vertx.mods.activemq.SendScheduler;
+
+/**
+ * Unit Tests for the {@link SendScheduler} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SendSchedulerTest {
+
+    private Vertx vertx;
+    private ActiveMqClient amqClient;
+    private JmsExecutor executor;
+
+    private final List<String> started = new ArrayList<>();
+    private final List<JsonObject> startedMessages = new ArrayList<>();
+    private final List<Handler<AsyncResult<JsonObject>>> completionHandlers = new ArrayList<>();
+    private final List<AsyncResult<JsonObject>> results = new ArrayList<>();
+    private final Handler<AsyncResult<JsonObject>> resultHandler = new Handler<AsyncResult<JsonObject>>() {
+        @Override
+        public void handle(AsyncResult<JsonObject> result) {
+            results.add(result);
+        }
+    };
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Context context = mock(Context.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Handler<Void>) invocation.getArguments()[0]).handle(null);
+                return null;
+            }
+        }).when(context).runOnContext(any(Handler.class));
+
+        vertx = mock(Vertx.class);
+        when(vertx.currentContext()).thenReturn(context);
+        when(vertx.setTimer(anyLong(), any(Handler.class))).thenReturn(1L);
+
+        amqClient = mock(ActiveMqClient.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.add((String) invocation.getArguments()[0]);
+                startedMessages.add((JsonObject) invocation.getArguments()[1]);
+                completionHandlers.add((Handler<AsyncResult<JsonObject>>) invocation.getArguments()[2]);
+                return null;
+            }
+        }).when(amqClient).send(anyString(), any(JsonObject.class), any(Handler.class));
+
+        executor = new JmsExecutor(vertx, mock(Logger.class), 0, 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void shareSendsByWeightOfTheClasses() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putNumber("max-in-flight", 1)
+                .putObject("classes", new JsonObject()
+                        .putObject("critical", createClass(3, "FAST"))));
+
+        send(scheduler, "BULK", 8);
+        send(scheduler, "FAST", 4);
+        completeAll();
+
+        assertThat(started.size(), equalTo(12));
+        assertThat(Collections.frequency(started.subList(1, 5), "FAST"), equalTo(3));
+        assertThat(Collections.frequency(started.subList(1, 9), "FAST"), equalTo(4));
+        assertThat(results.size(), equalTo(12));
+    }
+
+    @Test
+    public void serveClassWithHighestWeightFirstWithPriorityPolicy() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putString("policy", SendScheduler.PRIORITY)
+                .putNumber("max-in-flight", 1)
+                .putObject("classes", new JsonObject()
+                        .putObject("critical", createClass(2, "FAST"))));
+
+        send(scheduler, "BULK", 5);
+        send(scheduler, "FAST", 3);
+        completeAll();
+
+        assertThat(started.subList(1, 4), equalTo(Collections.nCopies(3, "FAST")));
+        assertThat(started.subList(4, 8), equalTo(Collections.nCopies(4, "BULK")));
+    }
+
+    @Test
+    public void serveDestinationsOfOneClassRoundRobin() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putNumber("max-in-flight", 1));
+
+        send(scheduler, "A", 5);
+        send(scheduler, "B", 2);
+        completeAll();
+
+        assertThat(started.subList(0, 5).toString(), equalTo("[A, A, B, A, B]"));
+        assertThat(scheduler.getClassName("B"), equalTo(SendScheduler.DEFAULT_CLASS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void delaySendsExceedingTheRateLimit() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putObject("rate-limits", new JsonObject().putNumber("SLOW", 2)));
+
+        send(scheduler, "SLOW", 5);
+        send(scheduler, "OTHER", 1);
+
+        assertThat(started.toString(), equalTo("[SLOW, SLOW, OTHER]"));
+        verify(vertx, times(1)).setTimer(anyLong(), any(Handler.class));
+        assertThat(scheduler.getStatistics().getInteger("queued"), equalTo(3));
+    }
+
+    @Test
+    public void setJmsPriorityOfTheClass() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putObject("classes", new JsonObject()
+                        .putObject("critical", createClass(1, "FAST").putNumber("jms-priority", 8))));
+
+        scheduler.send("FAST", new JsonObject().putString("body", "first"), resultHandler);
+        scheduler.send("FAST", new JsonObject().putString("body", "second").putNumber("priority", 2), resultHandler);
+        scheduler.send("BULK", new JsonObject().putString("body", "third"), resultHandler);
+
+        assertThat(startedMessages.get(0).getInteger("priority"), equalTo(8));
+        assertThat(startedMessages.get(1).getInteger("priority"), equalTo(2));
+        assertThat(startedMessages.get(2).getField("priority"), equalTo(null));
+
+        JsonObject critical = scheduler.getStatistics().getObject("classes").getObject("critical");
+        assertThat(critical.getLong("dispatched"), equalTo(2L));
+        assertThat(critical.getObject("queue-wait").getLong("count"), equalTo(2L));
+    }
+
+    @Test
+    public void rejectSendsWhenTheQueuesAreFull() {
+        SendScheduler scheduler = new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putNumber("max-in-flight", 1)
+                .putNumber("max-queued", 2));
+
+        send(scheduler, "BULK", 4);
+
+        assertThat(started.size(), equalTo(1));
+        assertThat(results.size(), equalTo(1));
+        assertThat(results.get(0).failed(), equalTo(true));
+        assertThat(scheduler.getStatistics().getObject("classes").getObject("default").getLong("rejected"),
+                equalTo(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectDestinationInTwoClasses() {
+        new SendScheduler(vertx, amqClient, executor, new JsonObject()
+                .putObject("classes", new JsonObject()
+                        .putObject("critical", createClass(2, "FAST"))
+                        .putObject("bulk", createClass(1, "FAST"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownPolicy() {
+        new SendScheduler(vertx, amqClient, executor, new JsonObject().putString("policy", "random"));
+    }
+
+    private static JsonObject createClass(int weight, String destination) {
+        return new JsonObject().putNumber("weight", weight)
+                .putArray("destinations", new JsonArray().addString(destination));
+    }
+
+    private void send(SendScheduler scheduler, String destination, int count) {
+        for (int i = 0; i < count; i++) {
+            scheduler.send(destination, new JsonObject().putString("body", destination + i), resultHandler);
+        }
+    }
+
+    private void completeAll() {
+        for (int i = 0; i < completionHandlers.size(); i++) {
+            completionHandlers.get(i).handle(new DefaultFutureResult<>(new JsonObject()));
+        }
+    }
+
+}
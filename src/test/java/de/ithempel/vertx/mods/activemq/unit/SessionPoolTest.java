@@ -0,0 +1,185 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.ClientConfig;
+import de.ithempel.vertx.mods.activemq.ConverterRegistry;
+import de.ithempel.vertx.mods.activemq.PooledSession;
+import de.ithempel.vertx.mods.activemq.SessionPool;
+
+/**
+ * Unit Tests for the {@link SessionPool} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SessionPoolTest {
+
+    private ConnectionFactory connectionFactory;
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Session> sessions = new ArrayList<>();
+
+    @Before
+    public void setup() throws JMSException {
+        connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.createConnection()).thenAnswer(new Answer<Connection>() {
+            @Override
+            public Connection answer(InvocationOnMock invocation) throws Throwable {
+                Connection connection = mock(Connection.class);
+                when(connection.createSession(anyBoolean(), anyInt())).thenAnswer(new Answer<Session>() {
+                    @Override
+                    public Session answer(InvocationOnMock invocation) throws Throwable {
+                        Session session = mock(Session.class);
+                        sessions.add(session);
+                        return session;
+                    }
+                });
+                connections.add(connection);
+                return connection;
+            }
+        });
+    }
+
+    @Test
+    public void openSendAndTransactedSessionsOnEveryConnection() throws JMSException {
+        SessionPool pool = createPool(new JsonObject().putNumber("connections", 2)
+                .putNumber("sessions-per-connection", 3));
+
+        pool.open(connectionFactory);
+
+        assertThat(connections.size(), equalTo(2));
+        assertThat(sessions.size(), equalTo(12));
+        for (Connection connection : connections) {
+            verify(connection, times(3)).createSession(false, Session.AUTO_ACKNOWLEDGE);
+            verify(connection, times(3)).createSession(true, Session.SESSION_TRANSACTED);
+            verify(connection).start();
+        }
+    }
+
+    @Test
+    public void appendNumberToClientIdOfFurtherConnections() throws JMSException {
+        SessionPool pool = createPool(new JsonObject().putNumber("connections", 3)
+                .putString("client-id", "module"));
+
+        pool.open(connectionFactory);
+
+        verify(connections.get(0)).setClientID("module");
+        verify(connections.get(1)).setClientID("module-1");
+        verify(connections.get(2)).setClientID("module-2");
+    }
+
+    @Test
+    public void createDurableSessionsOnFirstConnection() throws JMSException {
+        SessionPool pool = createPool(new JsonObject().putNumber("connections", 3)
+                .putString("client-id", "module"));
+        pool.open(connectionFactory);
+
+        for (int i = 0; i < 4; i++) {
+            pool.createDurableSession(false);
+        }
+
+        verify(connections.get(0), times(5)).createSession(false, Session.AUTO_ACKNOWLEDGE);
+        verify(connections.get(1), times(1)).createSession(false, Session.AUTO_ACKNOWLEDGE);
+        verify(connections.get(2), times(1)).createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    @Test(expected = JMSException.class)
+    public void rejectDurableSessionWithoutClientId() throws JMSException {
+        SessionPool pool = createPool(new JsonObject());
+        pool.open(connectionFactory);
+
+        pool.createDurableSession(false);
+    }
+
+    @Test
+    public void mapDestinationToSameSession() throws JMSException {
+        SessionPool pool = createPool(new JsonObject().putNumber("connections", 2)
+                .putNumber("sessions-per-connection", 4));
+        pool.open(connectionFactory);
+
+        PooledSession orders = pool.getSendSession("ORDERS");
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(pool.getSendSession("ORDERS"), sameInstance(orders));
+        }
+        assertThat(pool.getTransactedSession(), not(sameInstance(orders)));
+    }
+
+    @Test
+    public void closeOpenedConnectionsWhenConnectionFails() throws JMSException {
+        final JMSException failure = new JMSException("broker gone");
+        doAnswer(new Answer<Connection>() {
+            @Override
+            public Connection answer(InvocationOnMock invocation) throws Throwable {
+                if (connections.size() == 2) {
+                    throw failure;
+                }
+                Connection connection = mock(Connection.class);
+                when(connection.createSession(anyBoolean(), anyInt())).thenReturn(mock(Session.class));
+                connections.add(connection);
+                return connection;
+            }
+        }).when(connectionFactory).createConnection();
+        SessionPool pool = createPool(new JsonObject().putNumber("connections", 3));
+
+        try {
+            pool.open(connectionFactory);
+            fail("the failure of the third connection must be reported");
+        }
+        catch (JMSException e) {
+            assertThat(e, sameInstance(failure));
+        }
+
+        assertThat(connections.size(), equalTo(2));
+        for (Connection connection : connections) {
+            verify(connection).close();
+        }
+    }
+
+    private static SessionPool createPool(JsonObject config) {
+        return new SessionPool(new ClientConfig(config), new ConverterRegistry(), mock(Logger.class));
+    }
+
+}
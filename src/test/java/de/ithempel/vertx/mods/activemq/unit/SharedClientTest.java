@@ -0,0 +1,185 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.SharedClient;
+import de.ithempel.vertx.mods.activemq.SubscriptionOptions;
+
+/**
+ * Unit Tests for the {@link SharedClient} class with several module instances and an embedded
+ * broker.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SharedClientTest {
+
+    private BrokerService broker;
+    private JsonObject config;
+    private final List<SharedClient> acquired = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector("tcp://localhost:0");
+        broker.start();
+        broker.waitUntilStarted();
+
+        config = new JsonObject();
+        config.putNumber("port", broker.getTransportConnectors().get(0).getConnectUri().getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SharedClient sharedClient : acquired) {
+            sharedClient.release();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void shareOneConnectionBetweenInstances() throws Exception {
+        Object first = new Object();
+        Object second = new Object();
+
+        SharedClient firstClient = acquire(first);
+        SharedClient secondClient = acquire(second);
+
+        assertThat(secondClient, sameInstance(firstClient));
+        assertThat(firstClient.getReferences(), equalTo(2));
+        assertThat(firstClient.isOwner(first), equalTo(true));
+        assertThat(firstClient.isOwner(second), equalTo(false));
+        assertThat(awaitConnections(1), equalTo(1));
+
+        acquired.remove(firstClient);
+        firstClient.release();
+        assertThat(secondClient.getReferences(), equalTo(1));
+        assertThat(awaitConnections(1), equalTo(1));
+
+        acquired.remove(secondClient);
+        secondClient.release();
+        assertThat(awaitConnections(0), equalTo(0));
+    }
+
+    @Test
+    public void openClientPerInstanceWithoutSharing() throws Exception {
+        config.putBoolean("shared-client", false);
+
+        SharedClient firstClient = acquire(new Object());
+        SharedClient secondClient = acquire(new Object());
+
+        assertThat(secondClient, not(sameInstance(firstClient)));
+        assertThat(awaitConnections(2), equalTo(2));
+    }
+
+    @Test
+    public void deliverMessagesOfVirtualTopicOncePerGroup() throws Exception {
+        config.putBoolean("shared-client", false);
+        SharedClient firstNode = acquire(new Object());
+        SharedClient secondNode = acquire(new Object());
+        BlockingQueue<Object> billing = new LinkedBlockingQueue<>();
+        BlockingQueue<Object> audit = new LinkedBlockingQueue<>();
+
+        subscribe(firstNode, "billing", billing);
+        subscribe(secondNode, "billing", billing);
+        subscribe(secondNode, "audit", audit);
+        for (int i = 0; i < 20; i++) {
+            firstNode.getClient().send("topic://VirtualTopic.ORDERS",
+                    new JsonObject().putString("body", "order " + i), new Handler<AsyncResult<JsonObject>>() {
+                        @Override
+                        public void handle(AsyncResult<JsonObject> result) {
+                        }
+                    });
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(billing.poll(5, TimeUnit.SECONDS), not(nullValue()));
+            assertThat(audit.poll(5, TimeUnit.SECONDS), not(nullValue()));
+        }
+        assertThat(billing.poll(200, TimeUnit.MILLISECONDS), nullValue());
+        assertThat(audit.poll(200, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test(expected = JMSException.class)
+    public void rejectGroupForPlainTopic() throws Exception {
+        SharedClient sharedClient = acquire(new Object());
+
+        sharedClient.getClient().subscribe("topic://ORDERS",
+                new SubscriptionOptions(new JsonObject().putString("group", "billing")), null);
+    }
+
+    private SharedClient acquire(Object instance) {
+        SharedClient sharedClient = SharedClient.acquire(instance, mock(Vertx.class), mock(Logger.class), config);
+        assertThat(sharedClient, not(nullValue()));
+        acquired.add(sharedClient);
+
+        return sharedClient;
+    }
+
+    private void subscribe(SharedClient sharedClient, String group, final BlockingQueue<Object> received)
+            throws JMSException {
+        sharedClient.getClient().subscribe("topic://VirtualTopic.ORDERS",
+                new SubscriptionOptions(new JsonObject().putString("group", group)), new Handler<Object>() {
+                    @Override
+                    public void handle(Object body) {
+                        received.add(body);
+                    }
+                });
+    }
+
+    private int awaitConnections(int expected) throws InterruptedException {
+        int connections = 0;
+        for (int i = 0; i < 50; i++) {
+            connections = broker.getTransportConnectors().get(0).getConnections().size();
+            if (connections == expected) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        return connections;
+    }
+
+}
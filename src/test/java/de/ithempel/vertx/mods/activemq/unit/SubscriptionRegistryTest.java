@@ -0,0 +1,97 @@
+/**
+ * mod-activemq-io
+ *
+ * Copyright 2014 Sebastian Hempel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ithempel.vertx.mods.activemq.unit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+
+import javax.jms.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import de.ithempel.vertx.mods.activemq.Subscription;
+import de.ithempel.vertx.mods.activemq.SubscriptionRegistry;
+
+/**
+ * Unit Tests for the {@link SubscriptionRegistry} class.
+ *
+ * @author https://github.com/ithempel[Sebastian Hempel]
+ */
+public class SubscriptionRegistryTest {
+
+    private SubscriptionRegistry registry;
+    private Subscription subscription;
+
+    @Before
+    public void setup() {
+        registry = new SubscriptionRegistry();
+        subscription = new Subscription("QUEUE", null, Collections.singletonList(mock(Session.class)), null,
+                mock(Logger.class));
+    }
+
+    @Test
+    public void rejectDuplicateSubscription() {
+        assertThat(registry.reserve("QUEUE", "subscriber"), equalTo(true));
+        assertThat(registry.reserve("QUEUE", "subscriber"), equalTo(false));
+        assertThat(registry.reserve("QUEUE", "other-subscriber"), equalTo(true));
+        assertThat(registry.reserve("OTHERQUEUE", "subscriber"), equalTo(true));
+    }
+
+    @Test
+    public void removeActivatedSubscription() {
+        registry.reserve("QUEUE", "subscriber");
+        registry.activate("QUEUE", "subscriber", subscription);
+
+        assertThat(registry.remove("QUEUE", "subscriber"), sameInstance(subscription));
+        assertThat(registry.contains("QUEUE", "subscriber"), equalTo(false));
+        assertThat(registry.reserve("QUEUE", "subscriber"), equalTo(true));
+    }
+
+    @Test
+    public void refuseActivationOfRemovedReservation() {
+        registry.reserve("QUEUE", "subscriber");
+
+        assertThat(registry.remove("QUEUE", "subscriber"), nullValue());
+        assertThat(registry.activate("QUEUE", "subscriber", subscription), equalTo(false));
+    }
+
+    @Test
+    public void listActiveSubscriptionsOnly() {
+        registry.reserve("QUEUE", "subscriber");
+        registry.activate("QUEUE", "subscriber", subscription);
+        registry.reserve("OTHERQUEUE", "subscriber");
+
+        JsonArray subscriptions = registry.list();
+
+        assertThat(subscriptions.size(), equalTo(1));
+        JsonObject listed = subscriptions.get(0);
+        assertThat(listed.getString("destination"), equalTo("QUEUE"));
+        assertThat(listed.getString("subscriber-address"), equalTo("subscriber"));
+        assertThat(listed.getInteger("consumers"), equalTo(1));
+    }
+
+}